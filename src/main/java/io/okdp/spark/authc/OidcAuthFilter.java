@@ -16,6 +16,7 @@
 
 package io.okdp.spark.authc;
 
+import static io.okdp.spark.authc.utils.HttpAuthenticationUtils.addChunkedCookies;
 import static io.okdp.spark.authc.utils.HttpAuthenticationUtils.domain;
 import static io.okdp.spark.authc.utils.HttpAuthenticationUtils.sendError;
 import static io.okdp.spark.authc.utils.PreconditionsUtils.assertCookieSecure;
@@ -24,18 +25,32 @@ import static io.okdp.spark.authc.utils.PreconditionsUtils.checkAuthLogin;
 import static io.okdp.spark.authc.utils.PreconditionsUtils.warnUnsupportedScopes;
 import static java.lang.String.format;
 import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JOSEObjectType;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSetBasedJWKSource;
+import com.nimbusds.jose.jwk.source.JWKSetCacheRefreshEvaluator;
+import com.nimbusds.jose.jwk.source.JWKSetSource;
 import com.nimbusds.jose.jwk.source.JWKSource;
 import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.jwk.source.URLBasedJWKSetSource;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jose.proc.DefaultJOSEObjectTypeVerifier;
 import com.nimbusds.jose.proc.JWSKeySelector;
-import com.nimbusds.jose.proc.JWSVerificationKeySelector;
 import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jose.util.DefaultResourceRetriever;
 import com.nimbusds.jwt.JWTClaimNames;
 import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.proc.ConfigurableJWTProcessor;
@@ -44,29 +59,71 @@ import com.nimbusds.jwt.proc.DefaultJWTProcessor;
 import io.okdp.spark.authc.config.Constants;
 import io.okdp.spark.authc.config.HttpSecurityConfig;
 import io.okdp.spark.authc.config.OidcConfig;
+import io.okdp.spark.authc.config.OidcMetadataSnapshotStore;
+import io.okdp.spark.authc.config.SkipRequestMatcher;
 import io.okdp.spark.authc.exception.AuthenticationException;
 import io.okdp.spark.authc.exception.CipherException;
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.jwt.CachingJWSKeySelector;
+import io.okdp.spark.authc.jwt.CachingJWSVerifierFactory;
+import io.okdp.spark.authc.jwt.MeteredJWKSetSource;
+import io.okdp.spark.authc.jwt.SnapshotJWKSetSource;
+import io.okdp.spark.authc.jwt.VerifiedJwtCache;
 import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.model.AuthState;
+import io.okdp.spark.authc.model.OidcMetadataSnapshot;
 import io.okdp.spark.authc.model.PersistedToken;
 import io.okdp.spark.authc.model.WellKnownConfiguration;
 import io.okdp.spark.authc.provider.AuthProvider;
 import io.okdp.spark.authc.provider.IdentityProviderFactory;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.provider.impl.OidcHttpClient;
+import io.okdp.spark.authc.provider.impl.RenewedSessions;
+import io.okdp.spark.authc.provider.impl.SessionRenewer;
+import io.okdp.spark.authc.provider.impl.SessionRenewer.RenewedSession;
+import io.okdp.spark.authc.provider.impl.StartupWarmup;
+import io.okdp.spark.authc.provider.impl.store.CachingSessionStore;
 import io.okdp.spark.authc.provider.impl.store.CookieSessionStore;
+import io.okdp.spark.authc.provider.impl.store.FileSessionStore;
+import io.okdp.spark.authc.provider.impl.store.JdbcSessionStore;
+import io.okdp.spark.authc.provider.impl.store.OffHeapSessionStore;
+import io.okdp.spark.authc.utils.Bulkhead;
+import io.okdp.spark.authc.utils.CircuitBreaker;
+import io.okdp.spark.authc.utils.CompressionCodec;
 import io.okdp.spark.authc.utils.HttpAuthenticationUtils;
 import io.okdp.spark.authc.utils.JsonUtils;
 import io.okdp.spark.authc.utils.PreconditionsUtils;
+import io.okdp.spark.authc.utils.RefCountedRegistry;
+import io.okdp.spark.authc.utils.TokenFormat;
 import io.okdp.spark.authc.utils.TokenUtils;
 import io.okdp.spark.authc.utils.exception.Try;
 import io.okdp.spark.authz.OidcGroupMappingServiceProvider;
+import io.okdp.spark.authz.OidcGroupMappingServiceProvider.RequestScope;
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -76,19 +133,192 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import one.util.streamex.StreamEx;
 import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.pool.PoolStats;
 
 @Slf4j
 public class OidcAuthFilter implements Filter, Constants {
 
+  /** The filter cores shared by the filter instances with the same init parameters */
+  private static final RefCountedRegistry<Map<String, String>, CompletableFuture<Core>> CORES =
+      new RefCountedRegistry<>();
+
+  /** The delays between the attempts of the background initialization */
+  private static final long INIT_MIN_BACKOFF_MILLIS = 1_000;
+
+  private static final long INIT_MAX_BACKOFF_MILLIS = 60_000;
+
+  /** The request attribute holding the result of the asynchronous token request */
+  private static final String ASYNC_TOKEN_RESULT = OidcAuthFilter.class.getName() + ".tokenResult";
+
+  /** The time the suspended request waits after the token request timeouts */
+  private static final long ASYNC_TIMEOUT_MARGIN_MILLIS = 5_000;
+
   private AuthProvider authProvider;
   private ConfigurableJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
   private String jwtHeader;
+  private VerifiedJwtCache verifiedJwtCache;
+  private MeteredJWKSetSource<SecurityContext> jwksMetrics;
+  private JWKSource<SecurityContext> jwkSource;
+  private SessionRenewer sessionRenewer;
+  private RenewedSessions renewedSessions;
+  private boolean asyncTokenRequests;
+  private int cookieMaxChunks = AUTH_COOKIE_DEFAULT_MAX_CHUNKS;
+  private Map<String, String> coreKey;
+  private CompletableFuture<Core> core;
+  private volatile boolean ready;
+  private SkipRequestMatcher initSkipRequestMatcher = SkipRequestMatcher.none();
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Spark adds the filter to each of its UI handlers. The filter instances with the same
+   * configuration share the oidc provider discovery, the JWKS, the session store, the caches and
+   * the http client set up by the first initialized instance.
+   */
   @Override
   public void init(FilterConfig filterConfig) throws ServletException {
+    boolean backgroundInit =
+        Boolean.parseBoolean(
+            ofNullable(filterConfig.getInitParameter(AUTH_BACKGROUND_INIT))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_BACKGROUND_INIT"))
+                        .orElse(AUTH_DEFAULT_BACKGROUND_INIT))
+                .toLowerCase());
+    Map<String, String> key = initParameters(filterConfig);
+    CompletableFuture<Core> sharedCore =
+        CORES.acquire(
+            key,
+            () -> {
+              if (backgroundInit) {
+                return configureInBackground(filterConfig);
+              }
+              return CompletableFuture.completedFuture(configureCore(filterConfig, false));
+            });
+    coreKey = key;
+    core = sharedCore;
+    if (!coreReady()) {
+      // Until the core is ready, only the requests skipping the authentication are served
+      initSkipRequestMatcher = SkipRequestMatcher.compile(skipRequests(filterConfig));
+    }
+    log.debug("The filter core is shared by {} filter instances", CORES.refCount(key));
+  }
+
+  /**
+   * Set up the filter core in a background thread, retrying with a backoff until the oidc provider
+   * is reachable
+   */
+  private CompletableFuture<Core> configureInBackground(FilterConfig filterConfig) {
+    CompletableFuture<Core> initialized = new CompletableFuture<>();
+    ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("okdp-auth-filter-init-%d")
+                .setDaemon(true)
+                .build());
+    // Stop the attempts once initialized, or once the filter is destroyed
+    initialized.whenComplete((configured, e) -> executor.shutdownNow());
+    executor.execute(
+        () -> configureAttempt(filterConfig, initialized, executor, INIT_MIN_BACKOFF_MILLIS));
+    log.info("Initializing the OIDC Auth filter in the background ...");
+    return initialized;
+  }
+
+  /** Attempt to set up the filter core, and schedule the next attempt if it failed */
+  private void configureAttempt(
+      FilterConfig filterConfig,
+      CompletableFuture<Core> initialized,
+      ScheduledExecutorService executor,
+      long backoffMillis) {
+    if (initialized.isDone()) {
+      return;
+    }
+    try {
+      Core configured = configureCore(filterConfig, true);
+      // The filter may have been destroyed in the meantime
+      if (!initialized.complete(configured)) {
+        configured.close();
+      }
+    } catch (ServletException | RuntimeException e) {
+      log.warn(
+          "Unable to initialize the OIDC Auth filter, retrying in {} ms, cause: {}",
+          backoffMillis,
+          e.getMessage());
+      try {
+        executor.schedule(
+            () ->
+                configureAttempt(
+                    filterConfig,
+                    initialized,
+                    executor,
+                    Math.min(2 * backoffMillis, INIT_MAX_BACKOFF_MILLIS)),
+            backoffMillis,
+            MILLISECONDS);
+      } catch (RejectedExecutionException rejected) {
+        log.debug("The OIDC Auth filter was destroyed during its initialization");
+      }
+    }
+  }
+
+  /**
+   * Set up the filter core, closing the resources already set up if it fails, so that a failed
+   * attempt does not leak its sessions store, http client or background threads
+   */
+  private Core configureCore(FilterConfig filterConfig, boolean background)
+      throws ServletException {
+    List<AutoCloseable> resources = new ArrayList<>();
+    boolean configured = false;
+    try {
+      configure(filterConfig, background, resources);
+      configured = true;
+      return new Core(this);
+    } finally {
+      if (!configured) {
+        // Close the resources in the reverse order of their creation
+        for (int i = resources.size() - 1; i >= 0; i--) {
+          try {
+            resources.get(i).close();
+          } catch (Exception e) {
+            log.warn("Unable to close a resource of the failed initialization: {}", e.getMessage());
+          }
+        }
+      }
+    }
+  }
+
+  /** Check if the filter core is set up, and bind it to this filter instance once it is */
+  private boolean coreReady() {
+    if (ready) {
+      return true;
+    }
+    Core initialized = core.isDone() && !core.isCancelled() ? core.join() : null;
+    if (initialized == null) {
+      return false;
+    }
+    synchronized (this) {
+      if (!ready) {
+        initialized.applyTo(this);
+        ready = true;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Set up the filter core
+   *
+   * @param filterConfig the filter configuration
+   * @param background true if the filter is initialized in the background: the well known
+   *     configuration is fetched with bounded timeouts and the JWKS prefetch does not delay the
+   *     initialization
+   * @param resources collects the resources set up, to be closed if the set up fails
+   */
+  private void configure(
+      FilterConfig filterConfig, boolean background, List<AutoCloseable> resources)
+      throws ServletException {
     String issuerUri =
         PreconditionsUtils.checkNotNull(
             ofNullable(filterConfig.getInitParameter(AUTH_ISSUER_URI))
@@ -134,6 +364,200 @@ public class OidcAuthFilter implements Filter, Constants {
                 .orElse(
                     ofNullable(System.getenv("AUTH_COOKE_MAX_AGE_SECONDS"))
                         .orElse(String.valueOf(AUTH_COOKE_DEFAULT_MAX_AGE_MINUTES))));
+    CompressionCodec cookieCompression =
+        CompressionCodec.from(
+            ofNullable(filterConfig.getInitParameter(AUTH_COOKIE_COMPRESSION))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_COOKIE_COMPRESSION"))
+                        .orElse(AUTH_COOKIE_DEFAULT_COMPRESSION)));
+    TokenFormat cookieTokenFormat =
+        TokenFormat.from(
+            ofNullable(filterConfig.getInitParameter(AUTH_COOKIE_TOKEN_FORMAT))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_COOKIE_TOKEN_FORMAT"))
+                        .orElse(AUTH_COOKIE_DEFAULT_TOKEN_FORMAT)));
+    cookieMaxChunks =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(AUTH_COOKIE_MAX_CHUNKS))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_COOKIE_MAX_CHUNKS"))
+                        .orElse(String.valueOf(AUTH_COOKIE_DEFAULT_MAX_CHUNKS))));
+    String sessionStoreType =
+        ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE))
+            .orElse(
+                ofNullable(System.getenv("AUTH_SESSION_STORE")).orElse(AUTH_SESSION_DEFAULT_STORE))
+            .toLowerCase();
+    long sessionStoreMaxMemoryMB =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_MAX_MEMORY_MB))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_SESSION_STORE_MAX_MEMORY_MB"))
+                        .orElse(String.valueOf(AUTH_SESSION_STORE_DEFAULT_MAX_MEMORY_MB))));
+    String sessionStorePath =
+        ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_PATH))
+            .orElse(
+                ofNullable(System.getenv("AUTH_SESSION_STORE_PATH"))
+                    .orElse(
+                        Paths.get(
+                                System.getProperty("java.io.tmpdir"),
+                                AUTH_SESSION_STORE_DEFAULT_PATH)
+                            .toString()));
+    long sessionStoreMaxFileSizeMB =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_MAX_FILE_SIZE_MB))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_SESSION_STORE_MAX_FILE_SIZE_MB"))
+                        .orElse(String.valueOf(AUTH_SESSION_STORE_DEFAULT_MAX_FILE_SIZE_MB))));
+    String sessionStoreJdbcUrl =
+        ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_JDBC_URL))
+            .orElse(System.getenv("AUTH_SESSION_STORE_JDBC_URL"));
+    String sessionStoreJdbcUser =
+        ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_JDBC_USER))
+            .orElse(System.getenv("AUTH_SESSION_STORE_JDBC_USER"));
+    String sessionStoreJdbcPassword =
+        ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_JDBC_PASSWORD))
+            .orElse(System.getenv("AUTH_SESSION_STORE_JDBC_PASSWORD"));
+    String sessionStoreJdbcTable =
+        ofNullable(filterConfig.getInitParameter(AUTH_SESSION_STORE_JDBC_TABLE))
+            .orElse(
+                ofNullable(System.getenv("AUTH_SESSION_STORE_JDBC_TABLE"))
+                    .orElse(AUTH_SESSION_STORE_DEFAULT_JDBC_TABLE));
+    long sessionCacheMaxSize =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_SESSION_CACHE_MAX_SIZE))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_SESSION_CACHE_MAX_SIZE"))
+                        .orElse(String.valueOf(AUTH_SESSION_CACHE_DEFAULT_MAX_SIZE))));
+    long sessionCacheTtlSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_SESSION_CACHE_TTL_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_SESSION_CACHE_TTL_SECONDS"))
+                        .orElse(String.valueOf(AUTH_SESSION_CACHE_DEFAULT_TTL_SECONDS))));
+    // The user/groups cache is shared with the spark group mapping provider: also look up the
+    // parameters in the spark conf (Ex.: spark.okdp.auth.group-cache-max-size)
+    long groupCacheMaxSize =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_GROUP_CACHE_MAX_SIZE))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_GROUP_CACHE_MAX_SIZE"))
+                        .orElse(
+                            System.getProperty(
+                                AUTH_SPARK_CONF_PREFIX + AUTH_GROUP_CACHE_MAX_SIZE,
+                                String.valueOf(AUTH_GROUP_CACHE_DEFAULT_MAX_SIZE)))));
+    long groupCacheTtlMinutes =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_GROUP_CACHE_TTL_MINUTES))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_GROUP_CACHE_TTL_MINUTES"))
+                        .orElse(
+                            System.getProperty(
+                                AUTH_SPARK_CONF_PREFIX + AUTH_GROUP_CACHE_TTL_MINUTES,
+                                String.valueOf(AUTH_GROUP_CACHE_DEFAULT_TTL_MINUTES)))));
+    int groupCacheConcurrencyLevel =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(AUTH_GROUP_CACHE_CONCURRENCY_LEVEL))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_GROUP_CACHE_CONCURRENCY_LEVEL"))
+                        .orElse(
+                            System.getProperty(
+                                AUTH_SPARK_CONF_PREFIX + AUTH_GROUP_CACHE_CONCURRENCY_LEVEL,
+                                String.valueOf(AUTH_GROUP_CACHE_DEFAULT_CONCURRENCY_LEVEL)))));
+    int oidcMaxConnections =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(OIDC_MAX_CONNECTIONS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_MAX_CONNECTIONS"))
+                        .orElse(String.valueOf(OIDC_DEFAULT_MAX_CONNECTIONS))));
+    long oidcConnectTimeoutSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(OIDC_CONNECT_TIMEOUT_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_CONNECT_TIMEOUT_SECONDS"))
+                        .orElse(String.valueOf(OIDC_DEFAULT_CONNECT_TIMEOUT_SECONDS))));
+    long oidcResponseTimeoutSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(OIDC_RESPONSE_TIMEOUT_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_RESPONSE_TIMEOUT_SECONDS"))
+                        .orElse(String.valueOf(OIDC_REQUEST_TIMEOUT_SECONDS))));
+    long oidcDnsCacheTtlSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(OIDC_DNS_CACHE_TTL_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_DNS_CACHE_TTL_SECONDS"))
+                        .orElse(String.valueOf(OIDC_DEFAULT_DNS_CACHE_TTL_SECONDS))));
+    int oidcMaxConcurrentRequests =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(OIDC_MAX_CONCURRENT_REQUESTS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_MAX_CONCURRENT_REQUESTS"))
+                        .orElse(String.valueOf(oidcMaxConnections))));
+    int oidcCircuitBreakerFailureThreshold =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(OIDC_CIRCUIT_BREAKER_FAILURE_THRESHOLD))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_CIRCUIT_BREAKER_FAILURE_THRESHOLD"))
+                        .orElse(String.valueOf(OIDC_DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD))));
+    long oidcCircuitBreakerOpenSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(OIDC_CIRCUIT_BREAKER_OPEN_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_CIRCUIT_BREAKER_OPEN_SECONDS"))
+                        .orElse(String.valueOf(OIDC_DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS))));
+    asyncTokenRequests =
+        Boolean.parseBoolean(
+            ofNullable(filterConfig.getInitParameter(OIDC_ASYNC_REQUESTS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_ASYNC_REQUESTS"))
+                        .orElse(OIDC_DEFAULT_ASYNC_REQUESTS))
+                .toLowerCase());
+    long tokenRefreshAheadSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_TOKEN_REFRESH_AHEAD_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_TOKEN_REFRESH_AHEAD_SECONDS"))
+                        .orElse(String.valueOf(AUTH_TOKEN_DEFAULT_REFRESH_AHEAD_SECONDS))));
+    long tokenStaleGraceSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(AUTH_TOKEN_STALE_GRACE_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_TOKEN_STALE_GRACE_SECONDS"))
+                        .orElse(String.valueOf(AUTH_TOKEN_DEFAULT_STALE_GRACE_SECONDS))));
+    int discoveryTimeoutSeconds =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(OIDC_DISCOVERY_TIMEOUT_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_DISCOVERY_TIMEOUT_SECONDS"))
+                        .orElse(String.valueOf(OIDC_DEFAULT_DISCOVERY_TIMEOUT_SECONDS))));
+    String metadataSnapshotPath =
+        ofNullable(filterConfig.getInitParameter(OIDC_METADATA_SNAPSHOT_PATH))
+            .orElse(System.getenv("OIDC_METADATA_SNAPSHOT_PATH"));
+    // The snapshot can also be provided in the spark conf (spark.okdp.auth.oidc-metadata-snapshot)
+    String inlineMetadataSnapshot =
+        ofNullable(filterConfig.getInitParameter(OIDC_METADATA_SNAPSHOT))
+            .orElse(
+                ofNullable(System.getenv("OIDC_METADATA_SNAPSHOT"))
+                    .orElse(System.getProperty(AUTH_SPARK_CONF_PREFIX + OIDC_METADATA_SNAPSHOT)));
+    long metadataSnapshotMaxAgeSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(OIDC_METADATA_SNAPSHOT_MAX_AGE_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_METADATA_SNAPSHOT_MAX_AGE_SECONDS"))
+                        .orElse(String.valueOf(OIDC_METADATA_SNAPSHOT_DEFAULT_MAX_AGE_SECONDS))));
+    long metadataSnapshotJwksMaxAgeSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(OIDC_METADATA_SNAPSHOT_JWKS_MAX_AGE_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("OIDC_METADATA_SNAPSHOT_JWKS_MAX_AGE_SECONDS"))
+                        .orElse(
+                            String.valueOf(OIDC_METADATA_SNAPSHOT_DEFAULT_JWKS_MAX_AGE_SECONDS))));
+    int warmupIterations =
+        Integer.parseInt(
+            ofNullable(filterConfig.getInitParameter(AUTH_WARMUP_ITERATIONS))
+                .orElse(
+                    ofNullable(System.getenv("AUTH_WARMUP_ITERATIONS"))
+                        .orElse(String.valueOf(AUTH_DEFAULT_WARMUP_ITERATIONS))));
     String usePKCE =
         ofNullable(filterConfig.getInitParameter(AUTH_USE_PKCE))
             .orElse(ofNullable(System.getenv("AUTH_USE_PKCE")).orElse("auto"));
@@ -154,6 +578,42 @@ public class OidcAuthFilter implements Filter, Constants {
     String jwtHeaderSigningAlg =
         ofNullable(filterConfig.getInitParameter(JWT_HEADER_SIGNING_ALG))
             .orElse(ofNullable(System.getenv("JWT_HEADER_SIGNING_ALG")).orElse("RS256, ES256"));
+    long jwksCacheTtlSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(JWT_JWKS_CACHE_TTL_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("JWT_JWKS_CACHE_TTL_SECONDS"))
+                        .orElse(String.valueOf(JWT_JWKS_DEFAULT_CACHE_TTL_SECONDS))));
+    long jwksRefreshAheadSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(JWT_JWKS_REFRESH_AHEAD_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("JWT_JWKS_REFRESH_AHEAD_SECONDS"))
+                        .orElse(String.valueOf(JWT_JWKS_DEFAULT_REFRESH_AHEAD_SECONDS))));
+    long jwksOutageToleranceSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(JWT_JWKS_OUTAGE_TOLERANCE_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("JWT_JWKS_OUTAGE_TOLERANCE_SECONDS"))
+                        .orElse(String.valueOf(JWT_JWKS_DEFAULT_OUTAGE_TOLERANCE_SECONDS))));
+    long jwksRateLimitSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(JWT_JWKS_RATE_LIMIT_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("JWT_JWKS_RATE_LIMIT_SECONDS"))
+                        .orElse(String.valueOf(JWT_JWKS_DEFAULT_RATE_LIMIT_SECONDS))));
+    long jwtCacheMaxSize =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(JWT_CACHE_MAX_SIZE))
+                .orElse(
+                    ofNullable(System.getenv("JWT_CACHE_MAX_SIZE"))
+                        .orElse(String.valueOf(JWT_CACHE_DEFAULT_MAX_SIZE))));
+    long jwtCacheNegativeTtlSeconds =
+        Long.parseLong(
+            ofNullable(filterConfig.getInitParameter(JWT_CACHE_NEGATIVE_TTL_SECONDS))
+                .orElse(
+                    ofNullable(System.getenv("JWT_CACHE_NEGATIVE_TTL_SECONDS"))
+                        .orElse(String.valueOf(JWT_CACHE_DEFAULT_NEGATIVE_TTL_SECONDS))));
 
     log.info(
         "Initializing OIDC Auth filter ({}: <{}>,  {}: <{}>,  {}: <{}>,  {}: <{}>,) ...",
@@ -176,6 +636,37 @@ public class OidcAuthFilter implements Filter, Constants {
           usePKCE);
     }
 
+    // Start from the snapshot of the oidc provider metadata if available, it is revalidated in the
+    // background once the filter is initialized
+    OidcMetadataSnapshotStore metadataSnapshotStore =
+        OidcMetadataSnapshotStore.of(
+            issuerUri,
+            metadataSnapshotPath,
+            inlineMetadataSnapshot,
+            encryptionKey,
+            metadataSnapshotMaxAgeSeconds,
+            metadataSnapshotJwksMaxAgeSeconds,
+            (int) SECONDS.toMillis(discoveryTimeoutSeconds));
+    OidcMetadataSnapshot metadataSnapshot =
+        metadataSnapshotStore == null ? null : metadataSnapshotStore.load();
+    WellKnownConfiguration wellKnownConfiguration;
+    if (metadataSnapshot != null) {
+      wellKnownConfiguration =
+          JsonUtils.loadJsonFromString(
+              metadataSnapshot.wellKnownConfiguration().body(), WellKnownConfiguration.class);
+    } else if (background) {
+      wellKnownConfiguration =
+          JsonUtils.loadJsonFromUrl(
+              format("%s%s", issuerUri, AUTH_ISSUER_WELL_KNOWN_CONFIGURATION),
+              WellKnownConfiguration.class,
+              (int) SECONDS.toMillis(discoveryTimeoutSeconds));
+    } else {
+      wellKnownConfiguration =
+          JsonUtils.loadJsonFromUrl(
+              format("%s%s", issuerUri, AUTH_ISSUER_WELL_KNOWN_CONFIGURATION),
+              WellKnownConfiguration.class);
+    }
+
     OidcConfig oidcConfig =
         OidcConfig.builder()
             .issuerUri(issuerUri)
@@ -189,10 +680,7 @@ public class OidcAuthFilter implements Filter, Constants {
             .extraGroupClaim(extraGroupClaim)
             .identityProvider(IdentityProviderFactory.from(TokenUtils.capitalize(idProvider)))
             .ignoreRefreshToken(ignoreRefreshToken)
-            .wellKnownConfiguration(
-                JsonUtils.loadJsonFromUrl(
-                    format("%s%s", issuerUri, AUTH_ISSUER_WELL_KNOWN_CONFIGURATION),
-                    WellKnownConfiguration.class))
+            .wellKnownConfiguration(wellKnownConfiguration)
             .build();
 
     String jwtHeaderIssuer =
@@ -236,32 +724,144 @@ public class OidcAuthFilter implements Filter, Constants {
         format("%s|env: %s", AUTH_CLIENT_SECRET, "AUTH_COOKE_IS_SECURE"));
 
     log.info(
-        "Initializing OIDC Auth Provider (Cookie based storage for High Available session persistence/cookie name: {},"
-            + " max-age (minutes): {}) ...",
+        "Initializing OIDC Auth Provider (session store: {}, cookie name: {},"
+            + " max-age (minutes): {}, compression: {}, token format: {}) ...",
+        sessionStoreType,
         AUTH_COOKE_NAME,
-        cookieMaxAgeMinutes);
+        cookieMaxAgeMinutes,
+        cookieCompression,
+        cookieTokenFormat);
+    CookieSessionStore cookieSessionStore =
+        CookieSessionStore.of(
+                AUTH_COOKE_NAME,
+                domain(oidcConfig.redirectUri()),
+                isCookieSecure,
+                encryptionKey,
+                cookieMaxAgeMinutes * 60,
+                ignoreRefreshToken)
+            .compressionCodec(cookieCompression)
+            .tokenFormat(cookieTokenFormat)
+            .maxChunks(cookieMaxChunks);
+    SessionStore sessionStore;
+    switch (sessionStoreType) {
+      case "cookie":
+        // Cookie based storage for High Available session persistence
+        sessionStore = cookieSessionStore;
+        break;
+      case "off-heap":
+        sessionStore =
+            OffHeapSessionStore.of(cookieSessionStore, sessionStoreMaxMemoryMB * 1024 * 1024);
+        break;
+      case "file":
+        // Persistent storage surviving the restarts of the instance
+        sessionStore =
+            FileSessionStore.of(
+                cookieSessionStore, sessionStorePath, sessionStoreMaxFileSizeMB * 1024 * 1024);
+        break;
+      case "jdbc":
+        // Database storage shared by the instances behind a load balancer
+        sessionStore =
+            JdbcSessionStore.of(
+                cookieSessionStore,
+                PreconditionsUtils.checkNotNull(sessionStoreJdbcUrl, AUTH_SESSION_STORE_JDBC_URL),
+                sessionStoreJdbcUser,
+                sessionStoreJdbcPassword,
+                sessionStoreJdbcTable);
+        break;
+      default:
+        throw new IllegalArgumentException(
+            format(
+                "Unsupported session store '%s' (%s|env: %s), expected one of: cookie, off-heap,"
+                    + " file, jdbc",
+                sessionStoreType, AUTH_SESSION_STORE, "AUTH_SESSION_STORE"));
+    }
+    resources.add(sessionStore::close);
+    OidcHttpClient httpClient =
+        OidcHttpClient.of(
+                oidcMaxConnections,
+                oidcConnectTimeoutSeconds,
+                oidcResponseTimeoutSeconds,
+                oidcDnsCacheTtlSeconds)
+            .bulkhead(Bulkhead.of(oidcMaxConcurrentRequests))
+            .circuitBreaker(
+                CircuitBreaker.of(
+                    "oidc provider token endpoint",
+                    oidcCircuitBreakerFailureThreshold,
+                    oidcCircuitBreakerOpenSeconds,
+                    SECONDS));
+    resources.add(httpClient);
     authProvider =
         HttpSecurityConfig.create(oidcConfig)
-            // configure acces with no authetication checks all image, css and js
-            // add also access to /api/v1/version that could be used as an health check
-            .authorizeRequests(".*/.*\\.css", ".*/.*\\.js", ".*/.*\\.png", "/api/v1/version")
+            // By default, no authentication checks for the images, css and js, the CORS preflight
+            // requests and /api/v1/version that could be used as an health check
+            .skipRequests(skipRequests(filterConfig))
             .sessionStore(
-                CookieSessionStore.of(
-                    AUTH_COOKE_NAME,
-                    domain(oidcConfig.redirectUri()),
-                    isCookieSecure,
-                    encryptionKey,
-                    cookieMaxAgeMinutes * 60,
-                    ignoreRefreshToken))
+                CachingSessionStore.of(sessionStore, sessionCacheMaxSize, sessionCacheTtlSeconds))
+            .httpClient(httpClient)
             .configure();
+    renewedSessions =
+        RenewedSessions.of(
+            authProvider.httpSecurityConfig().sessionStore(), cookieMaxAgeMinutes * 60L);
+    resources.add(renewedSessions);
+    sessionRenewer =
+        SessionRenewer.of(
+            authProvider, renewedSessions, tokenRefreshAheadSeconds, tokenStaleGraceSeconds);
+    if (sessionRenewer != null) {
+      resources.add(sessionRenewer);
+    }
+    OidcGroupMappingServiceProvider.configure(
+        groupCacheMaxSize, groupCacheTtlMinutes, groupCacheConcurrencyLevel);
+    verifiedJwtCache = VerifiedJwtCache.of(jwtCacheMaxSize, jwtCacheNegativeTtlSeconds);
     try {
       // Define the token's type allowed
       jwtProcessor.setJWSTypeVerifier(
           new DefaultJOSEObjectTypeVerifier<>(
               new JOSEObjectType("jwt"), new JOSEObjectType("at+jwt"), null));
       // Retrieve the JWKS needed to verify the token
-      JWKSource<SecurityContext> keySource =
-          JWKSourceBuilder.create(new URL(jwtHeaderJWKSUri)).retrying(true).build();
+      // The JWKS is refreshed in the background before the cache expiration, the last known JWKS
+      // is served while the oidc provider is unavailable and the refreshes caused by unknown key
+      // ids are rate limited
+      jwksMetrics =
+          new MeteredJWKSetSource<>(
+              new URLBasedJWKSetSource<>(
+                  new URL(jwtHeaderJWKSUri),
+                  new DefaultResourceRetriever(
+                      JWKSourceBuilder.DEFAULT_HTTP_CONNECT_TIMEOUT,
+                      JWKSourceBuilder.DEFAULT_HTTP_READ_TIMEOUT,
+                      JWKSourceBuilder.DEFAULT_HTTP_SIZE_LIMIT)));
+      // The first fetch is served from the snapshot if its JWKS is recent enough
+      SnapshotJWKSetSource<SecurityContext> snapshotJwkSetSource =
+          metadataSnapshot != null
+                  && jwtHeaderJWKSUri.equals(wellKnownConfiguration.jwksUri())
+                  && metadataSnapshotStore.jwksUsable(metadataSnapshot)
+              ? snapshotJwkSetSource(metadataSnapshot, jwksMetrics)
+              : null;
+      JWKSourceBuilder<SecurityContext> keySourceBuilder =
+          JWKSourceBuilder.create(
+                  snapshotJwkSetSource != null ? snapshotJwkSetSource : jwksMetrics)
+              .retrying(true)
+              .cache(
+                  SECONDS.toMillis(jwksCacheTtlSeconds),
+                  JWKSourceBuilder.DEFAULT_CACHE_REFRESH_TIMEOUT)
+              .refreshAheadCache(SECONDS.toMillis(jwksRefreshAheadSeconds), true);
+      keySourceBuilder =
+          jwksOutageToleranceSeconds > 0
+              ? keySourceBuilder.outageTolerant(SECONDS.toMillis(jwksOutageToleranceSeconds))
+              : keySourceBuilder.outageTolerant(false);
+      keySourceBuilder =
+          jwksRateLimitSeconds > 0
+              ? keySourceBuilder.rateLimited(SECONDS.toMillis(jwksRateLimitSeconds))
+              : keySourceBuilder.rateLimited(false);
+      JWKSource<SecurityContext> keySource = keySourceBuilder.build();
+      if (keySource instanceof Closeable) {
+        resources.add((Closeable) keySource);
+      }
+      jwkSource = keySource;
+      if (background) {
+        CompletableFuture.runAsync(() -> prefetchJwks(jwtHeaderJWKSUri));
+      } else {
+        prefetchJwks(jwtHeaderJWKSUri);
+      }
       // Define the signing algorithm supported for verifying the token
       // We retrieve this information from the well known configuration
       Set<JWSAlgorithm> expectedJWSAlg =
@@ -270,9 +870,11 @@ public class OidcAuthFilter implements Filter, Constants {
               .map(JWSAlgorithm::parse)
               .toSet();
 
+      // Reuse the keys converted from the JWKS and the verifiers built for them
       JWSKeySelector<SecurityContext> keySelector =
-          new JWSVerificationKeySelector<>(expectedJWSAlg, keySource);
+          new CachingJWSKeySelector<>(expectedJWSAlg, keySource);
       jwtProcessor.setJWSKeySelector(keySelector);
+      jwtProcessor.setJWSVerifierFactory(new CachingJWSVerifierFactory());
 
       // Set the required JWT claims for tokens
       jwtProcessor.setJWTClaimsSetVerifier(
@@ -283,15 +885,103 @@ public class OidcAuthFilter implements Filter, Constants {
                       JWTClaimNames.SUBJECT,
                       JWTClaimNames.ISSUED_AT,
                       JWTClaimNames.EXPIRATION_TIME))));
+
+      // Load the classes and compile the authentication hot path before the first user request,
+      // without writing the synthetic sessions to the persistent or shared session stores
+      StartupWarmup warmup =
+          StartupWarmup.of(
+              authProvider,
+              cookieSessionStore,
+              verifiedJwtCache,
+              expectedJWSAlg,
+              warmupIterations);
+      if (warmup != null) {
+        warmup.run();
+      }
+      if (metadataSnapshotStore != null) {
+        // Revalidate the snapshot, or save a first one, without delaying the initialization
+        ExecutorService revalidation =
+            Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("okdp-metadata-snapshot-%d")
+                    .setDaemon(true)
+                    .build());
+        revalidation.execute(
+            () ->
+                revalidateMetadataSnapshot(
+                    metadataSnapshotStore, metadataSnapshot, snapshotJwkSetSource, keySource));
+        revalidation.shutdown();
+      }
     } catch (MalformedURLException e) {
       throw new ServletException(e);
     }
   }
 
+  /** The source serving the JWKS of the snapshot, or null if the JWKS snapshot is unreadable */
+  private static SnapshotJWKSetSource<SecurityContext> snapshotJwkSetSource(
+      OidcMetadataSnapshot metadataSnapshot, JWKSetSource<SecurityContext> source) {
+    try {
+      return new SnapshotJWKSetSource<>(JWKSet.parse(metadataSnapshot.jwks().body()), source);
+    } catch (ParseException e) {
+      log.warn("Unable to parse the JWKS snapshot: {}", e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Revalidate the snapshot, or save a first one, and refresh the running JWKS source if the JWKS
+   * served from the snapshot has changed
+   */
+  private static void revalidateMetadataSnapshot(
+      OidcMetadataSnapshotStore metadataSnapshotStore,
+      OidcMetadataSnapshot metadataSnapshot,
+      SnapshotJWKSetSource<SecurityContext> snapshotJwkSetSource,
+      JWKSource<SecurityContext> keySource) {
+    OidcMetadataSnapshot revalidated;
+    try {
+      revalidated = metadataSnapshotStore.revalidate(metadataSnapshot);
+    } catch (OidcClientException e) {
+      log.warn("Unable to revalidate the oidc provider metadata snapshot: {}", e.getMessage());
+      return;
+    }
+    if (snapshotJwkSetSource == null
+        || revalidated.jwks().body().equals(metadataSnapshot.jwks().body())
+        || !(keySource instanceof JWKSetBasedJWKSource)) {
+      return;
+    }
+    try {
+      // The cached JWKS is replaced by the revalidated one, without fetching it again
+      snapshotJwkSetSource.update(JWKSet.parse(revalidated.jwks().body()));
+      ((JWKSetBasedJWKSource<SecurityContext>) keySource)
+          .getJWKSetSource()
+          .getJWKSet(JWKSetCacheRefreshEvaluator.forceRefresh(), System.currentTimeMillis(), null);
+      log.info("The oidc provider JWKS changed since the snapshot, the JWKS was refreshed");
+    } catch (ParseException | KeySourceException e) {
+      log.warn(
+          "Unable to refresh the JWKS changed since the snapshot, it is refreshed on the next"
+              + " cache expiration: {}",
+          e.getMessage());
+    }
+  }
+
   @Override
   public void doFilter(
       ServletRequest servletRequest, ServletResponse servletResponse, FilterChain filterChain)
       throws IOException, ServletException {
+    if (!coreReady()) {
+      HttpServletRequest httpRequest = (HttpServletRequest) servletRequest;
+      if (initSkipRequestMatcher.matches(httpRequest.getMethod(), httpRequest.getRequestURI())) {
+        filterChain.doFilter(servletRequest, servletResponse);
+        return;
+      }
+      ((HttpServletResponse) servletResponse)
+          .setHeader("Retry-After", String.valueOf(AUTH_INIT_RETRY_AFTER_SECONDS));
+      sendError(
+          servletResponse,
+          HttpStatus.SC_SERVICE_UNAVAILABLE,
+          "The authentication is initializing, please retry later");
+      return;
+    }
     // Skip authentication for static content (.js, .css, .png, etc)
     if (authProvider.isAuthorized(servletRequest)) {
 
@@ -300,24 +990,41 @@ public class OidcAuthFilter implements Filter, Constants {
     }
 
     // Extract the access token from the http auth cookie if present
+    Optional<String> maybeSessionValue =
+        HttpAuthenticationUtils.getChunkedCookieValue(
+            AUTH_COOKE_NAME, cookieMaxChunks, servletRequest);
+    // The session may have been renewed under a new value by a concurrent request or in the
+    // background, its cookies are then sent back below
+    RenewedSession renewed = maybeSessionValue.map(renewedSessions::renewed).orElse(null);
     Optional<PersistedToken> maybePersistedToken =
-        HttpAuthenticationUtils.getCookieValue(AUTH_COOKE_NAME, servletRequest)
-            .flatMap(
-                value -> {
-                  try {
-                    return Optional.of(
-                        authProvider.httpSecurityConfig().sessionStore().readToken(value));
-                  } catch (CipherException e) {
-                    log.warn(
-                        "Unable to decrypt auth cookie, forcing re-authentication: {}",
-                        e.getMessage());
-                    return Optional.empty();
-                  }
-                });
+        maybeSessionValue.flatMap(
+            value -> {
+              if (renewed != null) {
+                return Optional.of(renewed.persistedToken());
+              }
+              try {
+                return ofNullable(
+                    authProvider.httpSecurityConfig().sessionStore().readToken(value));
+              } catch (CipherException e) {
+                log.warn(
+                    "Unable to decrypt auth cookie, forcing re-authentication: {}",
+                    e.getMessage());
+                return Optional.empty();
+              }
+            });
     if (maybePersistedToken.isPresent()) {
       PersistedToken persistedToken = maybePersistedToken.get();
 
-      if (persistedToken.isExpired()) {
+      if (renewed != null) {
+        addChunkedCookies(renewed.cookies(), servletRequest, servletResponse);
+      } else if (sessionRenewer != null && !persistedToken.isExpired()) {
+        sessionRenewer.renewAhead(maybeSessionValue.get(), persistedToken);
+      } else if (sessionRenewer != null
+          && sessionRenewer.renewStale(maybeSessionValue.get(), persistedToken)) {
+        log.debug(
+            "The user {} token was expired, renewing in the background ...",
+            persistedToken.userInfo().email());
+      } else if (persistedToken.isExpired()) {
         AccessToken newAccessToken = null;
         if (persistedToken.hasRefreshToken()) {
           log.info(
@@ -329,8 +1036,21 @@ public class OidcAuthFilter implements Filter, Constants {
           // So, in case we cannot renew the token, we set the cookie value as empty and let the
           // current request passes
           // The subsequent requests will require a user re-authentication from the oidc provider
+          AsyncTokenResult asyncResult = takeAsyncTokenResult(servletRequest);
+          if (asyncResult == null && isAsyncTokenRequest(servletRequest)) {
+            // Release the container thread, the request is dispatched again once renewed
+            startAsyncTokenRequest(
+                servletRequest,
+                servletResponse,
+                authProvider.refreshTokenAsync(persistedToken.refreshToken()));
+            return;
+          }
           newAccessToken =
-              Try.of(() -> authProvider.refreshToken(persistedToken.refreshToken()))
+              Try.of(
+                      () ->
+                          asyncResult != null
+                              ? asyncResult.accessToken()
+                              : authProvider.refreshToken(persistedToken.refreshToken()))
                   .onException(
                       e ->
                           log.warn(
@@ -345,16 +1065,29 @@ public class OidcAuthFilter implements Filter, Constants {
             ofNullable(newAccessToken)
                 .map(token -> authProvider.httpSecurityConfig().toPersistedToken(token))
                 .orElse(null);
-        Cookie cookie = authProvider.httpSecurityConfig().sessionStore().save(pToken);
-        ((HttpServletResponse) servletResponse).addCookie(cookie);
+        String sessionValue = maybeSessionValue.get();
+        if (pToken != null) {
+          // The concurrent requests holding the same expired session share the renewed session
+          addChunkedCookies(
+              renewedSessions.renew(sessionValue, persistedToken, pToken).cookies(),
+              servletRequest,
+              servletResponse);
+        } else {
+          SessionStore sessionStore = authProvider.httpSecurityConfig().sessionStore();
+          addChunkedCookies(sessionStore.save(pToken), servletRequest, servletResponse);
+          // Release the replaced session from the server side session stores
+          sessionStore.remove(sessionValue);
+        }
+      }
+      // Bind the user and groups to the request for the authorization checks
+      try (RequestScope ignored =
+          OidcGroupMappingServiceProvider.requestScope(
+              persistedToken.id(), persistedToken.userInfo().getGroupsAndRoles())) {
+        filterChain.doFilter(
+            new PrincipalHttpServletRequestWrapper(
+                (HttpServletRequest) servletRequest, persistedToken.id()),
+            servletResponse);
       }
-      // Add the user and groups in the user/group mappings authorization cache
-      OidcGroupMappingServiceProvider.addUserAndGroups(
-          persistedToken.id(), persistedToken.userInfo().getGroupsAndRoles());
-      filterChain.doFilter(
-          new PrincipalHttpServletRequestWrapper(
-              (HttpServletRequest) servletRequest, persistedToken.id()),
-          servletResponse);
       return;
     }
 
@@ -362,30 +1095,39 @@ public class OidcAuthFilter implements Filter, Constants {
         HttpAuthenticationUtils.getHeaderValue(jwtHeader, servletRequest);
 
     if (maybeJWTHeader.isPresent()) {
-      JWTClaimsSet claimsSet;
-
-      try {
-        log.debug("JWT Header : {}", maybeJWTHeader.get());
-        claimsSet = jwtProcessor.process(maybeJWTHeader.get(), null);
-        // Add the user and groups in the user/group mappings authorization cache
-        PersistedToken persistedToken =
-            authProvider.httpSecurityConfig().toPersistedToken(claimsSet);
-        OidcGroupMappingServiceProvider.addUserAndGroups(
-            persistedToken.id(), persistedToken.userInfo().getGroupsAndRoles());
-        // Add the user and groups in the user/group mappings authorization cache
-        OidcGroupMappingServiceProvider.addUserAndGroups(
-            persistedToken.id(), persistedToken.userInfo().getGroupsAndRoles());
-        filterChain.doFilter(
-            new PrincipalHttpServletRequestWrapper(
-                (HttpServletRequest) servletRequest, persistedToken.id()),
-            servletResponse);
+      log.debug("JWT Header : {}", maybeJWTHeader.get());
+      // Skip the signature and claims verification of the recently verified or rejected tokens
+      HashCode jwtKey = verifiedJwtCache.key(maybeJWTHeader.get());
+      VerifiedJwtCache.Entry verified = verifiedJwtCache.getIfPresent(jwtKey);
+      PersistedToken persistedToken = verified == null ? null : verified.persistedToken();
+      if (verified == null) {
+        try {
+          JWTClaimsSet claimsSet = jwtProcessor.process(maybeJWTHeader.get(), null);
+          persistedToken = authProvider.httpSecurityConfig().toPersistedToken(claimsSet);
+          verifiedJwtCache.putVerified(jwtKey, persistedToken);
+        } catch (ParseException | JOSEException e) {
+          // Invalid token, or key sourcing failed
+          log.error("Error Parsing JWT Token : {}", e.getMessage());
+          verifiedJwtCache.putRejected(jwtKey, e);
+        } catch (BadJOSEException e) {
+          // Invalid signature or claims, or no matching key
+          log.error("Error on JWT Token validation : {}", e.getMessage());
+          verifiedJwtCache.putRejected(jwtKey, e);
+        }
+      } else if (verified.rejected()) {
+        log.debug("The JWT Token was recently rejected");
+      }
+      if (persistedToken != null) {
+        // Bind the user and groups to the request for the authorization checks
+        try (RequestScope ignored =
+            OidcGroupMappingServiceProvider.requestScope(
+                persistedToken.id(), persistedToken.userInfo().getGroupsAndRoles())) {
+          filterChain.doFilter(
+              new PrincipalHttpServletRequestWrapper(
+                  (HttpServletRequest) servletRequest, persistedToken.id()),
+              servletResponse);
+        }
         return;
-      } catch (ParseException | JOSEException e) {
-        // Invalid token
-        log.error("Error Parsing JWT Token : {}", e.getMessage());
-      } catch (BadJOSEException e) {
-        // Key sourcing failed or another internal exception
-        log.error("Error on JWT Token validation : {}", e.getMessage());
       }
     } else {
       log.debug("No JWT header ({}) found", jwtHeader);
@@ -431,8 +1173,25 @@ public class OidcAuthFilter implements Filter, Constants {
 
       // Exchange the obtained 'code' with an access token by issuing a request against the oidc
       // provider
+      AsyncTokenResult asyncResult = takeAsyncTokenResult(servletRequest);
+      if (asyncResult == null && isAsyncTokenRequest(servletRequest)) {
+        // Release the container thread, the request is dispatched again once the code is exchanged
+        CompletableFuture<AccessToken> tokenRequest =
+            Try.of(() -> authProvider.requestAccessTokenAsync(servletRequest, servletResponse))
+                .onException(
+                    e -> sendError(servletResponse, e.getHttpStatusCode(), e.getMessage()));
+        if (tokenRequest == null) {
+          return;
+        }
+        startAsyncTokenRequest(servletRequest, servletResponse, tokenRequest);
+        return;
+      }
       AccessToken accessToken =
-          Try.of(() -> authProvider.requestAccessToken(servletRequest, servletResponse))
+          Try.of(
+                  () ->
+                      asyncResult != null
+                          ? asyncResult.accessToken()
+                          : authProvider.requestAccessToken(servletRequest, servletResponse))
               .onException(e -> sendError(servletResponse, e.getHttpStatusCode(), e.getMessage()));
       PersistedToken persistedToken =
           authProvider.httpSecurityConfig().toPersistedToken(accessToken);
@@ -455,8 +1214,8 @@ public class OidcAuthFilter implements Filter, Constants {
                                       + "Please try to delete your oidc provider cookie from the browser and try again!")))
           .onException(e -> sendError(servletResponse, e.getHttpStatusCode(), e.getMessage()));
 
-      Cookie cookie = authProvider.httpSecurityConfig().sessionStore().save(persistedToken);
-      ((HttpServletResponse) servletResponse).addCookie(cookie);
+      List<Cookie> cookies = authProvider.httpSecurityConfig().sessionStore().save(persistedToken);
+      addChunkedCookies(cookies, servletRequest, servletResponse);
       // Add the user and groups in the user/group mappings authorization cache
       OidcGroupMappingServiceProvider.addUserAndGroups(
           persistedToken.id(), persistedToken.userInfo().getGroupsAndRoles());
@@ -465,8 +1224,259 @@ public class OidcAuthFilter implements Filter, Constants {
     }
   }
 
+  /** Check if the token request can release the container thread while waiting for the response */
+  private boolean isAsyncTokenRequest(ServletRequest servletRequest) {
+    return asyncTokenRequests && servletRequest.isAsyncSupported();
+  }
+
+  /**
+   * Suspend the request until the token request completes, then dispatch it again through the
+   * filter with the result of the token request
+   */
+  private void startAsyncTokenRequest(
+      ServletRequest servletRequest,
+      ServletResponse servletResponse,
+      CompletableFuture<AccessToken> tokenRequest) {
+    OidcHttpClient httpClient = authProvider.httpSecurityConfig().httpClient();
+    AsyncContext asyncContext = servletRequest.startAsync(servletRequest, servletResponse);
+    asyncContext.setTimeout(httpClient.maxRequestMillis() + ASYNC_TIMEOUT_MARGIN_MILLIS);
+    // Either the token request or the async timeout dispatches the request, whichever comes first
+    AtomicBoolean dispatched = new AtomicBoolean();
+    asyncContext.addListener(
+        new AsyncListener() {
+          @Override
+          public void onTimeout(AsyncEvent event) {
+            dispatch(
+                asyncContext,
+                dispatched,
+                AsyncTokenResult.failed(
+                    new AuthenticationException(
+                        HttpStatus.SC_GATEWAY_TIMEOUT,
+                        "Timed out waiting for the oidc provider token endpoint response")));
+          }
+
+          @Override
+          public void onComplete(AsyncEvent event) {}
+
+          @Override
+          public void onError(AsyncEvent event) {}
+
+          @Override
+          public void onStartAsync(AsyncEvent event) {}
+        });
+    tokenRequest.whenComplete(
+        (accessToken, e) ->
+            dispatch(
+                asyncContext,
+                dispatched,
+                e == null
+                    ? new AsyncTokenResult(accessToken, null)
+                    : AsyncTokenResult.failed(unwrap(e))));
+  }
+
+  private static void dispatch(
+      AsyncContext asyncContext, AtomicBoolean dispatched, AsyncTokenResult result) {
+    if (dispatched.compareAndSet(false, true)) {
+      asyncContext.getRequest().setAttribute(ASYNC_TOKEN_RESULT, result);
+      asyncContext.dispatch();
+    }
+  }
+
+  private static AsyncTokenResult takeAsyncTokenResult(ServletRequest servletRequest) {
+    Object result = servletRequest.getAttribute(ASYNC_TOKEN_RESULT);
+    if (result == null) {
+      return null;
+    }
+    servletRequest.removeAttribute(ASYNC_TOKEN_RESULT);
+    return (AsyncTokenResult) result;
+  }
+
+  private static AuthenticationException unwrap(Throwable e) {
+    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    return cause instanceof AuthenticationException
+        ? (AuthenticationException) cause
+        : new AuthenticationException(cause.getMessage(), cause);
+  }
+
+  /** The result of an asynchronous token request, handed to the dispatched request */
+  @RequiredArgsConstructor
+  private static class AsyncTokenResult {
+    private final AccessToken accessToken;
+    private final AuthenticationException error;
+
+    private static AsyncTokenResult failed(AuthenticationException error) {
+      return new AsyncTokenResult(null, error);
+    }
+
+    private AccessToken accessToken() throws AuthenticationException {
+      if (error != null) {
+        throw error;
+      }
+      return accessToken;
+    }
+  }
+
+  /** The rules of the requests skipping the authentication */
+  private static List<String> skipRequests(FilterConfig filterConfig) {
+    String skipRequests =
+        ofNullable(filterConfig.getInitParameter(AUTH_SKIP_REQUESTS))
+            .orElse(
+                ofNullable(System.getenv("AUTH_SKIP_REQUESTS")).orElse(AUTH_DEFAULT_SKIP_REQUESTS));
+    return StreamEx.split(skipRequests, ',').map(String::trim).toList();
+  }
+
+  /**
+   * The init parameters of the filter, the other settings (environment variables, spark conf) are
+   * the same for all the filter instances of the process
+   */
+  private static Map<String, String> initParameters(FilterConfig filterConfig) {
+    Map<String, String> initParameters = new TreeMap<>();
+    Enumeration<String> names = filterConfig.getInitParameterNames();
+    while (names != null && names.hasMoreElements()) {
+      String name = names.nextElement();
+      initParameters.put(name, filterConfig.getInitParameter(name));
+    }
+    return initParameters;
+  }
+
+  /** The state set up by the filter initialization, shared by the filter instances */
+  private static final class Core {
+    private final AuthProvider authProvider;
+    private final ConfigurableJWTProcessor<SecurityContext> jwtProcessor;
+    private final String jwtHeader;
+    private final VerifiedJwtCache verifiedJwtCache;
+    private final MeteredJWKSetSource<SecurityContext> jwksMetrics;
+    private final JWKSource<SecurityContext> jwkSource;
+    private final SessionRenewer sessionRenewer;
+    private final RenewedSessions renewedSessions;
+    private final boolean asyncTokenRequests;
+    private final int cookieMaxChunks;
+
+    private Core(OidcAuthFilter filter) {
+      this.authProvider = filter.authProvider;
+      this.jwtProcessor = filter.jwtProcessor;
+      this.jwtHeader = filter.jwtHeader;
+      this.verifiedJwtCache = filter.verifiedJwtCache;
+      this.jwksMetrics = filter.jwksMetrics;
+      this.jwkSource = filter.jwkSource;
+      this.sessionRenewer = filter.sessionRenewer;
+      this.renewedSessions = filter.renewedSessions;
+      this.asyncTokenRequests = filter.asyncTokenRequests;
+      this.cookieMaxChunks = filter.cookieMaxChunks;
+    }
+
+    /** Close the resources of the core and log their statistics */
+    private void close() {
+      if (sessionRenewer != null) {
+        sessionRenewer.close();
+      }
+      if (renewedSessions != null) {
+        renewedSessions.close();
+      }
+      SessionStore sessionStore =
+          authProvider != null ? authProvider.httpSecurityConfig().sessionStore() : null;
+      if (sessionStore instanceof CachingSessionStore) {
+        log.info(
+            "Decoded session cache statistics (hits: {}, misses: {}, size: {})",
+            ((CachingSessionStore) sessionStore).hitCount(),
+            ((CachingSessionStore) sessionStore).missCount(),
+            ((CachingSessionStore) sessionStore).size());
+      }
+      if (sessionStore != null) {
+        sessionStore.close();
+      }
+      if (authProvider != null) {
+        OidcHttpClient httpClient = authProvider.httpSecurityConfig().httpClient();
+        PoolStats poolStats = httpClient.poolStats();
+        log.info(
+            "Oidc provider http client statistics (requests: {}, failures: {}, leased: {},"
+                + " available: {}, pending: {})",
+            httpClient.requestCount(),
+            httpClient.failureCount(),
+            poolStats.getLeased(),
+            poolStats.getAvailable(),
+            poolStats.getPending());
+        log.info(
+            "Oidc provider circuit breaker statistics (state: {}, opened: {}, rejected: {},"
+                + " bulkhead rejected: {})",
+            httpClient.circuitBreaker().state(),
+            httpClient.circuitBreaker().openedCount(),
+            httpClient.circuitBreaker().rejectedCount(),
+            httpClient.bulkhead().rejectedCount());
+        httpClient.close();
+      }
+      if (jwksMetrics != null) {
+        log.info(
+            "JWKS refresh statistics (refreshes: {}, failures: {}, average latency (ms): {})",
+            jwksMetrics.refreshCount(),
+            jwksMetrics.failureCount(),
+            jwksMetrics.averageLatencyMillis());
+      }
+      if (jwkSource instanceof Closeable) {
+        try {
+          ((Closeable) jwkSource).close();
+        } catch (IOException e) {
+          log.warn("Unable to close the JWKS source: {}", e.getMessage());
+        }
+      }
+      if (verifiedJwtCache != null) {
+        CacheStats jwtCacheStats = verifiedJwtCache.stats();
+        log.info(
+            "Verified JWT cache statistics (hits: {}, misses: {}, evictions: {}, size: {})",
+            jwtCacheStats.hitCount(),
+            jwtCacheStats.missCount(),
+            jwtCacheStats.evictionCount(),
+            verifiedJwtCache.size());
+      }
+    }
+
+    private void applyTo(OidcAuthFilter filter) {
+      filter.authProvider = authProvider;
+      filter.jwtProcessor = jwtProcessor;
+      filter.jwtHeader = jwtHeader;
+      filter.verifiedJwtCache = verifiedJwtCache;
+      filter.jwksMetrics = jwksMetrics;
+      filter.jwkSource = jwkSource;
+      filter.sessionRenewer = sessionRenewer;
+      filter.renewedSessions = renewedSessions;
+      filter.asyncTokenRequests = asyncTokenRequests;
+      filter.cookieMaxChunks = cookieMaxChunks;
+    }
+  }
+
+  /** Fetch the JWKS at startup, so that the first request with a JWT header does not wait for it */
+  private void prefetchJwks(String jwksUri) {
+    try {
+      List<JWK> keys = jwkSource.get(new JWKSelector(new JWKMatcher.Builder().build()), null);
+      log.info(
+          "Fetched {} keys from {} in {} ms",
+          keys.size(),
+          jwksUri,
+          jwksMetrics.lastLatencyMillis());
+    } catch (KeySourceException e) {
+      log.warn("Unable to prefetch the JWKS from {}: {}", jwksUri, e.getMessage());
+    }
+  }
+
   @Override
   public void destroy() {
+    // The shared core is only closed by the last filter instance using it
+    CompletableFuture<Core> released = coreKey != null ? CORES.release(coreKey) : null;
+    if (coreKey != null && released == null) {
+      log.info("OIDC Auth filter destroyed, its core is still used by other filter instances");
+      return;
+    }
+    // A core still initializing in the background is closed once initialized
+    if (released != null && !released.cancel(false)) {
+      released.join().close();
+    }
+    CacheStats groupCacheStats = OidcGroupMappingServiceProvider.groupCacheStats();
+    log.info(
+        "User/groups cache statistics (hits: {}, misses: {}, evictions: {}, size: {})",
+        groupCacheStats.hitCount(),
+        groupCacheStats.missCount(),
+        groupCacheStats.evictionCount(),
+        OidcGroupMappingServiceProvider.groupCacheSize());
     log.info("OIDC Auth filter destroyed");
   }
 }
@@ -42,9 +42,112 @@ public interface Constants {
   /** OIDC standard well-known configuration endpoint */
   String AUTH_ISSUER_WELL_KNOWN_CONFIGURATION = "/.well-known/openid-configuration";
 
-  /** The time to wait to receive a response after sending a request to the oidc provider */
+  /** The default time to wait to receive a response after sending a request to the oidc provider */
   int OIDC_REQUEST_TIMEOUT_SECONDS = 30;
 
+  /** The time to establish a connection to the oidc provider token endpoint */
+  String OIDC_CONNECT_TIMEOUT_SECONDS = "oidc-connect-timeout-seconds";
+
+  /** The default time to establish a connection to the oidc provider token endpoint */
+  int OIDC_DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+
+  /** The time to wait for a response from the oidc provider token endpoint */
+  String OIDC_RESPONSE_TIMEOUT_SECONDS = "oidc-response-timeout-seconds";
+
+  /** The maximum number of pooled connections to the oidc provider token endpoint */
+  String OIDC_MAX_CONNECTIONS = "oidc-max-connections";
+
+  /** The default maximum number of pooled connections to the oidc provider token endpoint */
+  int OIDC_DEFAULT_MAX_CONNECTIONS = 20;
+
+  /** The time the resolved addresses of the oidc provider are cached (0 disables the cache) */
+  String OIDC_DNS_CACHE_TTL_SECONDS = "oidc-dns-cache-ttl-seconds";
+
+  /** The default time the resolved addresses of the oidc provider are cached */
+  int OIDC_DEFAULT_DNS_CACHE_TTL_SECONDS = 60;
+
+  /**
+   * Release the container thread while waiting for the oidc provider token endpoint, when the
+   * servlet container supports the asynchronous requests
+   */
+  String OIDC_ASYNC_REQUESTS = "oidc-async-requests";
+
+  /** The asynchronous token requests are disabled by default */
+  String OIDC_DEFAULT_ASYNC_REQUESTS = "false";
+
+  /** The maximum number of concurrent requests to the oidc provider token endpoint */
+  String OIDC_MAX_CONCURRENT_REQUESTS = "oidc-max-concurrent-requests";
+
+  /**
+   * The number of consecutive failed requests to the oidc provider token endpoint after which the
+   * requests are rejected for a while (0 disables the circuit breaker)
+   */
+  String OIDC_CIRCUIT_BREAKER_FAILURE_THRESHOLD = "oidc-circuit-breaker-failure-threshold";
+
+  /** The default number of consecutive failed requests opening the circuit breaker */
+  int OIDC_DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD = 5;
+
+  /** The time the requests are rejected before probing the oidc provider token endpoint again */
+  String OIDC_CIRCUIT_BREAKER_OPEN_SECONDS = "oidc-circuit-breaker-open-seconds";
+
+  /** The default time the requests are rejected once the circuit breaker is open */
+  int OIDC_DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS = 30;
+
+  /**
+   * Initialize the filter in the background, the protected requests are answered with a 503 until
+   * the oidc provider configuration is fetched
+   */
+  String AUTH_BACKGROUND_INIT = "background-init";
+
+  /** The filter is initialized on the servlet container startup thread by default */
+  String AUTH_DEFAULT_BACKGROUND_INIT = "false";
+
+  /**
+   * The number of synthetic authentication round trips run at the end of the initialization, so
+   * that the first user requests do not pay for the class loading and the JIT compilation
+   */
+  String AUTH_WARMUP_ITERATIONS = "warmup-iterations";
+
+  /** The warmup is disabled by default */
+  int AUTH_DEFAULT_WARMUP_ITERATIONS = 0;
+
+  /** The Retry-After of the requests received while the filter is initializing in the background */
+  int AUTH_INIT_RETRY_AFTER_SECONDS = 5;
+
+  /** The connect and read timeouts fetching the well known configuration in the background */
+  String OIDC_DISCOVERY_TIMEOUT_SECONDS = "oidc-discovery-timeout-seconds";
+
+  /** The default connect and read timeouts fetching the well known configuration */
+  int OIDC_DEFAULT_DISCOVERY_TIMEOUT_SECONDS = 10;
+
+  /**
+   * The file where the snapshot of the oidc provider well known configuration and JWKS is saved,
+   * and loaded from at startup
+   */
+  String OIDC_METADATA_SNAPSHOT_PATH = "oidc-metadata-snapshot-path";
+
+  /** The snapshot of the oidc provider metadata, provided inline (json or base64 encoded json) */
+  String OIDC_METADATA_SNAPSHOT = "oidc-metadata-snapshot";
+
+  /** The maximum age of the snapshot of the oidc provider metadata loaded at startup */
+  String OIDC_METADATA_SNAPSHOT_MAX_AGE_SECONDS = "oidc-metadata-snapshot-max-age-seconds";
+
+  /** The default maximum age of the snapshot of the oidc provider metadata loaded at startup */
+  long OIDC_METADATA_SNAPSHOT_DEFAULT_MAX_AGE_SECONDS = 86400;
+
+  /**
+   * The maximum age of the JWKS of the snapshot served at startup, an older JWKS is fetched from
+   * the oidc provider
+   */
+  String OIDC_METADATA_SNAPSHOT_JWKS_MAX_AGE_SECONDS =
+      "oidc-metadata-snapshot-jwks-max-age-seconds";
+
+  /** The default maximum age of the JWKS of the snapshot served at startup */
+  long OIDC_METADATA_SNAPSHOT_DEFAULT_JWKS_MAX_AGE_SECONDS = 300;
+
+  /** The time a renewed access token is reused by the requests holding the same refresh token */
+  int OIDC_REFRESH_RESULT_RETENTION_SECONDS = 10;
+
   /** The http cookie name where the access token is saved */
   String AUTH_COOKE_NAME = "OKDP_AUTH_SPARK_UI";
 
@@ -63,6 +166,87 @@ public interface Constants {
   /** The default cookie expiration period minutes */
   int AUTH_COOKE_DEFAULT_MAX_AGE_MINUTES = 12 * 60;
 
+  /** The cookie payload compression codec (deflate|gzip|store) */
+  String AUTH_COOKIE_COMPRESSION = "cookie-compression";
+
+  /** The default cookie payload compression codec */
+  String AUTH_COOKIE_DEFAULT_COMPRESSION = "deflate";
+
+  /** The access token serialization format in the cookie (json|binary) */
+  String AUTH_COOKIE_TOKEN_FORMAT = "cookie-token-format";
+
+  /** The default access token serialization format in the cookie */
+  String AUTH_COOKIE_DEFAULT_TOKEN_FORMAT = "json";
+
+  /** The maximum number of cookies a large session cookie can be split into */
+  String AUTH_COOKIE_MAX_CHUNKS = "cookie-max-chunks";
+
+  /** The default maximum number of cookies a large session cookie can be split into */
+  int AUTH_COOKIE_DEFAULT_MAX_CHUNKS = 3;
+
+  /**
+   * The maximum cookie value length, leaving room for the name and the attributes within the 4KB
+   * browser limit
+   */
+  int AUTH_COOKIE_CHUNK_SIZE = 3800;
+
+  /** The session cookie value prefix announcing the number of chunks (Ex.: chunks-2) */
+  String AUTH_COOKIE_CHUNKS_PREFIX = "chunks-";
+
+  /** The session storage (cookie|off-heap|file|jdbc) */
+  String AUTH_SESSION_STORE = "session-store";
+
+  /** The default session storage */
+  String AUTH_SESSION_DEFAULT_STORE = "cookie";
+
+  /** The maximum memory in megabytes used by the off-heap session store */
+  String AUTH_SESSION_STORE_MAX_MEMORY_MB = "session-store-max-memory-mb";
+
+  /** The default maximum memory in megabytes used by the off-heap session store */
+  int AUTH_SESSION_STORE_DEFAULT_MAX_MEMORY_MB = 64;
+
+  /** The file of the persistent session store */
+  String AUTH_SESSION_STORE_PATH = "session-store-path";
+
+  /**
+   * The default file of the persistent session store, relative to the java.io.tmpdir directory. The
+   * file is locked so that it is used by a single application on the host
+   */
+  String AUTH_SESSION_STORE_DEFAULT_PATH = "okdp-spark-auth/sessions.db";
+
+  /** The maximum size in megabytes of the persistent session store file */
+  String AUTH_SESSION_STORE_MAX_FILE_SIZE_MB = "session-store-max-file-size-mb";
+
+  /** The default maximum size in megabytes of the persistent session store file */
+  int AUTH_SESSION_STORE_DEFAULT_MAX_FILE_SIZE_MB = 256;
+
+  /** The JDBC url of the database shared by the instances */
+  String AUTH_SESSION_STORE_JDBC_URL = "session-store-jdbc-url";
+
+  /** The database user */
+  String AUTH_SESSION_STORE_JDBC_USER = "session-store-jdbc-user";
+
+  /** The database user password */
+  String AUTH_SESSION_STORE_JDBC_PASSWORD = "session-store-jdbc-password";
+
+  /** The database table of the sessions */
+  String AUTH_SESSION_STORE_JDBC_TABLE = "session-store-jdbc-table";
+
+  /** The default database table of the sessions, created if missing */
+  String AUTH_SESSION_STORE_DEFAULT_JDBC_TABLE = "okdp_spark_sessions";
+
+  /** The maximum number of decoded sessions kept in memory (0 disables the cache) */
+  String AUTH_SESSION_CACHE_MAX_SIZE = "session-cache-max-size";
+
+  /** The default maximum number of decoded sessions kept in memory */
+  int AUTH_SESSION_CACHE_DEFAULT_MAX_SIZE = 0;
+
+  /** The maximum time in seconds a decoded session is kept in memory */
+  String AUTH_SESSION_CACHE_TTL_SECONDS = "session-cache-ttl-seconds";
+
+  /** The default maximum time in seconds a decoded session is kept in memory */
+  int AUTH_SESSION_CACHE_DEFAULT_TTL_SECONDS = 5 * 60;
+
   /** Use PKCE (true|false|auto) */
   String AUTH_USE_PKCE = "use-pkce";
 
@@ -87,6 +271,42 @@ public interface Constants {
   /** the URI pointing to the JWKS used for the Token signature */
   String JWT_HEADER_JWKS_URI = "jwt-header-jwks-uri";
 
+  /** The time the JWKS of the JWT header is cached */
+  String JWT_JWKS_CACHE_TTL_SECONDS = "jwt-jwks-cache-ttl-seconds";
+
+  /** The default time the JWKS of the JWT header is cached */
+  int JWT_JWKS_DEFAULT_CACHE_TTL_SECONDS = 300;
+
+  /** The time before the JWKS cache expiration when the JWKS is refreshed in the background */
+  String JWT_JWKS_REFRESH_AHEAD_SECONDS = "jwt-jwks-refresh-ahead-seconds";
+
+  /** The default time before the JWKS cache expiration when the JWKS is refreshed */
+  int JWT_JWKS_DEFAULT_REFRESH_AHEAD_SECONDS = 30;
+
+  /** The time the last known JWKS is served while the oidc provider is unavailable (0 disables) */
+  String JWT_JWKS_OUTAGE_TOLERANCE_SECONDS = "jwt-jwks-outage-tolerance-seconds";
+
+  /** The default time the last known JWKS is served while the oidc provider is unavailable */
+  int JWT_JWKS_DEFAULT_OUTAGE_TOLERANCE_SECONDS = 3600;
+
+  /** The minimum time between two JWKS fetches caused by unknown key ids (0 disables) */
+  String JWT_JWKS_RATE_LIMIT_SECONDS = "jwt-jwks-rate-limit-seconds";
+
+  /** The default minimum time between two JWKS fetches caused by unknown key ids */
+  int JWT_JWKS_DEFAULT_RATE_LIMIT_SECONDS = 30;
+
+  /** The maximum number of cached JWT header verification results (0 disables the cache) */
+  String JWT_CACHE_MAX_SIZE = "jwt-cache-max-size";
+
+  /** The default maximum number of cached JWT header verification results */
+  int JWT_CACHE_DEFAULT_MAX_SIZE = 10_000;
+
+  /** The time a rejected JWT header is cached (0 disables the negative caching) */
+  String JWT_CACHE_NEGATIVE_TTL_SECONDS = "jwt-cache-negative-ttl-seconds";
+
+  /** The default time a rejected JWT header is cached */
+  int JWT_CACHE_DEFAULT_NEGATIVE_TTL_SECONDS = 30;
+
   /** The cookie encryption key parameter name */
   String AUTH_COOKIE_ENCRYPTION_KEY = "cookie-cipher-secret-key";
 
@@ -102,6 +322,48 @@ public interface Constants {
   /** BASE64 decoder */
   Base64.Decoder BASE64_DECODER = Base64.getDecoder();
 
+  /** BASE64URL encoder (without padding) */
+  Base64.Encoder BASE64URL_ENCODER = Base64.getUrlEncoder().withoutPadding();
+
   /** BASE64URL decoder */
   Base64.Decoder BASE64URL_DECODER = Base64.getUrlDecoder();
+
+  /** The spark conf prefix of the filter parameters (Ex.: spark.okdp.auth.group-cache-max-size) */
+  String AUTH_SPARK_CONF_PREFIX = "spark.okdp.auth.";
+
+  /** The maximum number of users in the user/groups authorization cache */
+  String AUTH_GROUP_CACHE_MAX_SIZE = "group-cache-max-size";
+
+  /** The default maximum number of users in the user/groups authorization cache */
+  int AUTH_GROUP_CACHE_DEFAULT_MAX_SIZE = 10_000;
+
+  /** The time without any access after which a user is removed from the authorization cache */
+  String AUTH_GROUP_CACHE_TTL_MINUTES = "group-cache-ttl-minutes";
+
+  /** The default time without any access after which a user is removed from the cache */
+  int AUTH_GROUP_CACHE_DEFAULT_TTL_MINUTES = 59;
+
+  /** The number of concurrently updatable segments of the user/groups authorization cache */
+  String AUTH_GROUP_CACHE_CONCURRENCY_LEVEL = "group-cache-concurrency-level";
+
+  /** The default number of concurrently updatable segments of the authorization cache */
+  int AUTH_GROUP_CACHE_DEFAULT_CONCURRENCY_LEVEL = 16;
+
+  /** A comma separated list of the request rules skipping the authentication */
+  String AUTH_SKIP_REQUESTS = "skip-requests";
+
+  /** The default requests skipping the authentication: the static resources and the health check */
+  String AUTH_DEFAULT_SKIP_REQUESTS = "*.css,*.js,*.png,/api/v1/version,OPTIONS *";
+
+  /** The time before the access token expiration when the session is renewed in the background */
+  String AUTH_TOKEN_REFRESH_AHEAD_SECONDS = "token-refresh-ahead-seconds";
+
+  /** By default, the sessions are only renewed once expired */
+  int AUTH_TOKEN_DEFAULT_REFRESH_AHEAD_SECONDS = 0;
+
+  /** The time an expired session is still served while it is renewed in the background */
+  String AUTH_TOKEN_STALE_GRACE_SECONDS = "token-stale-grace-seconds";
+
+  /** By default, the expired sessions are renewed on the request thread */
+  int AUTH_TOKEN_DEFAULT_STALE_GRACE_SECONDS = 0;
 }
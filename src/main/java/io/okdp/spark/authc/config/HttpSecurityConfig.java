@@ -17,7 +17,6 @@
 package io.okdp.spark.authc.config;
 
 import static java.time.Instant.now;
-import static java.util.Arrays.stream;
 import static java.util.Date.from;
 
 import com.nimbusds.jwt.JWTClaimsSet;
@@ -26,9 +25,10 @@ import io.okdp.spark.authc.model.PersistedToken;
 import io.okdp.spark.authc.provider.AuthProvider;
 import io.okdp.spark.authc.provider.SessionStore;
 import io.okdp.spark.authc.provider.impl.DefaultAuthorizationCodeAuthProvider;
+import io.okdp.spark.authc.provider.impl.OidcHttpClient;
 import io.okdp.spark.authc.provider.impl.PKCEAuthorizationCodeAuthProvider;
 import io.okdp.spark.authc.utils.TokenUtils;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -44,17 +44,41 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class HttpSecurityConfig {
 
-  private final List<Pattern> patterns = new ArrayList<>();
   @NonNull private OidcConfig oidcConfig;
   private SessionStore sessionStore;
+  private SkipRequestMatcher skipRequestMatcher = SkipRequestMatcher.none();
+  private OidcHttpClient httpClient;
 
   /**
    * Skip authentication for the requests with the provided URL patterns
    *
-   * @param patterns the URL patterns to skip authentication for
+   * @param patterns the regular expressions of the URLs to skip authentication for
    */
   public HttpSecurityConfig authorizeRequests(String... patterns) {
-    this.patterns.addAll(stream(patterns).map(Pattern::compile).collect(Collectors.toList()));
+    return skipRequests(
+        Arrays.stream(patterns)
+            .map(pattern -> SkipRequestMatcher.REGEX_PREFIX + pattern)
+            .collect(Collectors.toList()));
+  }
+
+  /**
+   * The compiled regular expressions of the URLs to skip authentication for
+   *
+   * @deprecated the URL patterns are compiled into the {@link #skipRequestMatcher()}, which also
+   *     holds the skip rules that are not regular expressions
+   */
+  @Deprecated
+  public List<Pattern> patterns() {
+    return skipRequestMatcher.regexes();
+  }
+
+  /**
+   * Skip authentication for the requests matching the provided rules
+   *
+   * @param rules the skip rules, see {@link SkipRequestMatcher} for the supported syntax
+   */
+  public HttpSecurityConfig skipRequests(List<String> rules) {
+    this.skipRequestMatcher = skipRequestMatcher.and(rules);
     return this;
   }
 
@@ -68,6 +92,24 @@ public class HttpSecurityConfig {
     return this;
   }
 
+  /**
+   * The dedicated pooled http client sending the requests to the oidc provider token endpoint
+   *
+   * @see OidcHttpClient
+   */
+  public HttpSecurityConfig httpClient(OidcHttpClient httpClient) {
+    this.httpClient = httpClient;
+    return this;
+  }
+
+  /** The oidc provider http client, a client with the default settings is created if not set */
+  public synchronized OidcHttpClient httpClient() {
+    if (httpClient == null) {
+      httpClient = OidcHttpClient.defaults();
+    }
+    return httpClient;
+  }
+
   public PersistedToken toPersistedToken(AccessToken token) {
     return PersistedToken.builder()
         .userInfo(
@@ -0,0 +1,335 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.config;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.model.OidcMetadataSnapshot;
+import io.okdp.spark.authc.model.OidcMetadataSnapshot.Document;
+import io.okdp.spark.authc.model.WellKnownConfiguration;
+import io.okdp.spark.authc.utils.JsonUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Load and save the signed snapshots of the oidc provider well known configuration and JWKS
+ *
+ * <p>The snapshot is loaded at startup in place of the requests to the oidc provider, then
+ * revalidated in the background with conditional requests (If-None-Match/If-Modified-Since) and
+ * saved again, so that the next starts reuse a fresh snapshot. The snapshot can be provided inline
+ * (e.g. in the spark conf) or read from a local path or a mounted volume shared by the instances.
+ *
+ * <p>The snapshots are signed with an HMAC derived from the cookie encryption key, the snapshots
+ * with an invalid signature, another issuer or older than the maximum age are ignored. The JWKS of
+ * the snapshot has a shorter maximum age, so that the revoked keys are not trusted for long.
+ */
+@Slf4j
+public class OidcMetadataSnapshotStore implements Constants {
+
+  private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+  private final String issuerUri;
+  private final Path path;
+  private final String inlineSnapshot;
+  private final SecretKeySpec signingKey;
+  private final long maxAgeMillis;
+  private final long jwksMaxAgeMillis;
+  private final int timeoutMillis;
+
+  private OidcMetadataSnapshotStore(
+      String issuerUri,
+      String path,
+      String inlineSnapshot,
+      String signingKey,
+      long maxAgeSeconds,
+      long jwksMaxAgeSeconds,
+      int timeoutMillis) {
+    this.issuerUri = issuerUri;
+    this.path = Strings.isNullOrEmpty(path) ? null : Paths.get(path);
+    this.inlineSnapshot = Strings.emptyToNull(inlineSnapshot);
+    // Derive a dedicated key, so that the encryption key itself is not used for the signatures
+    this.signingKey =
+        new SecretKeySpec(
+            hmac(
+                new SecretKeySpec(signingKey.getBytes(UTF_8), HMAC_ALGORITHM),
+                "okdp-oidc-metadata-snapshot"),
+            HMAC_ALGORITHM);
+    this.maxAgeMillis = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+    this.jwksMaxAgeMillis = TimeUnit.SECONDS.toMillis(Math.min(maxAgeSeconds, jwksMaxAgeSeconds));
+    this.timeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Create a snapshot store
+   *
+   * @param issuerUri the oidc provider issuer uri
+   * @param path the snapshot file, loaded at startup and saved after each revalidation, may be null
+   * @param inlineSnapshot the snapshot content (json or base64 encoded json), loaded in place of
+   *     the file if provided, may be null
+   * @param signingKey the secret the signing key is derived from
+   * @param maxAgeSeconds the maximum age of a snapshot loaded at startup
+   * @param jwksMaxAgeSeconds the maximum age of the JWKS of a snapshot served at startup
+   * @param timeoutMillis the connect and read timeouts of the revalidation requests
+   * @return the snapshot store, or null if neither a path nor an inline snapshot is provided
+   */
+  public static OidcMetadataSnapshotStore of(
+      @NonNull String issuerUri,
+      String path,
+      String inlineSnapshot,
+      @NonNull String signingKey,
+      long maxAgeSeconds,
+      long jwksMaxAgeSeconds,
+      int timeoutMillis) {
+    if (Strings.isNullOrEmpty(path) && Strings.isNullOrEmpty(inlineSnapshot)) {
+      return null;
+    }
+    log.info(
+        "Initializing the oidc provider metadata snapshot (path: {}, inline: {}, max-age"
+            + " (seconds): {}, jwks max-age (seconds): {}) ...",
+        path,
+        !Strings.isNullOrEmpty(inlineSnapshot),
+        maxAgeSeconds,
+        jwksMaxAgeSeconds);
+    return new OidcMetadataSnapshotStore(
+        issuerUri,
+        path,
+        inlineSnapshot,
+        signingKey,
+        maxAgeSeconds,
+        jwksMaxAgeSeconds,
+        timeoutMillis);
+  }
+
+  /**
+   * Load the snapshot, the inline snapshot is preferred over the snapshot file
+   *
+   * @return the valid snapshot, or null if no valid snapshot is available
+   */
+  public OidcMetadataSnapshot load() {
+    OidcMetadataSnapshot snapshot = null;
+    if (inlineSnapshot != null) {
+      snapshot = verify(parse(inlineSnapshot, "inline"), "inline");
+    }
+    if (snapshot == null && path != null && Files.isReadable(path)) {
+      try {
+        String content = new String(Files.readAllBytes(path), UTF_8);
+        snapshot = verify(parse(content, path.toString()), path.toString());
+      } catch (IOException e) {
+        log.warn("Unable to read the oidc provider metadata snapshot {}: {}", path, e.getMessage());
+      }
+    }
+    return snapshot;
+  }
+
+  /**
+   * Check if the JWKS of the snapshot is recent enough to be served at startup
+   *
+   * @param snapshot the loaded snapshot
+   * @return true if the JWKS of the snapshot is not older than its maximum age
+   */
+  public boolean jwksUsable(@NonNull OidcMetadataSnapshot snapshot) {
+    long ageMillis = System.currentTimeMillis() - snapshot.savedAt();
+    if (ageMillis > jwksMaxAgeMillis) {
+      log.info(
+          "The JWKS of the oidc provider metadata snapshot is fetched again: expired since {}"
+              + " seconds",
+          TimeUnit.MILLISECONDS.toSeconds(ageMillis - jwksMaxAgeMillis));
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Revalidate the snapshot against the oidc provider with conditional requests, and save it
+   *
+   * @param snapshot the snapshot to revalidate, or null to fetch a new snapshot
+   * @return the revalidated snapshot
+   * @throws OidcClientException if the oidc provider could not be reached
+   */
+  public OidcMetadataSnapshot revalidate(OidcMetadataSnapshot snapshot)
+      throws OidcClientException {
+    Document wellKnownConfiguration =
+        fetch(
+            format("%s%s", issuerUri, AUTH_ISSUER_WELL_KNOWN_CONFIGURATION),
+            snapshot == null ? null : snapshot.wellKnownConfiguration());
+    String jwksUri =
+        JsonUtils.loadJsonFromString(wellKnownConfiguration.body(), WellKnownConfiguration.class)
+            .jwksUri();
+    Document jwks = fetch(jwksUri, snapshot == null ? null : snapshot.jwks());
+    if (snapshot != null
+        && !wellKnownConfiguration.body().equals(snapshot.wellKnownConfiguration().body())) {
+      log.info(
+          "The oidc provider well known configuration changed, the new configuration is used on"
+              + " the next start");
+    }
+    OidcMetadataSnapshot revalidated =
+        new OidcMetadataSnapshot(
+            issuerUri, System.currentTimeMillis(), wellKnownConfiguration, jwks, null);
+    revalidated.signature(sign(revalidated));
+    save(revalidated);
+    return revalidated;
+  }
+
+  private void save(OidcMetadataSnapshot snapshot) {
+    if (path == null) {
+      return;
+    }
+    try {
+      // Write then rename, so that the instances sharing the file never read a partial snapshot
+      Path parent = path.toAbsolutePath().getParent();
+      Files.createDirectories(parent);
+      Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+      Files.write(temp, JsonUtils.toJson(snapshot).getBytes(UTF_8));
+      try {
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      log.debug("Saved the oidc provider metadata snapshot {}", path);
+    } catch (IOException e) {
+      log.warn("Unable to save the oidc provider metadata snapshot {}: {}", path, e.getMessage());
+    }
+  }
+
+  private OidcMetadataSnapshot parse(String content, String source) {
+    try {
+      String json =
+          content.trim().startsWith("{")
+              ? content
+              : new String(BASE64_DECODER.decode(content.trim()), UTF_8);
+      return JsonUtils.loadJsonFromString(json, OidcMetadataSnapshot.class);
+    } catch (IllegalArgumentException | OidcClientException e) {
+      log.warn(
+          "Unable to parse the oidc provider metadata snapshot ({}): {}", source, e.getMessage());
+      return null;
+    }
+  }
+
+  private OidcMetadataSnapshot verify(OidcMetadataSnapshot snapshot, String source) {
+    if (snapshot == null) {
+      return null;
+    }
+    if (snapshot.signature() == null
+        || snapshot.wellKnownConfiguration() == null
+        || snapshot.jwks() == null
+        || !MessageDigest.isEqual(
+            snapshot.signature().getBytes(UTF_8), sign(snapshot).getBytes(UTF_8))) {
+      log.warn("Ignoring the oidc provider metadata snapshot ({}): invalid signature", source);
+      return null;
+    }
+    if (!issuerUri.equals(snapshot.issuer())) {
+      log.warn(
+          "Ignoring the oidc provider metadata snapshot ({}): issued for {}",
+          source,
+          snapshot.issuer());
+      return null;
+    }
+    long ageMillis = System.currentTimeMillis() - snapshot.savedAt();
+    if (ageMillis > maxAgeMillis) {
+      log.info(
+          "Ignoring the oidc provider metadata snapshot ({}): expired since {} seconds",
+          source,
+          TimeUnit.MILLISECONDS.toSeconds(ageMillis - maxAgeMillis));
+      return null;
+    }
+    log.info(
+        "Loaded the oidc provider metadata snapshot ({}), saved {} seconds ago",
+        source,
+        TimeUnit.MILLISECONDS.toSeconds(ageMillis));
+    return snapshot;
+  }
+
+  private String sign(OidcMetadataSnapshot snapshot) {
+    String payload =
+        String.join(
+            "\n",
+            snapshot.issuer(),
+            String.valueOf(snapshot.savedAt()),
+            snapshot.wellKnownConfiguration().body(),
+            Strings.nullToEmpty(snapshot.wellKnownConfiguration().etag()),
+            Strings.nullToEmpty(snapshot.wellKnownConfiguration().lastModified()),
+            snapshot.jwks().body(),
+            Strings.nullToEmpty(snapshot.jwks().etag()),
+            Strings.nullToEmpty(snapshot.jwks().lastModified()));
+    return BASE64URL_ENCODER.encodeToString(hmac(signingKey, payload));
+  }
+
+  private static byte[] hmac(SecretKeySpec key, String payload) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+      mac.init(key);
+      return mac.doFinal(payload.getBytes(UTF_8));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException(e.getMessage(), e);
+    }
+  }
+
+  /** Fetch the document, or revalidate the cached document if provided */
+  private Document fetch(String url, Document cached) throws OidcClientException {
+    HttpURLConnection connection = null;
+    try {
+      connection = (HttpURLConnection) new URL(url).openConnection();
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      connection.setRequestProperty("Accept", "application/json");
+      if (cached != null && cached.etag() != null) {
+        connection.setRequestProperty("If-None-Match", cached.etag());
+      }
+      if (cached != null && cached.lastModified() != null) {
+        connection.setRequestProperty("If-Modified-Since", cached.lastModified());
+      }
+      int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+        log.debug("The oidc provider document {} is not modified", url);
+        return cached;
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException(format("%s %s", status, connection.getResponseMessage()));
+      }
+      try (InputStream in = connection.getInputStream()) {
+        return new Document(
+            IOUtils.toString(in, UTF_8),
+            connection.getHeaderField("ETag"),
+            connection.getHeaderField("Last-Modified"));
+      }
+    } catch (IOException | ClassCastException e) {
+      throw new OidcClientException(format("Unable to fetch json data from Url: %s", url), e);
+    } finally {
+      if (connection != null) {
+        connection.disconnect();
+      }
+    }
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.config;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The compiled rules of the requests skipping the authentication
+ *
+ * <p>A rule is an optional HTTP method followed by a path pattern:
+ *
+ * <ul>
+ *   <li><code>/api/v1/version</code>: the exact path
+ *   <li><code>/static/*</code>: the paths starting with <code>/static/</code>
+ *   <li><code>*.css</code>: the paths ending with <code>.css</code>
+ *   <li><code>*</code>: any path
+ *   <li><code>regex:.*&#47;proxy/.*\.js</code>: the paths fully matching the regular expression
+ *   <li><code>OPTIONS *</code>: the CORS preflight requests on any path
+ * </ul>
+ *
+ * <p>Unlike the patterns of {@link HttpSecurityConfig#authorizeRequests(String...)}, the rules are
+ * not regular expressions unless prefixed by <code>regex:</code>.
+ *
+ * <p>The exact paths are looked up in a hash set, the prefixes and the suffixes are matched by
+ * walking a trie once per request, the regular expressions are evaluated last.
+ */
+@Slf4j
+public final class SkipRequestMatcher {
+
+  /** The prefix of the rules holding a regular expression */
+  public static final String REGEX_PREFIX = "regex:";
+
+  private static final SkipRequestMatcher NONE = new SkipRequestMatcher();
+
+  private final List<String> rules = new ArrayList<>();
+  private final Rules anyMethodRules = new Rules();
+  private final Map<String, Rules> methodRules = new HashMap<>();
+
+  private SkipRequestMatcher() {}
+
+  /**
+   * Compile the provided skip rules
+   *
+   * @param rules the skip rules, empty rules are ignored
+   * @throws IllegalArgumentException if a rule is not valid
+   */
+  public static SkipRequestMatcher compile(String... rules) {
+    return compile(Arrays.asList(rules));
+  }
+
+  /**
+   * Compile the provided skip rules
+   *
+   * @param rules the skip rules, empty rules are ignored
+   * @throws IllegalArgumentException if a rule is not valid
+   */
+  public static SkipRequestMatcher compile(List<String> rules) {
+    SkipRequestMatcher matcher = new SkipRequestMatcher();
+    for (String rule : rules) {
+      matcher.add(rule.trim());
+    }
+    return matcher;
+  }
+
+  /** A matcher skipping no request */
+  public static SkipRequestMatcher none() {
+    return NONE;
+  }
+
+  /**
+   * Compile the rules of this matcher along with the provided skip rules
+   *
+   * @param rules the additional skip rules
+   * @return a new matcher, this matcher is left unchanged
+   * @throws IllegalArgumentException if a rule is not valid
+   */
+  public SkipRequestMatcher and(List<String> rules) {
+    List<String> allRules = new ArrayList<>(this.rules);
+    allRules.addAll(rules);
+    return compile(allRules);
+  }
+
+  /** The regular expressions of the <code>regex:</code> rules applying to any HTTP method */
+  public List<Pattern> regexes() {
+    return Collections.unmodifiableList(anyMethodRules.regexes);
+  }
+
+  /**
+   * Check if the request skips the authentication
+   *
+   * @param method the HTTP method of the request, may be null
+   * @param path the request URI, without the query string
+   * @return true if the request matches one of the rules
+   */
+  public boolean matches(String method, String path) {
+    if (path == null) {
+      return false;
+    }
+    if (anyMethodRules.matches(path)) {
+      return true;
+    }
+    if (method == null || methodRules.isEmpty()) {
+      return false;
+    }
+    Rules rules = methodRules.get(method);
+    return rules != null && rules.matches(path);
+  }
+
+  private void add(String rule) {
+    if (rule.isEmpty()) {
+      return;
+    }
+    rules.add(rule);
+    Rules rules = anyMethodRules;
+    String pathPattern = rule;
+    int separator = rule.indexOf(' ');
+    if (separator > 0 && !rule.startsWith(REGEX_PREFIX)) {
+      String method = rule.substring(0, separator).toUpperCase(Locale.ROOT);
+      rules = methodRules.computeIfAbsent(method, m -> new Rules());
+      pathPattern = rule.substring(separator + 1).trim();
+    }
+    if (pathPattern.startsWith(REGEX_PREFIX)) {
+      rules.regexes.add(Pattern.compile(pathPattern.substring(REGEX_PREFIX.length())));
+    } else if (pathPattern.equals("*") || pathPattern.equals("**")) {
+      rules.matchAll = true;
+    } else if (pathPattern.endsWith("*")) {
+      String prefix = stripTrailingStars(pathPattern);
+      checkWildcards(rule, prefix);
+      rules.prefixes.add(prefix, false);
+    } else if (pathPattern.startsWith("*")) {
+      String suffix = stripLeadingStars(pathPattern);
+      checkWildcards(rule, suffix);
+      rules.suffixes.add(suffix, true);
+    } else {
+      checkWildcards(rule, pathPattern);
+      rules.exactPaths.add(pathPattern);
+    }
+    log.debug("Skipping the authentication for the requests matching '{}'", rule);
+  }
+
+  private static String stripTrailingStars(String pattern) {
+    int end = pattern.length();
+    while (end > 0 && pattern.charAt(end - 1) == '*') {
+      end--;
+    }
+    return pattern.substring(0, end);
+  }
+
+  private static String stripLeadingStars(String pattern) {
+    int start = 0;
+    while (start < pattern.length() && pattern.charAt(start) == '*') {
+      start++;
+    }
+    return pattern.substring(start);
+  }
+
+  private static void checkWildcards(String rule, String literal) {
+    checkArgument(
+        literal.indexOf('*') < 0,
+        "Unsupported skip rule '%s', only a leading or a trailing '*' is supported, use '%s<regex>'"
+            + " for more complex patterns",
+        rule,
+        REGEX_PREFIX);
+  }
+
+  /** The rules of a given HTTP method */
+  private static final class Rules {
+    private final Set<String> exactPaths = new HashSet<>();
+    private final Trie prefixes = new Trie();
+    private final Trie suffixes = new Trie();
+    private final List<Pattern> regexes = new ArrayList<>();
+    private boolean matchAll;
+
+    private boolean matches(String path) {
+      if (matchAll || exactPaths.contains(path)) {
+        return true;
+      }
+      if (prefixes.matches(path, false) || suffixes.matches(path, true)) {
+        return true;
+      }
+      for (Pattern regex : regexes) {
+        if (regex.matcher(path).matches()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** A character trie matching the prefixes, or the suffixes when walked backward */
+  private static final class Trie {
+    private final Node root = new Node();
+    private boolean empty = true;
+
+    private void add(String value, boolean backward) {
+      Node node = root;
+      for (int i = 0; i < value.length(); i++) {
+        node = node.childOrCreate(value.charAt(backward ? value.length() - 1 - i : i));
+      }
+      node.terminal = true;
+      empty = false;
+    }
+
+    /** Check if one of the values is a prefix (or a suffix when walked backward) of the path */
+    private boolean matches(String path, boolean backward) {
+      if (empty) {
+        return false;
+      }
+      Node node = root;
+      for (int i = 0; i < path.length(); i++) {
+        if (node.terminal) {
+          return true;
+        }
+        node = node.child(path.charAt(backward ? path.length() - 1 - i : i));
+        if (node == null) {
+          return false;
+        }
+      }
+      return node.terminal;
+    }
+  }
+
+  private static final class Node {
+    private char[] keys = new char[0];
+    private Node[] children = new Node[0];
+    private boolean terminal;
+
+    private Node child(char c) {
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] == c) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    private Node childOrCreate(char c) {
+      Node child = child(c);
+      if (child == null) {
+        child = new Node();
+        keys = Arrays.copyOf(keys, keys.length + 1);
+        children = Arrays.copyOf(children, children.length + 1);
+        keys[keys.length - 1] = c;
+        children[children.length - 1] = child;
+      }
+      return child;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKMatcher;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.KeyConverter;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.security.Key;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.SecretKey;
+
+/**
+ * {@link JWSVerificationKeySelector} reusing the java keys converted from the JWKS
+ *
+ * <p>The default selector converts the matching JWKs into new java keys on every token
+ * verification. The converted keys are cached by (kid, alg), along with the JWKs they were
+ * converted from: an entry is rebuilt as soon as the matching JWKs change, i.e. when the JWKS is
+ * refreshed with new keys.
+ *
+ * <p>The returned keys are stable between two JWKS changes, so that {@link
+ * CachingJWSVerifierFactory} can reuse the verifiers built for them.
+ *
+ * @param <C> the security context
+ */
+public class CachingJWSKeySelector<C extends SecurityContext>
+    extends JWSVerificationKeySelector<C> {
+
+  /** Guard against the tokens with random kids, far beyond the size of any JWKS */
+  private static final int MAX_ENTRIES = 256;
+
+  private final Map<String, Entry> keys = new ConcurrentHashMap<>();
+
+  public CachingJWSKeySelector(Set<JWSAlgorithm> jwsAlgs, JWKSource<C> jwkSource) {
+    super(jwsAlgs, jwkSource);
+  }
+
+  @Override
+  public List<Key> selectJWSKeys(JWSHeader jwsHeader, C context) throws KeySourceException {
+    if (!isAllowed(jwsHeader.getAlgorithm())) {
+      // Unexpected JWS alg
+      return Collections.emptyList();
+    }
+    JWKMatcher jwkMatcher = createJWKMatcher(jwsHeader);
+    if (jwkMatcher == null) {
+      return Collections.emptyList();
+    }
+    List<JWK> jwks = getJWKSource().get(new JWKSelector(jwkMatcher), context);
+    if (jwks.isEmpty()) {
+      // Unknown kid
+      return Collections.emptyList();
+    }
+    String cacheKey = jwsHeader.getKeyID() + ":" + jwsHeader.getAlgorithm();
+    Entry entry = keys.get(cacheKey);
+    if (entry == null || !entry.convertedFrom(jwks)) {
+      entry = new Entry(jwks);
+      if (keys.size() >= MAX_ENTRIES) {
+        // Drop the keys of the removed kids
+        keys.clear();
+      }
+      keys.put(cacheKey, entry);
+    }
+    return entry.keys;
+  }
+
+  /** The java keys converted from the matching JWKs */
+  private static final class Entry {
+    private final List<JWK> jwks;
+    private final List<Key> keys;
+
+    private Entry(List<JWK> jwks) {
+      this.jwks = jwks;
+      List<Key> sanitized = new ArrayList<>();
+      for (Key key : KeyConverter.toJavaKeys(jwks)) {
+        if (key instanceof PublicKey || key instanceof SecretKey) {
+          sanitized.add(key);
+        }
+      }
+      this.keys = Collections.unmodifiableList(sanitized);
+    }
+
+    /** Whether the entry was converted from the same JWK instances */
+    private boolean convertedFrom(List<JWK> matches) {
+      if (matches.size() != jwks.size()) {
+        return false;
+      }
+      for (int i = 0; i < jwks.size(); i++) {
+        if (matches.get(i) != jwks.get(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jca.JCAContext;
+import com.nimbusds.jose.proc.JWSVerifierFactory;
+import java.security.Key;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * {@link JWSVerifierFactory} reusing the verifiers built for the same key
+ *
+ * <p>The verifiers are cached by key instance, with weak references, so that the verifiers of the
+ * keys removed from the JWKS are released along with the keys. Paired with the stable keys returned
+ * by {@link CachingJWSKeySelector}, the RSA and EC verifiers are only built once per (kid, alg).
+ * The nimbus verifiers are thread safe, they create a new JCA signature on every verification.
+ */
+public class CachingJWSVerifierFactory implements JWSVerifierFactory {
+
+  private final JWSVerifierFactory factory = new DefaultJWSVerifierFactory();
+  private final Cache<Key, JWSVerifier> verifiers = CacheBuilder.newBuilder().weakKeys().build();
+
+  @Override
+  public JWSVerifier createJWSVerifier(JWSHeader header, Key key) throws JOSEException {
+    try {
+      JWSVerifier verifier = verifiers.get(key, () -> factory.createJWSVerifier(header, key));
+      if (verifier.supportedJWSAlgorithms().contains(header.getAlgorithm())) {
+        return verifier;
+      }
+      // The same key used with another algorithm family
+      return factory.createJWSVerifier(header, key);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof JOSEException) {
+        throw (JOSEException) e.getCause();
+      }
+      throw new JOSEException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  @Override
+  public Set<JWSAlgorithm> supportedJWSAlgorithms() {
+    return factory.supportedJWSAlgorithms();
+  }
+
+  @Override
+  public JCAContext getJCAContext() {
+    return factory.getJCAContext();
+  }
+}
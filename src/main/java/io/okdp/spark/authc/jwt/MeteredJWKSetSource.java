@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSetCacheRefreshEvaluator;
+import com.nimbusds.jose.jwk.source.JWKSetSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The JWKS fetches metrics: wraps the source fetching the JWKS from the oidc provider, below the
+ * cache, refresh-ahead, outage tolerance and rate limiting layers, so that only the actual
+ * refreshes are measured
+ *
+ * @param <C> the security context
+ */
+@Slf4j
+public class MeteredJWKSetSource<C extends SecurityContext> implements JWKSetSource<C> {
+
+  private final JWKSetSource<C> source;
+  private final LongAdder refreshCount = new LongAdder();
+  private final LongAdder failureCount = new LongAdder();
+  private final LongAdder totalLatencyNanos = new LongAdder();
+  private final AtomicLong lastLatencyNanos = new AtomicLong();
+  private final AtomicLong lastSuccessMillis = new AtomicLong();
+
+  public MeteredJWKSetSource(@NonNull JWKSetSource<C> source) {
+    this.source = source;
+  }
+
+  @Override
+  public JWKSet getJWKSet(
+      JWKSetCacheRefreshEvaluator refreshEvaluator, long currentTime, C context)
+      throws KeySourceException {
+    long start = System.nanoTime();
+    try {
+      JWKSet jwkSet = source.getJWKSet(refreshEvaluator, currentTime, context);
+      lastSuccessMillis.set(System.currentTimeMillis());
+      return jwkSet;
+    } catch (KeySourceException | RuntimeException e) {
+      failureCount.increment();
+      log.warn("Unable to refresh the JWKS: {}", e.getMessage());
+      throw e;
+    } finally {
+      long latencyNanos = System.nanoTime() - start;
+      refreshCount.increment();
+      totalLatencyNanos.add(latencyNanos);
+      lastLatencyNanos.set(latencyNanos);
+      log.debug("JWKS refreshed in {} ms", TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  /** The number of JWKS fetches from the oidc provider, including the failed ones */
+  public long refreshCount() {
+    return refreshCount.sum();
+  }
+
+  /** The number of failed JWKS fetches */
+  public long failureCount() {
+    return failureCount.sum();
+  }
+
+  /** The latency of the last JWKS fetch, in milliseconds */
+  public long lastLatencyMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastLatencyNanos.get());
+  }
+
+  /** The average latency of the JWKS fetches, in milliseconds */
+  public long averageLatencyMillis() {
+    long count = refreshCount.sum();
+    return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalLatencyNanos.sum() / count);
+  }
+
+  /** The time of the last successful JWKS fetch (epoch millis), or 0 if none */
+  public long lastSuccessMillis() {
+    return lastSuccessMillis.get();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSetCacheRefreshEvaluator;
+import com.nimbusds.jose.jwk.source.JWKSetSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serve the JWKS loaded from a snapshot on the first fetch, so that the startup does not wait for
+ * the oidc provider, then fetch the JWKS from the wrapped source
+ *
+ * <p>The snapshot is skipped if it does not hold the keys the first fetch is looking for.
+ *
+ * <p>Once the snapshot is revalidated against the oidc provider, the revalidated JWKS is served on
+ * the next fetch, so that a forced refresh replaces the cached JWKS without fetching it again.
+ *
+ * @param <C> the security context
+ */
+@Slf4j
+public class SnapshotJWKSetSource<C extends SecurityContext> implements JWKSetSource<C> {
+
+  private final JWKSetSource<C> source;
+  private final AtomicReference<JWKSet> snapshot;
+  private final AtomicReference<JWKSet> revalidated = new AtomicReference<>();
+
+  public SnapshotJWKSetSource(@NonNull JWKSet snapshot, @NonNull JWKSetSource<C> source) {
+    this.snapshot = new AtomicReference<>(snapshot);
+    this.source = source;
+  }
+
+  @Override
+  public JWKSet getJWKSet(
+      JWKSetCacheRefreshEvaluator refreshEvaluator, long currentTime, C context)
+      throws KeySourceException {
+    JWKSet revalidatedSet = revalidated.getAndSet(null);
+    if (revalidatedSet != null) {
+      snapshot.set(null);
+      log.debug("Serving the revalidated JWKS of the snapshot ({} keys)", revalidatedSet.size());
+      return revalidatedSet;
+    }
+    JWKSet jwkSet = snapshot.getAndSet(null);
+    if (jwkSet != null && !refreshEvaluator.requiresRefresh(jwkSet)) {
+      log.debug("Serving the JWKS from the snapshot ({} keys)", jwkSet.size());
+      return jwkSet;
+    }
+    return source.getJWKSet(refreshEvaluator, currentTime, context);
+  }
+
+  /**
+   * Serve the JWKS revalidated against the oidc provider on the next fetch
+   *
+   * @param jwkSet the revalidated JWKS
+   */
+  public void update(@NonNull JWKSet jwkSet) {
+    revalidated.set(jwkSet);
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+}
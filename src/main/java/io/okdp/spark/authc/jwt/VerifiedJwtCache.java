@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.nimbusds.jose.proc.BadJWSException;
+import com.nimbusds.jwt.proc.BadJWTException;
+import io.okdp.spark.authc.model.PersistedToken;
+import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded cache of the JWT header verification results
+ *
+ * <p>The JWT verification (signature and claims) runs on every request carrying the JWT header, the
+ * clients (Ex.: automation polling the REST API) usually send the same token until it expires. The
+ * entries are keyed by the sha256 of the compact token:
+ *
+ * <ul>
+ *   <li>The verified tokens are cached until their expiration time.
+ *   <li>The rejected tokens are cached for a short time, so that a client retrying with an invalid
+ *       token does not trigger a signature verification on every request. Only the definitive
+ *       verdicts are cached (malformed token, invalid signature or claims), not the JWKS fetch
+ *       failures or the unknown key ids, which may succeed once the keys are refreshed.
+ * </ul>
+ *
+ * <p>The cached {@link PersistedToken} instances are shared between requests and must be treated
+ * as read-only.
+ */
+@Slf4j
+public class VerifiedJwtCache {
+
+  /** Upper bound of the time a verified token is cached, whatever its expiration time */
+  private static final long MAX_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+  private final Cache<HashCode, Entry> entries;
+  private final long negativeTtlMillis;
+
+  private VerifiedJwtCache(long maximumSize, long negativeTtlSeconds) {
+    this.entries =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(MAX_TTL_MILLIS, MILLISECONDS)
+            .recordStats()
+            .build();
+    this.negativeTtlMillis = SECONDS.toMillis(negativeTtlSeconds);
+  }
+
+  /**
+   * Create a JWT verification result cache
+   *
+   * @param maximumSize the maximum number of cached tokens, nothing is cached if <= 0
+   * @param negativeTtlSeconds the time a rejected token is cached, rejected tokens are not cached
+   *     if <= 0
+   */
+  public static VerifiedJwtCache of(long maximumSize, long negativeTtlSeconds) {
+    log.info(
+        "Initializing the verified JWT cache (max-size: {}, negative ttl (seconds): {}) ...",
+        maximumSize,
+        negativeTtlSeconds);
+    return new VerifiedJwtCache(Math.max(0, maximumSize), negativeTtlSeconds);
+  }
+
+  /**
+   * @param jwt the compact serialized token
+   * @return the cache key of the token
+   */
+  public HashCode key(String jwt) {
+    return Hashing.sha256().hashString(jwt, US_ASCII);
+  }
+
+  /**
+   * @param key the cache key of the token
+   * @return the cached verification result, or null if the token was not verified recently
+   */
+  public Entry getIfPresent(HashCode key) {
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null && entry.expiresAtMillis <= System.currentTimeMillis()) {
+      entries.invalidate(key);
+      return null;
+    }
+    return entry;
+  }
+
+  /**
+   * Cache a verified token until its expiration time
+   *
+   * @param key the cache key of the token
+   * @param persistedToken the token built from the verified claims
+   */
+  public void putVerified(HashCode key, PersistedToken persistedToken) {
+    long now = System.currentTimeMillis();
+    long expiresAtMillis =
+        persistedToken.expiresAt() == null
+            ? now + MAX_TTL_MILLIS
+            : Math.min(persistedToken.expiresAt().getTime(), now + MAX_TTL_MILLIS);
+    if (expiresAtMillis > now) {
+      entries.put(key, new Entry(persistedToken, expiresAtMillis));
+    }
+  }
+
+  /**
+   * Cache a rejected token for the negative TTL
+   *
+   * @param key the cache key of the token
+   */
+  public void putRejected(HashCode key) {
+    if (negativeTtlMillis > 0) {
+      entries.put(key, new Entry(null, System.currentTimeMillis() + negativeTtlMillis));
+    }
+  }
+
+  /**
+   * Cache a rejected token for the negative TTL if the rejection is definitive
+   *
+   * @param key the cache key of the token
+   * @param cause the cause of the rejection
+   * @return true if the rejection is definitive: the token is malformed, or its signature or its
+   *     claims are invalid
+   */
+  public boolean putRejected(HashCode key, Exception cause) {
+    boolean definitive =
+        cause instanceof ParseException
+            || cause instanceof BadJWSException
+            || cause instanceof BadJWTException;
+    if (definitive) {
+      putRejected(key);
+    }
+    return definitive;
+  }
+
+  /** The hit, miss and eviction statistics of the cache */
+  public CacheStats stats() {
+    return entries.stats();
+  }
+
+  /** The approximate number of cached tokens */
+  public long size() {
+    return entries.size();
+  }
+
+  /** A cached verification result */
+  public static final class Entry {
+    private final PersistedToken persistedToken;
+    private final long expiresAtMillis;
+
+    private Entry(PersistedToken persistedToken, long expiresAtMillis) {
+      this.persistedToken = persistedToken;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+
+    /** Whether the token was rejected by the verification */
+    public boolean rejected() {
+      return persistedToken == null;
+    }
+
+    /** The token built from the verified claims, or null if the token was rejected */
+    public PersistedToken persistedToken() {
+      return persistedToken;
+    }
+  }
+}
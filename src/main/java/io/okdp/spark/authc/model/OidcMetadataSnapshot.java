@@ -0,0 +1,70 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * A signed snapshot of the oidc provider well known configuration and JWKS, reused by the next
+ * starts of the filter
+ */
+@Data
+@Accessors(fluent = true)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class OidcMetadataSnapshot {
+
+  @JsonProperty("issuer")
+  private String issuer;
+
+  /** The time of the last fetch or revalidation (epoch millis) */
+  @JsonProperty("saved_at")
+  private long savedAt;
+
+  @JsonProperty("well_known_configuration")
+  private Document wellKnownConfiguration;
+
+  @JsonProperty("jwks")
+  private Document jwks;
+
+  @JsonProperty("signature")
+  private String signature;
+
+  /** A document fetched from the oidc provider, along with its cache validators */
+  @Data
+  @Accessors(fluent = true)
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  @AllArgsConstructor
+  @NoArgsConstructor
+  public static class Document {
+
+    @JsonProperty("body")
+    private String body;
+
+    @JsonProperty("etag")
+    private String etag;
+
+    @JsonProperty("last_modified")
+    private String lastModified;
+  }
+}
@@ -19,6 +19,7 @@ package io.okdp.spark.authc.provider;
 import io.okdp.spark.authc.config.HttpSecurityConfig;
 import io.okdp.spark.authc.exception.AuthenticationException;
 import io.okdp.spark.authc.model.AccessToken;
+import java.util.concurrent.CompletableFuture;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
@@ -57,6 +58,23 @@ public interface AuthProvider {
   AccessToken requestAccessToken(ServletRequest servletRequest, ServletResponse response)
       throws AuthenticationException;
 
+  /**
+   * Retrieve an access token for the authenticated user using the authorization 'code' parameter of
+   * ({@link ServletRequest}) without blocking the calling thread on the OIDC provider response
+   *
+   * <p>The request is validated, and the response cookies are set, on the calling thread. The
+   * default implementation falls back to {@link #requestAccessToken(ServletRequest,
+   * ServletResponse)}.
+   *
+   * @return the access token ({@link AccessToken}) from the OIDC provider, completed with an
+   *     {@link AuthenticationException} if the token request failed
+   * @throws AuthenticationException if the authorization code request is not valid
+   */
+  default CompletableFuture<AccessToken> requestAccessTokenAsync(
+      ServletRequest servletRequest, ServletResponse response) throws AuthenticationException {
+    return CompletableFuture.completedFuture(requestAccessToken(servletRequest, response));
+  }
+
   /**
    * Retrieve an access token for the authenticated user using his refresh token
    *
@@ -67,6 +85,23 @@ public interface AuthProvider {
    */
   AccessToken refreshToken(String refreshToken) throws AuthenticationException;
 
+  /**
+   * Retrieve an access token for the authenticated user using his refresh token without blocking
+   * the calling thread on the OIDC provider response
+   *
+   * <p>The default implementation falls back to {@link #refreshToken(String)}.
+   *
+   * @param refreshToken the refresh token obtained by the user on the first successful
+   *     authentication
+   * @return the access token ({@link AccessToken}) from the OIDC provider, completed with an
+   *     {@link AuthenticationException} if the token request failed
+   * @throws AuthenticationException if the refresh token is missing
+   */
+  default CompletableFuture<AccessToken> refreshTokenAsync(String refreshToken)
+      throws AuthenticationException {
+    return CompletableFuture.completedFuture(refreshToken(refreshToken));
+  }
+
   /**
    * Check if the request URI is authorized without authentication
    *
@@ -37,11 +37,27 @@ public interface SessionStore {
    */
   <T> T save(AuthState authState);
 
+  /**
+   * Save the renewed access token in place of the session saved under the provided value
+   *
+   * <p>The SessionStore providers sharing the sessions between several instances keep the same
+   * value, so that the instances still serving the previous cookie read the renewed access token.
+   * By default, the renewed access token is saved under a new value.
+   *
+   * @param value the string value of the renewed session saved by the SessionStore provider
+   * @param persistedToken the renewed access token
+   * @return {@link T} containing the saved access token
+   */
+  default <T> T renew(String value, PersistedToken persistedToken) {
+    return save(persistedToken);
+  }
+
   /**
    * Read the access token in a {@link T}
    *
    * @param value the access token string value saved by the SessionStore provider
-   * @return {@link T} containing the resulting access token
+   * @return {@link T} containing the resulting access token, or null if the SessionStore provider
+   *     has no access token for this value (Ex.: unknown or expired server side session)
    */
   <T> T readToken(String value);
 
@@ -52,4 +68,15 @@ public interface SessionStore {
    * @return {@link T} containing the resulting access token
    */
   <T> T readPKCEState(String value);
+
+  /**
+   * Remove the access token saved with the provided value, for the SessionStore providers keeping
+   * a server side state
+   *
+   * @param value the access token string value saved by the SessionStore provider
+   */
+  default void remove(String value) {}
+
+  /** Release the resources held by the SessionStore provider (files, connections, threads) */
+  default void close() {}
 }
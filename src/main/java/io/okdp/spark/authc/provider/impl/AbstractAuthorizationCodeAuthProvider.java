@@ -23,35 +23,75 @@ import com.google.common.annotations.VisibleForTesting;
 import io.okdp.spark.authc.config.Constants;
 import io.okdp.spark.authc.config.HttpSecurityConfig;
 import io.okdp.spark.authc.exception.AuthenticationException;
+import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.provider.AuthProvider;
+import io.okdp.spark.authc.utils.JsonUtils;
+import io.okdp.spark.authc.utils.SingleFlight;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
-import lombok.AllArgsConstructor;
 import lombok.NonNull;
 import org.apache.commons.io.IOUtils;
 import org.apache.hc.client5.http.ClientProtocolException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.net.WWWFormCodec;
 
-@AllArgsConstructor
 public abstract class AbstractAuthorizationCodeAuthProvider implements Constants, AuthProvider {
 
   @NonNull private HttpSecurityConfig httpSecurityConfig;
+  private final SingleFlight<String, AccessToken> codeExchanges;
+  private final SingleFlight<String, AccessToken> refreshes;
 
+  public AbstractAuthorizationCodeAuthProvider(@NonNull HttpSecurityConfig httpSecurityConfig) {
+    this.httpSecurityConfig = httpSecurityConfig;
+    // The concurrent requests of a page share a single token request to the oidc provider. The
+    // blocking callers wait at most for the connect and response timeouts of the running request
+    OidcHttpClient httpClient = httpSecurityConfig.httpClient();
+    long maxWaitMillis =
+        httpClient != null
+            ? httpClient.maxRequestMillis()
+            : TimeUnit.SECONDS.toMillis(2L * OIDC_REQUEST_TIMEOUT_SECONDS);
+    this.codeExchanges = SingleFlight.of(maxWaitMillis, 0, TimeUnit.MILLISECONDS);
+    // The renewed tokens are also reused by the requests arriving just after the refresh, still
+    // holding the previous (and possibly rotated) refresh token
+    this.refreshes =
+        SingleFlight.of(
+            maxWaitMillis,
+            TimeUnit.SECONDS.toMillis(OIDC_REFRESH_RESULT_RETENTION_SECONDS),
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Send the request to the oidc provider through the pooled http client, and read the json
+   * response straight from the response stream
+   *
+   * @param request the token request
+   * @param type the class of the json response
+   * @throws AuthenticationException if the request failed, or if the response status is not 200
+   */
   @VisibleForTesting
-  public String doExecute(Request request) throws AuthenticationException {
+  public <T> T doExecute(Request request, Class<T> type) throws AuthenticationException {
     try {
-      return request
-          .execute()
-          .handleResponse(
+      return httpSecurityConfig
+          .httpClient()
+          .execute(
+              request,
               response -> {
                 final int status = response.getCode();
                 final Optional<HttpEntity> maybeEntity = ofNullable(response.getEntity());
-                String content;
                 try (HttpEntity entity =
                     maybeEntity.orElseThrow(
                         () ->
@@ -59,26 +99,153 @@ public abstract class AbstractAuthorizationCodeAuthProvider implements Constants
                                 format(
                                     "%s %s - The response does not contain content",
                                     status, response.getReasonPhrase())))) {
-                  content = IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8);
+                  if (status != HttpStatus.SC_OK) {
+                    throw new AuthenticationException(
+                        status,
+                        format(
+                            "%s %s - Unable to retrieve an access token (%s)",
+                            status,
+                            response.getReasonPhrase(),
+                            IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8)));
+                  }
+                  return JsonUtils.loadJsonFromStream(entity.getContent(), type);
                 }
-                if (status != HttpStatus.SC_OK) {
-                  throw new AuthenticationException(
-                      status,
-                      format(
-                          "%s %s - Unable to retrieve an access token (%s)",
-                          status, response.getReasonPhrase(), content));
-                }
-                return content;
               });
     } catch (IOException e) {
       throw new AuthenticationException(e.getMessage(), e);
     }
   }
 
+  /**
+   * Send the request to the oidc provider asynchronously, and read the json response once received
+   *
+   * @param form the form parameters of the token request
+   * @param type the class of the json response
+   * @return the json response, completed with an {@link AuthenticationException} if the request
+   *     failed, or if the response status is not 200
+   */
+  @VisibleForTesting
+  public <T> CompletableFuture<T> doExecuteAsync(List<NameValuePair> form, Class<T> type) {
+    SimpleHttpRequest request =
+        SimpleRequestBuilder.post(
+                httpSecurityConfig.oidcConfig().wellKnownConfiguration().tokenEndpoint())
+            .addHeader("cache-control", "no-cache")
+            .setBody(
+                WWWFormCodec.format(form, StandardCharsets.UTF_8),
+                ContentType.APPLICATION_FORM_URLENCODED)
+            .build();
+    return httpSecurityConfig
+        .httpClient()
+        .executeAsync(request)
+        .handle(
+            (response, e) -> {
+              if (e != null) {
+                throw new AuthenticationException(e.getMessage(), e);
+              }
+              if (response.getCode() != HttpStatus.SC_OK) {
+                throw new AuthenticationException(
+                    response.getCode(),
+                    format(
+                        "%s %s - Unable to retrieve an access token (%s)",
+                        response.getCode(), response.getReasonPhrase(), response.getBodyText()));
+              }
+              byte[] body = response.getBodyBytes();
+              if (body == null) {
+                throw new AuthenticationException(
+                    format(
+                        "%s %s - The response does not contain content",
+                        response.getCode(), response.getReasonPhrase()),
+                    null);
+              }
+              return JsonUtils.loadJsonFromStream(new ByteArrayInputStream(body), type);
+            });
+  }
+
+  /**
+   * The form parameters of the request exchanging the authorization code with an access token
+   *
+   * @param servletRequest the request redirected by the oidc provider with the authorization code
+   * @param servletResponse the response
+   * @throws AuthenticationException if the authorization code request is not valid
+   */
+  protected abstract List<NameValuePair> accessTokenForm(
+      ServletRequest servletRequest, ServletResponse servletResponse)
+      throws AuthenticationException;
+
+  /**
+   * The form parameters of the request renewing the access token
+   *
+   * @param refreshToken the refresh token
+   * @throws AuthenticationException if the refresh token is missing
+   */
+  protected abstract List<NameValuePair> refreshTokenForm(String refreshToken)
+      throws AuthenticationException;
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The concurrent exchanges of the same code share a single request to the oidc provider only
+   * if their whole token request form matches (code, PKCE code verifier, redirect uri), so that a
+   * request replaying an intercepted code never gets the token exchanged by the legitimate user.
+   */
+  @Override
+  public AccessToken requestAccessToken(
+      ServletRequest servletRequest, ServletResponse servletResponse)
+      throws AuthenticationException {
+    List<NameValuePair> form = accessTokenForm(servletRequest, servletResponse);
+    return codeExchanges.execute(
+        formKey(form), () -> doExecute(tokenRequest(form), AccessToken.class));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<AccessToken> requestAccessTokenAsync(
+      ServletRequest servletRequest, ServletResponse servletResponse)
+      throws AuthenticationException {
+    List<NameValuePair> form = accessTokenForm(servletRequest, servletResponse);
+    return codeExchanges.executeAsync(formKey(form), () -> doExecuteAsync(form, AccessToken.class));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>The concurrent refreshes with the same refresh token share a single request to the oidc
+   * provider, and the renewed token is reused for a few seconds by the requests still holding the
+   * previous (and possibly rotated) refresh token.
+   */
+  @Override
+  public AccessToken refreshToken(String refreshToken) throws AuthenticationException {
+    List<NameValuePair> form = refreshTokenForm(refreshToken);
+    return refreshes.execute(
+        refreshToken, () -> doExecute(tokenRequest(form), AccessToken.class));
+  }
+
+  /** {@inheritDoc} */
+  @Override
+  public CompletableFuture<AccessToken> refreshTokenAsync(String refreshToken)
+      throws AuthenticationException {
+    List<NameValuePair> form = refreshTokenForm(refreshToken);
+    return refreshes.executeAsync(refreshToken, () -> doExecuteAsync(form, AccessToken.class));
+  }
+
+  /** The key of the coalesced code exchanges: the whole token request form */
+  private static String formKey(List<NameValuePair> form) {
+    return WWWFormCodec.format(form, StandardCharsets.UTF_8);
+  }
+
+  private Request tokenRequest(List<NameValuePair> form) {
+    return Request.post(httpSecurityConfig.oidcConfig().wellKnownConfiguration().tokenEndpoint())
+        .addHeader("cache-control", "no-cache")
+        .addHeader("content-type", "application/x-www-form-urlencoded")
+        .bodyForm(form);
+  }
+
   /** {@inheritDoc} */
   @Override
   public boolean isAuthorized(ServletRequest servletRequest) {
-    return httpSecurityConfig.patterns().stream()
-        .anyMatch(p -> p.matcher(((HttpServletRequest) servletRequest).getRequestURI()).matches());
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    return httpSecurityConfig
+        .skipRequestMatcher()
+        .matches(request.getMethod(), request.getRequestURI());
   }
 }
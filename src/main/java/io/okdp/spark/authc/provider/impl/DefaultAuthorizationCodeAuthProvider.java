@@ -18,14 +18,12 @@ package io.okdp.spark.authc.provider.impl;
 
 import static io.okdp.spark.authc.utils.PreconditionsUtils.checkNotNull;
 import static java.lang.String.format;
-import static org.apache.hc.core5.util.Timeout.ofSeconds;
 
 import io.okdp.spark.authc.config.HttpSecurityConfig;
 import io.okdp.spark.authc.exception.AuthenticationException;
-import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.provider.AuthProvider;
-import io.okdp.spark.authc.utils.JsonUtils;
 import java.io.IOException;
+import java.util.List;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
@@ -35,7 +33,7 @@ import lombok.NonNull;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.fluent.Form;
-import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.NameValuePair;
 
 /**
  * The Confidential Client Oauth2/oidc Authorization Code grant provider implementation
@@ -75,46 +73,28 @@ public class DefaultAuthorizationCodeAuthProvider extends AbstractAuthorizationC
   }
 
   @Override
-  public AccessToken requestAccessToken(
+  protected List<NameValuePair> accessTokenForm(
       ServletRequest servletRequest, ServletResponse servletResponse)
       throws AuthenticationException {
     String code = checkNotNull(servletRequest.getParameter("code"), "code");
-
-    Request request =
-        Request.post(httpSecurityConfig.oidcConfig().wellKnownConfiguration().tokenEndpoint())
-            .addHeader("cache-control", "no-cache")
-            .addHeader("content-type", "application/x-www-form-urlencoded")
-            .bodyForm(
-                Form.form()
-                    .add("client_id", httpSecurityConfig.oidcConfig().clientId())
-                    .add("client_secret", httpSecurityConfig.oidcConfig().clientSecret())
-                    .add("grant_type", "authorization_code")
-                    .add("code", code)
-                    .add("redirect_uri", httpSecurityConfig.oidcConfig().redirectUri())
-                    .build())
-            .responseTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS))
-            .connectTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS));
-
-    return JsonUtils.loadJsonFromString(doExecute(request), AccessToken.class);
+    return Form.form()
+        .add("client_id", httpSecurityConfig.oidcConfig().clientId())
+        .add("client_secret", httpSecurityConfig.oidcConfig().clientSecret())
+        .add("grant_type", "authorization_code")
+        .add("code", code)
+        .add("redirect_uri", httpSecurityConfig.oidcConfig().redirectUri())
+        .build();
   }
 
   @Override
-  public AccessToken refreshToken(String refreshToken) throws AuthenticationException {
+  protected List<NameValuePair> refreshTokenForm(String refreshToken)
+      throws AuthenticationException {
     checkNotNull(refreshToken, "refresh_token");
-    Request request =
-        Request.post(httpSecurityConfig.oidcConfig().wellKnownConfiguration().tokenEndpoint())
-            .addHeader("cache-control", "no-cache")
-            .addHeader("content-type", "application/x-www-form-urlencoded")
-            .bodyForm(
-                Form.form()
-                    .add("client_id", httpSecurityConfig.oidcConfig().clientId())
-                    .add("client_secret", httpSecurityConfig.oidcConfig().clientSecret())
-                    .add("grant_type", "refresh_token")
-                    .add("refresh_token", refreshToken)
-                    .build())
-            .responseTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS))
-            .connectTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS));
-
-    return JsonUtils.loadJsonFromString(doExecute(request), AccessToken.class);
+    return Form.form()
+        .add("client_id", httpSecurityConfig.oidcConfig().clientId())
+        .add("client_secret", httpSecurityConfig.oidcConfig().clientSecret())
+        .add("grant_type", "refresh_token")
+        .add("refresh_token", refreshToken)
+        .build();
   }
 }
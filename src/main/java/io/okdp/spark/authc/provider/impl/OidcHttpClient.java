@@ -0,0 +1,408 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.okdp.spark.authc.config.Constants;
+import io.okdp.spark.authc.exception.AuthenticationException;
+import io.okdp.spark.authc.utils.Bulkhead;
+import io.okdp.spark.authc.utils.CircuitBreaker;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import javax.net.ssl.SSLContext;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.DnsResolver;
+import org.apache.hc.client5.http.SystemDefaultDnsResolver;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactoryBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Dedicated pooled http client for the requests to the oidc provider token endpoint
+ *
+ * <p>The connections are kept alive between the requests, the TLS sessions are resumed from a
+ * single SSL context and the resolved addresses of the oidc provider are cached, so that a token
+ * request does not pay for the DNS lookup and the TCP/TLS handshakes. The pool is isolated from
+ * the shared default executor of the fluent API.
+ *
+ * <p>The requests can also be sent asynchronously, so that the servlet container threads are not
+ * blocked while the oidc provider responds.
+ *
+ * <p>The number of concurrent requests is capped by a {@link Bulkhead}, and a {@link
+ * CircuitBreaker} rejects the requests for a while after repeated I/O errors, timeouts or server
+ * errors, so that a degraded oidc provider fails the requests fast instead of holding the servlet
+ * container threads.
+ */
+@Slf4j
+@Accessors(fluent = true)
+public class OidcHttpClient implements Closeable {
+
+  private static final long IDLE_CONNECTION_EVICTION_SECONDS = 60;
+
+  @Getter private final int maxConnections;
+  @Getter private final long connectTimeoutSeconds;
+  @Getter private final long responseTimeoutSeconds;
+  private final SSLContext sslContext = SSLContexts.createSystemDefault();
+  private final DnsResolver dnsResolver;
+  private final ConnectionConfig connectionConfig;
+  private final RequestConfig requestConfig;
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  // Started on the first asynchronous request
+  private CloseableHttpAsyncClient asyncClient;
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder failures = new LongAdder();
+  @Getter private Bulkhead bulkhead;
+  @Getter private CircuitBreaker circuitBreaker;
+
+  private OidcHttpClient(
+      int maxConnections,
+      long connectTimeoutSeconds,
+      long responseTimeoutSeconds,
+      long dnsCacheTtlSeconds) {
+    checkArgument(maxConnections > 0, "The oidc http client max connections must be > 0");
+    checkArgument(connectTimeoutSeconds > 0, "The oidc http client connect timeout must be > 0");
+    checkArgument(responseTimeoutSeconds > 0, "The oidc http client response timeout must be > 0");
+    this.maxConnections = maxConnections;
+    this.connectTimeoutSeconds = connectTimeoutSeconds;
+    this.responseTimeoutSeconds = responseTimeoutSeconds;
+    this.bulkhead = Bulkhead.of(maxConnections);
+    this.circuitBreaker =
+        CircuitBreaker.of(
+            "oidc provider token endpoint",
+            Constants.OIDC_DEFAULT_CIRCUIT_BREAKER_FAILURE_THRESHOLD,
+            Constants.OIDC_DEFAULT_CIRCUIT_BREAKER_OPEN_SECONDS,
+            SECONDS);
+    this.dnsResolver =
+        dnsCacheTtlSeconds > 0
+            ? new CachingDnsResolver(dnsCacheTtlSeconds)
+            : SystemDefaultDnsResolver.INSTANCE;
+    this.connectionConfig =
+        ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.ofSeconds(connectTimeoutSeconds))
+            .setSocketTimeout(Timeout.ofSeconds(responseTimeoutSeconds))
+            .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+            .build();
+    this.requestConfig =
+        RequestConfig.custom()
+            .setConnectionRequestTimeout(Timeout.ofSeconds(connectTimeoutSeconds))
+            .setResponseTimeout(Timeout.ofSeconds(responseTimeoutSeconds))
+            .build();
+    this.connectionManager =
+        PoolingHttpClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(maxConnections)
+            .setMaxConnPerRoute(maxConnections)
+            .setDefaultConnectionConfig(connectionConfig)
+            // A single SSL context, so that the TLS sessions are resumed by the new connections
+            .setSSLSocketFactory(
+                SSLConnectionSocketFactoryBuilder.create().setSslContext(sslContext).build())
+            .setDnsResolver(dnsResolver)
+            .build();
+    this.httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofSeconds(IDLE_CONNECTION_EVICTION_SECONDS))
+            .disableCookieManagement()
+            .disableAutomaticRetries()
+            .build();
+  }
+
+  /**
+   * Create a pooled http client
+   *
+   * @param maxConnections the maximum number of pooled connections to the oidc provider
+   * @param connectTimeoutSeconds the time to establish a connection, or to lease one from the pool
+   * @param responseTimeoutSeconds the time to wait for a response once the request is sent
+   * @param dnsCacheTtlSeconds the time the resolved addresses are cached, 0 to disable the cache
+   */
+  public static OidcHttpClient of(
+      int maxConnections,
+      long connectTimeoutSeconds,
+      long responseTimeoutSeconds,
+      long dnsCacheTtlSeconds) {
+    log.info(
+        "Initializing the oidc provider http client (max-connections: {}, connect timeout"
+            + " (seconds): {}, response timeout (seconds): {}, dns cache ttl (seconds): {}) ...",
+        maxConnections,
+        connectTimeoutSeconds,
+        responseTimeoutSeconds,
+        dnsCacheTtlSeconds);
+    return new OidcHttpClient(
+        maxConnections, connectTimeoutSeconds, responseTimeoutSeconds, dnsCacheTtlSeconds);
+  }
+
+  /** Create a pooled http client with the default settings */
+  public static OidcHttpClient defaults() {
+    return of(
+        Constants.OIDC_DEFAULT_MAX_CONNECTIONS,
+        Constants.OIDC_DEFAULT_CONNECT_TIMEOUT_SECONDS,
+        Constants.OIDC_REQUEST_TIMEOUT_SECONDS,
+        Constants.OIDC_DEFAULT_DNS_CACHE_TTL_SECONDS);
+  }
+
+  /**
+   * Cap the number of concurrent requests, defaults to the maximum number of pooled connections
+   *
+   * @see Bulkhead
+   */
+  public OidcHttpClient bulkhead(@NonNull Bulkhead bulkhead) {
+    this.bulkhead = bulkhead;
+    return this;
+  }
+
+  /**
+   * Reject the requests for a while after repeated failures
+   *
+   * @see CircuitBreaker
+   */
+  public OidcHttpClient circuitBreaker(@NonNull CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+    return this;
+  }
+
+  /**
+   * Send the request through the pool and handle its response
+   *
+   * <p>The response entity is consumed and the connection released to the pool once handled.
+   *
+   * @param request the request to send
+   * @param handler the handler reading the response, typically straight from the entity stream
+   * @throws IOException if the request could not be sent or the response could not be read
+   * @throws AuthenticationException if the request is rejected by the bulkhead or the circuit
+   *     breaker, or by the handler
+   */
+  public <T> T execute(Request request, HttpClientResponseHandler<T> handler) throws IOException {
+    acquire();
+    requests.increment();
+    try {
+      T result = request.execute(httpClient).handleResponse(handler);
+      circuitBreaker.onSuccess();
+      return result;
+    } catch (AuthenticationException e) {
+      failures.increment();
+      onResponse(e.getHttpStatusCode());
+      throw e;
+    } catch (IOException | RuntimeException e) {
+      failures.increment();
+      circuitBreaker.onFailure();
+      throw e;
+    } finally {
+      bulkhead.release();
+    }
+  }
+
+  /**
+   * Send the request asynchronously, without blocking the calling thread while the oidc provider
+   * responds
+   *
+   * <p>The asynchronous requests go through their own connection pool, configured as the blocking
+   * one and sharing its SSL context and DNS cache. The response body is buffered in memory.
+   *
+   * @param request the request to send
+   * @return the response, completed exceptionally if the request failed, or with an {@link
+   *     AuthenticationException} if the request is rejected by the bulkhead or the circuit breaker
+   */
+  public CompletableFuture<SimpleHttpResponse> executeAsync(SimpleHttpRequest request) {
+    CompletableFuture<SimpleHttpResponse> response = new CompletableFuture<>();
+    try {
+      acquire();
+    } catch (AuthenticationException e) {
+      response.completeExceptionally(e);
+      return response;
+    }
+    requests.increment();
+    try {
+      asyncClient()
+          .execute(
+              request,
+              new FutureCallback<SimpleHttpResponse>() {
+                @Override
+                public void completed(SimpleHttpResponse result) {
+                  bulkhead.release();
+                  if (result.getCode() != HttpStatus.SC_OK) {
+                    failures.increment();
+                  }
+                  onResponse(result.getCode());
+                  response.complete(result);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                  bulkhead.release();
+                  failures.increment();
+                  circuitBreaker.onFailure();
+                  response.completeExceptionally(e);
+                }
+
+                @Override
+                public void cancelled() {
+                  bulkhead.release();
+                  failures.increment();
+                  circuitBreaker.onFailure();
+                  response.cancel(false);
+                }
+              });
+    } catch (RuntimeException e) {
+      bulkhead.release();
+      failures.increment();
+      circuitBreaker.onFailure();
+      response.completeExceptionally(e);
+    }
+    return response;
+  }
+
+  /** The maximum time a caller waits for a request: the connect and the response timeouts */
+  public long maxRequestMillis() {
+    return SECONDS.toMillis(connectTimeoutSeconds + responseTimeoutSeconds);
+  }
+
+  /** The pool statistics: leased, available and pending connections */
+  public PoolStats poolStats() {
+    return connectionManager.getTotalStats();
+  }
+
+  /** The number of requests sent to the oidc provider */
+  public long requestCount() {
+    return requests.sum();
+  }
+
+  /** The number of requests failed with an I/O error or an unexpected response */
+  public long failureCount() {
+    return failures.sum();
+  }
+
+  /** Take a bulkhead slot, then check the circuit breaker so that a rejected probe cannot leak */
+  private void acquire() throws AuthenticationException {
+    if (!bulkhead.tryAcquire()) {
+      throw new AuthenticationException(
+          HttpStatus.SC_SERVICE_UNAVAILABLE,
+          "Too many concurrent requests to the oidc provider, please retry later");
+    }
+    if (!circuitBreaker.tryAcquire()) {
+      bulkhead.release();
+      throw new AuthenticationException(
+          HttpStatus.SC_SERVICE_UNAVAILABLE,
+          "The oidc provider is unavailable after repeated failures, please retry later");
+    }
+  }
+
+  /** The client errors are answered by the oidc provider, only the server errors are failures */
+  private void onResponse(int status) {
+    if (status >= HttpStatus.SC_SERVER_ERROR) {
+      circuitBreaker.onFailure();
+    } else {
+      circuitBreaker.onSuccess();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    httpClient.close(CloseMode.GRACEFUL);
+    if (asyncClient != null) {
+      asyncClient.close(CloseMode.GRACEFUL);
+    }
+  }
+
+  private synchronized CloseableHttpAsyncClient asyncClient() {
+    if (asyncClient == null) {
+      asyncClient =
+          HttpAsyncClients.custom()
+              .setConnectionManager(
+                  PoolingAsyncClientConnectionManagerBuilder.create()
+                      .setMaxConnTotal(maxConnections)
+                      .setMaxConnPerRoute(maxConnections)
+                      .setDefaultConnectionConfig(connectionConfig)
+                      .setTlsStrategy(
+                          ClientTlsStrategyBuilder.create().setSslContext(sslContext).build())
+                      .setDnsResolver(dnsResolver)
+                      .build())
+              .setDefaultRequestConfig(requestConfig)
+              .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+              .setIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(2).build())
+              .evictExpiredConnections()
+              .evictIdleConnections(TimeValue.ofSeconds(IDLE_CONNECTION_EVICTION_SECONDS))
+              .disableCookieManagement()
+              .disableAutomaticRetries()
+              .build();
+      asyncClient.start();
+    }
+    return asyncClient;
+  }
+
+  /** Cache the resolved addresses, the JVM DNS cache may be disabled by some security setups */
+  private static final class CachingDnsResolver implements DnsResolver {
+    private final Cache<String, InetAddress[]> addresses;
+
+    private CachingDnsResolver(long ttlSeconds) {
+      this.addresses =
+          CacheBuilder.newBuilder().expireAfterWrite(ttlSeconds, SECONDS).maximumSize(64).build();
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+      try {
+        return addresses.get(host, () -> SystemDefaultDnsResolver.INSTANCE.resolve(host)).clone();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UnknownHostException) {
+          throw (UnknownHostException) e.getCause();
+        }
+        throw new UnknownHostException(host + ": " + e.getCause().getMessage());
+      }
+    }
+
+    @Override
+    public String resolveCanonicalHostname(String host) throws UnknownHostException {
+      return SystemDefaultDnsResolver.INSTANCE.resolveCanonicalHostname(host);
+    }
+  }
+}
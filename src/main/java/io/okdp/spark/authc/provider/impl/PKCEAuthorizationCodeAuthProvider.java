@@ -19,17 +19,15 @@ package io.okdp.spark.authc.provider.impl;
 import static io.okdp.spark.authc.utils.PreconditionsUtils.checkNotNull;
 import static io.okdp.spark.authc.utils.PreconditionsUtils.checkState;
 import static java.lang.String.format;
-import static org.apache.hc.core5.util.Timeout.ofSeconds;
 
 import io.okdp.spark.authc.config.Constants;
 import io.okdp.spark.authc.config.HttpSecurityConfig;
 import io.okdp.spark.authc.exception.AuthenticationException;
-import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.model.AuthState;
 import io.okdp.spark.authc.provider.AuthProvider;
 import io.okdp.spark.authc.utils.HttpAuthenticationUtils;
-import io.okdp.spark.authc.utils.JsonUtils;
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -41,7 +39,7 @@ import lombok.NonNull;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.fluent.Form;
-import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.NameValuePair;
 
 /**
  * The Confidential/Public Client Oauth2/oidc Authorization Code grant provider with PKCE support
@@ -94,7 +92,7 @@ public class PKCEAuthorizationCodeAuthProvider extends AbstractAuthorizationCode
   }
 
   @Override
-  public AccessToken requestAccessToken(
+  protected List<NameValuePair> accessTokenForm(
       ServletRequest servletRequest, ServletResponse servletResponse)
       throws AuthenticationException {
     String code = checkNotNull(servletRequest.getParameter("code"), "code");
@@ -134,23 +132,16 @@ public class PKCEAuthorizationCodeAuthProvider extends AbstractAuthorizationCode
             .map(clientSecret -> form.add("client_secret", clientSecret))
             .orElse(form);
 
-    Request request =
-        Request.post(httpSecurityConfig.oidcConfig().wellKnownConfiguration().tokenEndpoint())
-            .addHeader("cache-control", "no-cache")
-            .addHeader("content-type", "application/x-www-form-urlencoded")
-            .bodyForm(newform.build())
-            .responseTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS))
-            .connectTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS));
-
     // Remove the auth state cookie
     Cookie cookie = httpSecurityConfig.sessionStore().save((AuthState) null);
     ((HttpServletResponse) servletResponse).addCookie(cookie);
 
-    return JsonUtils.loadJsonFromString(doExecute(request), AccessToken.class);
+    return newform.build();
   }
 
   @Override
-  public AccessToken refreshToken(String refreshToken) throws AuthenticationException {
+  protected List<NameValuePair> refreshTokenForm(String refreshToken)
+      throws AuthenticationException {
     checkNotNull(refreshToken, "refresh_token");
     Form form =
         Form.form()
@@ -163,14 +154,6 @@ public class PKCEAuthorizationCodeAuthProvider extends AbstractAuthorizationCode
             .map(clientSecret -> form.add("client_secret", clientSecret))
             .orElse(form);
 
-    Request request =
-        Request.post(httpSecurityConfig.oidcConfig().wellKnownConfiguration().tokenEndpoint())
-            .addHeader("cache-control", "no-cache")
-            .addHeader("content-type", "application/x-www-form-urlencoded")
-            .bodyForm(newform.build())
-            .responseTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS))
-            .connectTimeout(ofSeconds(OIDC_REQUEST_TIMEOUT_SECONDS));
-
-    return JsonUtils.loadJsonFromString(doExecute(request), AccessToken.class);
+    return newform.build();
   }
 }
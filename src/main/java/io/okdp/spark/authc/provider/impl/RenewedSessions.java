@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.provider.impl.SessionRenewer.RenewedSession;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.servlet.http.Cookie;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The renewed sessions, handed to the requests still holding the replaced session
+ *
+ * <p>The concurrent requests of a page holding the same expired session share a single renewed
+ * session: the first one saves it, the other ones reuse it and write the same cookies.
+ *
+ * <p>The server side {@link SessionStore}s renew the session in place, so that the requests still
+ * holding the session read the renewed one. If the renewed session was saved under a new value
+ * instead (Ex.: cookie session store), it is handed to the next requests still sent with the
+ * replaced session, until the browser stores the new cookies, as long as the renewed token is
+ * valid: the renewed session is released as soon as its token expires. The replaced session is
+ * then only removed after a grace period, so that the in-flight requests still holding it are not
+ * sent back to the oidc provider. The replaced sessions are never removed on a cache eviction.
+ */
+@Slf4j
+public class RenewedSessions implements AutoCloseable {
+
+  private static final long REMOVAL_GRACE_SECONDS = 60;
+  private static final long MAX_RENEWED_SESSIONS = 10_000;
+
+  private final SessionStore sessionStore;
+  private final Cache<String, RenewedSession> renewals;
+  private final Cache<String, RenewedSession> renewedSessions;
+  private final ScheduledExecutorService scheduler;
+
+  private RenewedSessions(@NonNull SessionStore sessionStore, long retentionSeconds) {
+    this.sessionStore = sessionStore;
+    this.renewals =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_RENEWED_SESSIONS)
+            .expireAfterWrite(REMOVAL_GRACE_SECONDS, SECONDS)
+            .build();
+    this.renewedSessions =
+        CacheBuilder.newBuilder()
+            .maximumSize(MAX_RENEWED_SESSIONS)
+            .expireAfterWrite(Math.max(REMOVAL_GRACE_SECONDS, retentionSeconds), SECONDS)
+            .build();
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("okdp-renewed-sessions-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  /**
+   * Create the renewed sessions
+   *
+   * @param sessionStore the session store saving the renewed sessions
+   * @param retentionSeconds the maximum time a renewed session is handed to the requests still
+   *     holding the replaced session, usually the session cookie max age. The renewed session is
+   *     released earlier if its token expires before
+   */
+  public static RenewedSessions of(SessionStore sessionStore, long retentionSeconds) {
+    return new RenewedSessions(sessionStore, retentionSeconds);
+  }
+
+  /**
+   * The session renewed in place of the provided session
+   *
+   * @param sessionValue the value of the session cookie sent by the browser
+   * @return the renewed session, or null if the session was not renewed or if the renewed session
+   *     has also expired
+   */
+  public RenewedSession renewed(String sessionValue) {
+    RenewedSession renewed = renewedSessions.getIfPresent(sessionValue);
+    return renewed == null || renewed.persistedToken().isExpired() ? null : renewed;
+  }
+
+  /**
+   * Save the renewed session in place of the provided session, or reuse the session already
+   * renewed by a concurrent request holding the same session
+   *
+   * @param sessionValue the value of the session cookie sent by the browser
+   * @param replacedToken the access token being replaced
+   * @param renewedToken the renewed access token
+   * @return the renewed session, along with the cookies holding it
+   */
+  public RenewedSession renew(
+      String sessionValue, PersistedToken replacedToken, PersistedToken renewedToken) {
+    // A session renewed in place keeps its value, the renewals are told apart by the replaced token
+    String renewal = sessionValue + "@" + replacedToken.expiresAt().getTime();
+    try {
+      return renewals.get(renewal, () -> save(sessionValue, renewedToken));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /** The number of renewed sessions handed to the requests still holding the replaced session */
+  public long size() {
+    return renewedSessions.size();
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  private RenewedSession save(String sessionValue, PersistedToken renewedToken) {
+    List<Cookie> cookies = sessionStore.renew(sessionValue, renewedToken);
+    RenewedSession renewed = new RenewedSession(renewedToken, cookies);
+    if (!sessionValue.equals(cookies.get(0).getValue())) {
+      long validityMillis = renewedToken.expiresAt().getTime() - System.currentTimeMillis();
+      try {
+        // The renewed session can no more be handed out once its token has expired
+        if (validityMillis > 0) {
+          renewedSessions.put(sessionValue, renewed);
+          scheduler.schedule(
+              () -> renewedSessions.asMap().remove(sessionValue, renewed),
+              validityMillis,
+              MILLISECONDS);
+        }
+        // Release the replaced session from the server side session stores once the in-flight
+        // requests still holding it are served
+        scheduler.schedule(() -> sessionStore.remove(sessionValue), REMOVAL_GRACE_SECONDS, SECONDS);
+      } catch (RejectedExecutionException e) {
+        log.debug("The renewed sessions are closed, the replaced session expires on its own");
+      }
+    }
+    return renewed;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.okdp.spark.authc.exception.AuthenticationException;
+import io.okdp.spark.authc.model.AccessToken;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.AuthProvider;
+import io.okdp.spark.authc.provider.SessionStore;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import javax.servlet.http.Cookie;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Renew the user sessions in the background, so that the requests do not wait for the oidc
+ * provider token endpoint for a routine renewal
+ *
+ * <p>A session is renewed in the background once its access token is within the refresh-ahead
+ * window before its expiration, or once it has expired for less than the stale grace period, in
+ * which case the expired session keeps being served until the renewal completes. The server side
+ * {@link SessionStore}s renew the session in place, under the same session id. The renewed session
+ * is also handed by the {@link RenewedSessions} to the next requests still holding the previous
+ * session, as long as the renewed token is valid, which write its cookies on their response.
+ *
+ * <p>A failed renewal is retried on a later request after a short delay. The expired sessions
+ * falling out of the grace period are renewed on the request thread as before.
+ */
+@Slf4j
+public class SessionRenewer implements AutoCloseable {
+
+  private static final long RENEWAL_RETRY_DELAY_SECONDS = 10;
+
+  private final AuthProvider authProvider;
+  private final RenewedSessions renewedSessions;
+  private final long refreshAheadMillis;
+  private final long staleGraceMillis;
+  private final ThreadPoolExecutor executor;
+  private final Cache<String, Boolean> attempts;
+
+  private SessionRenewer(
+      @NonNull AuthProvider authProvider,
+      @NonNull RenewedSessions renewedSessions,
+      long refreshAheadSeconds,
+      long staleGraceSeconds) {
+    this.authProvider = authProvider;
+    this.renewedSessions = renewedSessions;
+    this.refreshAheadMillis = SECONDS.toMillis(Math.max(0, refreshAheadSeconds));
+    this.staleGraceMillis = SECONDS.toMillis(Math.max(0, staleGraceSeconds));
+    this.executor =
+        new ThreadPoolExecutor(
+            2,
+            2,
+            60,
+            SECONDS,
+            new ArrayBlockingQueue<>(1024),
+            new ThreadFactoryBuilder()
+                .setNameFormat("okdp-session-renewer-%d")
+                .setDaemon(true)
+                .build());
+    executor.allowCoreThreadTimeOut(true);
+    this.attempts =
+        CacheBuilder.newBuilder().expireAfterWrite(RENEWAL_RETRY_DELAY_SECONDS, SECONDS).build();
+  }
+
+  /**
+   * Create a background session renewer
+   *
+   * @param authProvider the auth provider renewing the access tokens
+   * @param renewedSessions the renewed sessions saving the renewed sessions and handing them out
+   * @param refreshAheadSeconds the time before the access token expiration when the session is
+   *     renewed in the background, 0 to disable
+   * @param staleGraceSeconds the time an expired session keeps being served while it is renewed in
+   *     the background, 0 to disable
+   * @return the session renewer, or null if both the refresh-ahead and the stale grace are disabled
+   */
+  public static SessionRenewer of(
+      AuthProvider authProvider,
+      RenewedSessions renewedSessions,
+      long refreshAheadSeconds,
+      long staleGraceSeconds) {
+    if (refreshAheadSeconds <= 0 && staleGraceSeconds <= 0) {
+      return null;
+    }
+    log.info(
+        "Initializing the background session renewal (refresh-ahead (seconds): {}, stale grace"
+            + " (seconds): {}) ...",
+        refreshAheadSeconds,
+        staleGraceSeconds);
+    return new SessionRenewer(
+        authProvider, renewedSessions, refreshAheadSeconds, staleGraceSeconds);
+  }
+
+  /**
+   * Renew the session in the background if its access token expires within the refresh-ahead
+   * window
+   *
+   * @param sessionValue the value of the session cookie sent by the browser
+   * @param persistedToken the not yet expired session
+   */
+  public void renewAhead(String sessionValue, PersistedToken persistedToken) {
+    if (refreshAheadMillis > 0
+        && persistedToken.hasRefreshToken()
+        && persistedToken.expiresAt().getTime() - System.currentTimeMillis()
+            <= refreshAheadMillis) {
+      renew(sessionValue, persistedToken);
+    }
+  }
+
+  /**
+   * Renew the expired session in the background if it expired within the stale grace period
+   *
+   * @param sessionValue the value of the session cookie sent by the browser
+   * @param persistedToken the expired session
+   * @return true if the expired session can still be served, false if it should be renewed on the
+   *     request thread
+   */
+  public boolean renewStale(String sessionValue, PersistedToken persistedToken) {
+    if (staleGraceMillis > 0
+        && persistedToken.hasRefreshToken()
+        && System.currentTimeMillis() - persistedToken.expiresAt().getTime() < staleGraceMillis) {
+      renew(sessionValue, persistedToken);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void renew(String sessionValue, PersistedToken persistedToken) {
+    // At most one renewal per session at a time, a failed renewal is retried after a delay
+    if (attempts.asMap().putIfAbsent(sessionValue, Boolean.TRUE) != null) {
+      return;
+    }
+    try {
+      executor.execute(() -> doRenew(sessionValue, persistedToken));
+    } catch (RejectedExecutionException e) {
+      log.warn(
+          "Unable to renew the user {} session in the background, too many pending renewals",
+          persistedToken.userInfo().email());
+    }
+  }
+
+  private void doRenew(String sessionValue, PersistedToken persistedToken) {
+    try {
+      AccessToken accessToken = authProvider.refreshToken(persistedToken.refreshToken());
+      PersistedToken renewedToken = authProvider.httpSecurityConfig().toPersistedToken(accessToken);
+      renewedSessions.renew(sessionValue, persistedToken, renewedToken);
+      log.info(
+          "The user {} session was renewed in the background", persistedToken.userInfo().email());
+    } catch (AuthenticationException e) {
+      log.warn(
+          "Unable to renew the user {} session in the background, cause: {}",
+          persistedToken.userInfo().email(),
+          e.getMessage());
+    }
+  }
+
+  /** A session renewed in the background, along with the cookies holding it */
+  @RequiredArgsConstructor
+  @Getter
+  @Accessors(fluent = true)
+  public static class RenewedSession {
+    private final PersistedToken persistedToken;
+    private final List<Cookie> cookies;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSAlgorithm.Family;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.DefaultJOSEObjectTypeVerifier;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.okdp.spark.authc.config.HttpSecurityConfig;
+import io.okdp.spark.authc.jwt.CachingJWSKeySelector;
+import io.okdp.spark.authc.jwt.CachingJWSVerifierFactory;
+import io.okdp.spark.authc.jwt.VerifiedJwtCache;
+import io.okdp.spark.authc.model.AccessToken;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.AuthProvider;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.provider.impl.store.CookieSessionStore;
+import io.okdp.spark.authc.utils.JsonUtils;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Run the authentication hot path on synthetic data before the first user request, so that the
+ * JCE providers, the Jackson serializers, the Nimbus classes and the skip rules are loaded and the
+ * JIT compiles these paths before the real traffic arrives
+ *
+ * <p>Each iteration verifies a JWT signed with a locally generated key, converts its claims into a
+ * session, saves then reads the session with a {@link CookieSessionStore} configured like the
+ * filter one and matches the skip rules. The synthetic sessions are never saved to the persistent
+ * or shared session stores. A failed warmup is logged and does not fail the filter initialization.
+ */
+@Slf4j
+public class StartupWarmup {
+
+  private static final String WARMUP_ISSUER = "https://okdp-auth-filter.warmup";
+  private static final String ACCESS_TOKEN_JSON =
+      "{\"access_token\":\"warmup\",\"refresh_token\":\"warmup\",\"token_type\":\"Bearer\","
+          + "\"scope\":\"openid\",\"expires_in\":300}";
+  private static final List<String> WARMUP_PATHS =
+      Arrays.asList("/jobs/", "/static/webui.css", "/api/v1/applications", "/proxy/app/jobs/");
+
+  private final AuthProvider authProvider;
+  private final SessionStore sessionStore;
+  private final VerifiedJwtCache verifiedJwtCache;
+  private final JWSAlgorithm jwsAlgorithm;
+  private final int iterations;
+
+  private StartupWarmup(
+      AuthProvider authProvider,
+      SessionStore sessionStore,
+      VerifiedJwtCache verifiedJwtCache,
+      JWSAlgorithm jwsAlgorithm,
+      int iterations) {
+    this.authProvider = authProvider;
+    this.sessionStore = sessionStore;
+    this.verifiedJwtCache = verifiedJwtCache;
+    this.jwsAlgorithm = jwsAlgorithm;
+    this.iterations = iterations;
+  }
+
+  /**
+   * Create a startup warmup
+   *
+   * @param authProvider the configured auth provider
+   * @param sessionStore the session store the synthetic sessions are saved to and read from,
+   *     usually the {@link CookieSessionStore} wrapped by the configured session store
+   * @param verifiedJwtCache the cache of the verified JWT, only its keys are computed
+   * @param jwsAlgorithms the expected JWT signing algorithms, the first RSA or EC one is warmed up
+   * @param iterations the number of synthetic round trips, 0 to disable
+   * @return the startup warmup, or null if disabled
+   */
+  public static StartupWarmup of(
+      @NonNull AuthProvider authProvider,
+      @NonNull SessionStore sessionStore,
+      @NonNull VerifiedJwtCache verifiedJwtCache,
+      @NonNull Set<JWSAlgorithm> jwsAlgorithms,
+      int iterations) {
+    if (iterations <= 0) {
+      return null;
+    }
+    JWSAlgorithm jwsAlgorithm =
+        jwsAlgorithms.stream()
+            .filter(alg -> Family.RSA.contains(alg) || Family.EC.contains(alg))
+            .findFirst()
+            .orElse(JWSAlgorithm.RS256);
+    return new StartupWarmup(
+        authProvider, sessionStore, verifiedJwtCache, jwsAlgorithm, iterations);
+  }
+
+  /** Run the warmup and log its duration */
+  public void run() {
+    long start = System.nanoTime();
+    try {
+      DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+      String jwt = signedJwt(jwtProcessor);
+      HttpSecurityConfig httpSecurityConfig = authProvider.httpSecurityConfig();
+      for (int i = 0; i < iterations; i++) {
+        verifiedJwtCache.key(jwt);
+        JWTClaimsSet claimsSet = jwtProcessor.process(jwt, null);
+        PersistedToken persistedToken =
+            httpSecurityConfig.toPersistedToken(claimsSet).refreshToken("warmup");
+        JsonUtils.loadJsonFromString(ACCESS_TOKEN_JSON, AccessToken.class);
+        String sessionValue = sessionValue(sessionStore.save(persistedToken));
+        sessionStore.readToken(sessionValue);
+        for (String path : WARMUP_PATHS) {
+          httpSecurityConfig.skipRequestMatcher().matches("GET", path);
+        }
+      }
+      log.info(
+          "Warmed up the authentication in {} ms ({} iterations, {})",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          iterations,
+          jwsAlgorithm);
+    } catch (JOSEException | BadJOSEException | ParseException | RuntimeException e) {
+      log.warn(
+          "Unable to warm up the authentication after {} ms, cause: {}",
+          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+          e.getMessage());
+    }
+  }
+
+  /** Sign a JWT with a local key, and configure the processor to verify it like the filter */
+  private String signedJwt(DefaultJWTProcessor<SecurityContext> jwtProcessor)
+      throws JOSEException {
+    JWK jwk;
+    JWSSigner signer;
+    if (Family.EC.contains(jwsAlgorithm)) {
+      jwk = new ECKeyGenerator(Curve.forJWSAlgorithm(jwsAlgorithm).iterator().next()).generate();
+      signer = new ECDSASigner(jwk.toECKey());
+    } else {
+      jwk = new RSAKeyGenerator(2048).generate();
+      signer = new RSASSASigner(jwk.toRSAKey());
+    }
+    SignedJWT signedJWT =
+        new SignedJWT(
+            new JWSHeader.Builder(jwsAlgorithm).type(JOSEObjectType.JWT).build(),
+            new JWTClaimsSet.Builder()
+                .subject("warmup")
+                .issuer(WARMUP_ISSUER)
+                .claim("email", "warmup@okdp.local")
+                .claim("groups", Collections.singletonList("warmup"))
+                .issueTime(new Date())
+                .expirationTime(new Date(System.currentTimeMillis() + HOURS.toMillis(1)))
+                .build());
+    signedJWT.sign(signer);
+    jwtProcessor.setJWSTypeVerifier(
+        new DefaultJOSEObjectTypeVerifier<>(
+            new JOSEObjectType("jwt"), new JOSEObjectType("at+jwt"), null));
+    jwtProcessor.setJWSKeySelector(
+        new CachingJWSKeySelector<>(
+            Collections.singleton(jwsAlgorithm),
+            new ImmutableJWKSet<>(new JWKSet(jwk.toPublicJWK()))));
+    jwtProcessor.setJWSVerifierFactory(new CachingJWSVerifierFactory());
+    return signedJWT.serialize();
+  }
+
+  /** The value of the session cookie as sent back by the browser, joining the chunks if any */
+  private static String sessionValue(List<Cookie> cookies) {
+    if (cookies.size() == 1) {
+      return cookies.get(0).getValue();
+    }
+    StringBuilder value = new StringBuilder();
+    for (Cookie chunk : cookies.subList(1, cookies.size())) {
+      value.append(chunk.getValue());
+    }
+    return value.toString();
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl.store;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.okdp.spark.authc.model.AuthState;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.SessionStore;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded in-memory cache of the already decoded sessions in front of a {@link SessionStore}
+ *
+ * <p>The browser sends the same session value on every request, so the decode pipeline of the
+ * underlying store (decrypt, decompress, parse) only runs on the first request. The entries are
+ * keyed by the session value, evicted in LRU order once the maximum size is reached, and expire
+ * after the configured TTL or at the token's expiresAt, whichever comes first.
+ *
+ * <p>The cached {@link PersistedToken} instances are shared between requests and must be treated
+ * as read-only.
+ *
+ * @see SessionStore
+ */
+@Slf4j
+public class CachingSessionStore implements SessionStore {
+
+  private final SessionStore sessionStore;
+  private final Cache<String, PersistedToken> tokens;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  private CachingSessionStore(
+      @NonNull SessionStore sessionStore, long maximumSize, long ttlSeconds) {
+    this.sessionStore = sessionStore;
+    this.tokens =
+        CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttlSeconds, SECONDS)
+            .build();
+  }
+
+  /**
+   * Put a decoded session cache in front of the provided {@link SessionStore}
+   *
+   * @param sessionStore the underlying session store
+   * @param maximumSize the maximum number of cached sessions, the cache is disabled if <= 0
+   * @param ttlSeconds the maximum time a decoded session is kept in the cache
+   * @return the caching {@link SessionStore}, or the provided one if the cache is disabled
+   */
+  public static SessionStore of(SessionStore sessionStore, long maximumSize, long ttlSeconds) {
+    if (maximumSize <= 0 || ttlSeconds <= 0) {
+      return sessionStore;
+    }
+    log.info(
+        "Initializing the decoded session cache (max-size: {}, ttl (seconds): {}) ...",
+        maximumSize,
+        ttlSeconds);
+    return new CachingSessionStore(sessionStore, maximumSize, ttlSeconds);
+  }
+
+  @Override
+  public <T> T save(PersistedToken persistedToken) {
+    return sessionStore.save(persistedToken);
+  }
+
+  @Override
+  public <T> T renew(String value, PersistedToken persistedToken) {
+    tokens.invalidate(value);
+    T renewed = sessionStore.renew(value, persistedToken);
+    // The server side stores renew the session in place: drop the previous token a concurrent
+    // read may have cached again while the renewal was in progress
+    tokens.invalidate(value);
+    return renewed;
+  }
+
+  @Override
+  public <T> T save(AuthState authState) {
+    return sessionStore.save(authState);
+  }
+
+  /**
+   * Return the decoded session from the cache, or decode and cache it on a miss
+   *
+   * @param value the session value saved by the underlying SessionStore
+   * @return {@link PersistedToken} containing the access token
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public PersistedToken readToken(String value) {
+    PersistedToken cached = tokens.getIfPresent(value);
+    if (cached != null && !cached.isExpired()) {
+      hits.increment();
+      return cached;
+    }
+    misses.increment();
+    PersistedToken persistedToken = sessionStore.readToken(value);
+    // The expired tokens go through the refresh flow and are replaced by a new session value
+    if (persistedToken == null || persistedToken.isExpired()) {
+      tokens.invalidate(value);
+    } else {
+      tokens.put(value, persistedToken);
+    }
+    return persistedToken;
+  }
+
+  @Override
+  public <T> T readPKCEState(String value) {
+    return sessionStore.readPKCEState(value);
+  }
+
+  @Override
+  public void remove(String value) {
+    tokens.invalidate(value);
+    sessionStore.remove(value);
+  }
+
+  @Override
+  public void close() {
+    tokens.invalidateAll();
+    sessionStore.close();
+  }
+
+  /** The number of requests served from the cache */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /** The number of requests that went through the underlying session store */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /** The approximate number of cached sessions */
+  public long size() {
+    return tokens.size();
+  }
+}
@@ -16,19 +16,34 @@
 
 package io.okdp.spark.authc.provider.impl.store;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.okdp.spark.authc.config.Constants.AUTH_COOKIE_CHUNKS_PREFIX;
+import static io.okdp.spark.authc.config.Constants.AUTH_COOKIE_CHUNK_SIZE;
+import static io.okdp.spark.authc.config.Constants.AUTH_COOKIE_DEFAULT_MAX_CHUNKS;
+import static io.okdp.spark.authc.config.Constants.AUTH_COOKIE_MAX_CHUNKS;
 import static io.okdp.spark.authc.config.Constants.AUTH_STATE_COOKE_NAME;
-import static io.okdp.spark.authc.utils.CompressionUtils.compressToString;
-import static io.okdp.spark.authc.utils.EncryptionUtils.encryptToString;
+import static io.okdp.spark.authc.config.Constants.BASE64URL_DECODER;
+import static io.okdp.spark.authc.config.Constants.BASE64URL_ENCODER;
+import static io.okdp.spark.authc.utils.HttpAuthenticationUtils.cookieChunkName;
 import static java.util.Optional.ofNullable;
 
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import io.okdp.spark.authc.config.Constants;
+import io.okdp.spark.authc.exception.CipherException;
 import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.model.AuthState;
 import io.okdp.spark.authc.model.PersistedToken;
 import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.utils.AesGcmCipher;
+import io.okdp.spark.authc.utils.CompressionCodec;
 import io.okdp.spark.authc.utils.CompressionUtils;
-import io.okdp.spark.authc.utils.EncryptionUtils;
 import io.okdp.spark.authc.utils.JsonUtils;
+import io.okdp.spark.authc.utils.ReusableByteArrayOutputStream;
+import io.okdp.spark.authc.utils.TokenFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import javax.servlet.http.Cookie;
 import lombok.NonNull;
@@ -41,27 +56,107 @@ import lombok.extern.slf4j.Slf4j;
  * @see SessionStore
  */
 @Slf4j
-@RequiredArgsConstructor(staticName = "of")
 public class CookieSessionStore implements SessionStore {
 
-  @NonNull private String cookieName;
-  @NonNull private String cookieDomain;
-  @NonNull private Boolean isSecure;
-  @NonNull private String encryptionKey;
-  @NonNull private Integer cookieMaxAgeSeconds;
-  @NonNull Boolean ignoreRefreshToken;
+  /**
+   * The prefix of the cookie values saved by the binary pipeline, which never appears in the legacy
+   * base64 values
+   */
+  private static final String BINARY_FORMAT_PREFIX = "2.";
+
+  private static final ThreadLocal<ReusableByteArrayOutputStream> SERIALIZATION_BUFFERS =
+      ReusableByteArrayOutputStream.threadLocal(1024);
+  private static final ThreadLocal<ReusableByteArrayOutputStream> BINARY_BUFFERS =
+      ReusableByteArrayOutputStream.threadLocal(1024);
+
+  private final String cookieName;
+  private final String cookieDomain;
+  private final Boolean isSecure;
+  private final Integer cookieMaxAgeSeconds;
+  private final Boolean ignoreRefreshToken;
+  // Built once from the encryption key and shared by all the requests
+  private final AesGcmCipher cipher;
+  private CompressionCodec compressionCodec = CompressionCodec.DEFLATE;
+  private TokenFormat tokenFormat = TokenFormat.JSON;
+  private int maxChunks = AUTH_COOKIE_DEFAULT_MAX_CHUNKS;
+
+  private CookieSessionStore(
+      @NonNull String cookieName,
+      @NonNull String cookieDomain,
+      @NonNull Boolean isSecure,
+      @NonNull String encryptionKey,
+      @NonNull Integer cookieMaxAgeSeconds,
+      @NonNull Boolean ignoreRefreshToken) {
+    this.cookieName = cookieName;
+    this.cookieDomain = cookieDomain;
+    this.isSecure = isSecure;
+    this.cookieMaxAgeSeconds = cookieMaxAgeSeconds;
+    this.ignoreRefreshToken = ignoreRefreshToken;
+    this.cipher = AesGcmCipher.of(encryptionKey);
+  }
+
+  public static CookieSessionStore of(
+      String cookieName,
+      String cookieDomain,
+      Boolean isSecure,
+      String encryptionKey,
+      Integer cookieMaxAgeSeconds,
+      Boolean ignoreRefreshToken) {
+    return new CookieSessionStore(
+        cookieName, cookieDomain, isSecure, encryptionKey, cookieMaxAgeSeconds, ignoreRefreshToken);
+  }
+
+  /**
+   * The codec used to compress the access token, the cookies compressed with the other codecs are
+   * still readable
+   *
+   * @param compressionCodec the cookie payload compression codec, default to {@link
+   *     CompressionCodec#DEFLATE}
+   */
+  public CookieSessionStore compressionCodec(@NonNull CompressionCodec compressionCodec) {
+    this.compressionCodec = compressionCodec;
+    return this;
+  }
+
+  /**
+   * The format used to serialize the access token, the cookies serialized with the other formats
+   * are still readable
+   *
+   * @param tokenFormat the access token serialization format, default to {@link TokenFormat#JSON}
+   */
+  public CookieSessionStore tokenFormat(@NonNull TokenFormat tokenFormat) {
+    this.tokenFormat = tokenFormat;
+    return this;
+  }
+
+  /**
+   * The maximum number of cookies a session cookie larger than the browser limit can be split into
+   *
+   * @param maxChunks the maximum number of chunks, default to {@link
+   *     Constants#AUTH_COOKIE_DEFAULT_MAX_CHUNKS}
+   */
+  public CookieSessionStore maxChunks(int maxChunks) {
+    checkArgument(maxChunks >= 1, "The maximum number of cookie chunks must be >= 1");
+    this.maxChunks = maxChunks;
+    return this;
+  }
 
   /**
    * Compress, encrypt and save the access token in a {@link Cookie}
    *
    * <p>If the provided {@link AccessToken} is null, save an empty value in a cookie.
    *
+   * <p>If the value exceeds the cookie size limit, it is split across numbered cookies
+   * (cookieName_0..cookieName_N-1) and the main cookie holds the number of chunks. If it exceeds
+   * the maximum number of chunks, the refresh token is dropped and, as a last resort, the session
+   * is not saved.
+   *
    * @param persistedToken the persisted access token response from the oidc provider
-   * @return {@link Cookie} containing the compressed and encrypted access token
+   * @return the main {@link Cookie} followed by its chunks, if any
    */
   @Override
   @SuppressWarnings("unchecked")
-  public Cookie save(PersistedToken persistedToken) {
+  public List<Cookie> save(PersistedToken persistedToken) {
     // Reduce the token size by saving the token payload part only (user info)
     // Compress the access token to overcome 4KB cookie limit (depends on the OIDC providers and
     // their config)
@@ -69,17 +164,78 @@ public class CookieSessionStore implements SessionStore {
     String cookieValue =
         ofNullable(persistedToken)
             .map(token -> token.ignoreRefreshToken(ignoreRefreshToken))
-            .map(token -> persistedToken.toJson())
-            .map(tokenAsJson -> encryptToString(compressToString(tokenAsJson), encryptionKey))
+            .map(this::encode)
             .orElse("");
 
+    if (chunkCount(cookieValue) > maxChunks && persistedToken.hasRefreshToken()) {
+      log.warn(
+          "The session cookie of the user {} ({} bytes) exceeds the limit of {} cookies of {}"
+              + " bytes, saving it without the refresh token, the user will re-authenticate once"
+              + " the access token expires",
+          persistedToken.id(),
+          cookieValue.length(),
+          maxChunks,
+          AUTH_COOKIE_CHUNK_SIZE);
+      cookieValue = encode(persistedToken.ignoreRefreshToken(true));
+    }
+    if (chunkCount(cookieValue) > maxChunks) {
+      log.error(
+          "The session cookie of the user {} ({} bytes) exceeds the limit of {} cookies of {}"
+              + " bytes, the session is not saved! Reduce the user's groups/roles claims or"
+              + " increase the '{}' parameter",
+          persistedToken.id(),
+          cookieValue.length(),
+          maxChunks,
+          AUTH_COOKIE_CHUNK_SIZE,
+          AUTH_COOKIE_MAX_CHUNKS);
+      cookieValue = "";
+    }
+
+    if (cookieValue.length() <= AUTH_COOKIE_CHUNK_SIZE) {
+      return Collections.singletonList(newSessionCookie(cookieValue));
+    }
+    List<String> chunks = Splitter.fixedLength(AUTH_COOKIE_CHUNK_SIZE).splitToList(cookieValue);
+    List<Cookie> cookies = new ArrayList<>(chunks.size() + 1);
+    cookies.add(newSessionCookie(AUTH_COOKIE_CHUNKS_PREFIX + chunks.size()));
+    for (int i = 0; i < chunks.size(); i++) {
+      cookies.add(
+          CookieFactory.of(
+                  cookieChunkName(cookieName, i),
+                  chunks.get(i),
+                  cookieDomain,
+                  isSecure,
+                  cookieMaxAgeSeconds)
+              .newCookie());
+    }
+    return cookies;
+  }
+
+  /**
+   * Create the session {@link Cookie} holding the provided value
+   *
+   * @param value the session cookie value, the cookie is expired if the value is empty
+   */
+  public Cookie newSessionCookie(String value) {
     int maxAge =
-        Optional.of(cookieValue)
+        Optional.of(value)
             .filter(v -> !Strings.isNullOrEmpty(v))
             .map(v -> cookieMaxAgeSeconds)
             .orElse(0);
+    return CookieFactory.of(cookieName, value, cookieDomain, isSecure, maxAge).newCookie();
+  }
+
+  /** The cipher engine built from the cookie encryption key */
+  AesGcmCipher cipher() {
+    return cipher;
+  }
+
+  /** The session cookie expiration period in seconds */
+  public int cookieMaxAgeSeconds() {
+    return cookieMaxAgeSeconds;
+  }
 
-    return CookieFactory.of(cookieName, cookieValue, cookieDomain, isSecure, maxAge).newCookie();
+  private static int chunkCount(String cookieValue) {
+    return (cookieValue.length() + AUTH_COOKIE_CHUNK_SIZE - 1) / AUTH_COOKIE_CHUNK_SIZE;
   }
 
   /**
@@ -100,7 +256,7 @@ public class CookieSessionStore implements SessionStore {
     String cookieValue =
         ofNullable(authState)
             .map(state -> authState.toJson())
-            .map(state -> encryptToString(state, encryptionKey))
+            .map(cipher::encryptToString)
             .orElse("");
 
     int maxAge =
@@ -117,15 +273,21 @@ public class CookieSessionStore implements SessionStore {
   /**
    * Un-encrypt, uncompress and load the access token in a {@link PersistedToken}
    *
+   * <p>The cookies saved in the legacy format (json compressed and encoded in base64 before the
+   * encryption) are still readable.
+   *
    * @param value the access token value saved in the {@link Cookie}
    * @return {@link PersistedToken} containing the access token
    */
   @Override
   @SuppressWarnings("unchecked")
   public PersistedToken readToken(String value) {
-    return JsonUtils.loadJsonFromString(
-        CompressionUtils.decompress(EncryptionUtils.decrypt(value, encryptionKey)),
-        PersistedToken.class);
+    if (!value.startsWith(BINARY_FORMAT_PREFIX)) {
+      // Cookies saved before the binary pipeline: base64(encrypt(base64(compress(json))))
+      return JsonUtils.loadJsonFromString(
+          CompressionUtils.decompress(cipher.decrypt(value)), PersistedToken.class);
+    }
+    return decode(value);
   }
 
   /**
@@ -137,8 +299,39 @@ public class CookieSessionStore implements SessionStore {
   @Override
   @SuppressWarnings("unchecked")
   public AuthState readPKCEState(String value) {
-    return JsonUtils.loadJsonFromString(
-        EncryptionUtils.decrypt(value, encryptionKey), AuthState.class);
+    return JsonUtils.loadJsonFromString(cipher.decrypt(value), AuthState.class);
+  }
+
+  /**
+   * Serialize, compress and encrypt the token in a single pass over reusable buffers, then encode
+   * it once in base64url
+   */
+  private String encode(PersistedToken persistedToken) {
+    ReusableByteArrayOutputStream serialized = SERIALIZATION_BUFFERS.get().recycle();
+    tokenFormat.write(persistedToken, serialized);
+    ReusableByteArrayOutputStream compressed = BINARY_BUFFERS.get().recycle();
+    compressionCodec.compress(serialized.buffer(), 0, serialized.size(), compressed);
+    byte[] message = cipher.encrypt(compressed.buffer(), 0, compressed.size());
+    return BINARY_FORMAT_PREFIX + BASE64URL_ENCODER.encodeToString(message);
+  }
+
+  /** Decrypt the token into a reusable buffer and stream its decompressed content to the parser */
+  private PersistedToken decode(String value) {
+    byte[] message;
+    try {
+      message = BASE64URL_DECODER.decode(value.substring(BINARY_FORMAT_PREFIX.length()));
+    } catch (IllegalArgumentException e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+    ReusableByteArrayOutputStream plainText = BINARY_BUFFERS.get().recycle();
+    int length =
+        cipher.decrypt(
+            message,
+            0,
+            message.length,
+            plainText.buffer(AesGcmCipher.plainTextLength(message.length)),
+            0);
+    return TokenFormat.read(CompressionCodec.decompress(plainText.buffer(), 0, length));
   }
 
   @RequiredArgsConstructor(staticName = "of")
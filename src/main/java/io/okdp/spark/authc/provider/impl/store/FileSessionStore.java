@@ -0,0 +1,561 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl.store;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.okdp.spark.authc.config.Constants.AUTH_SESSION_STORE_PATH;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.okdp.spark.authc.exception.CipherException;
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.model.AuthState;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.utils.AesGcmCipher;
+import io.okdp.spark.authc.utils.ReusableByteArrayOutputStream;
+import io.okdp.spark.authc.utils.TokenFormat;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.servlet.http.Cookie;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Server side token storage persisting the sessions in a memory-mapped append-only file, so that
+ * the sessions survive the restarts, the browser only carries a random session id
+ *
+ * <p>Each record is encrypted at rest with the cookie encryption key and prefixed by its length:
+ *
+ * <pre>
+ * length (int) | encrypt(type (byte) | expires at millis (long) | session id | binary token)
+ * </pre>
+ *
+ * <p>The removed sessions are recorded with a tombstone record. The in-memory index of the live
+ * sessions is rebuilt by replaying the file on startup, the replay stops at the first incomplete or
+ * unreadable record (Ex.: crash in the middle of a write).
+ *
+ * <p>The file is forced to the disk in batches by a background thread, so a crash may lose the
+ * sessions saved during the last flush interval. The same thread rewrites the file with the live
+ * records only once the expired and removed records take more than half of it.
+ *
+ * <p>The file is locked for the lifetime of the store, a second store (or process) opening the same
+ * file fails to initialize. The file is remapped each time it grows (doubling its size) or is
+ * compacted, the previous mappings are only released by the garbage collector, so the process
+ * address space may temporarily hold up to twice the maximum file size.
+ *
+ * <p>The short lived PKCE state is still saved in a cookie by the provided {@link
+ * CookieSessionStore}.
+ *
+ * @see SessionStore
+ */
+@Slf4j
+public class FileSessionStore implements SessionStore {
+
+  private static final byte PUT = 1;
+  private static final byte TOMBSTONE = 2;
+  private static final int SESSION_ID_LENGTH = 32;
+  private static final int HEADER_LENGTH = 1 + 8 + SESSION_ID_LENGTH;
+  private static final int INITIAL_FILE_SIZE = 4 * 1024 * 1024;
+  private static final long FLUSH_INTERVAL_MILLIS = 1000;
+  private static final long COMPACTION_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final ThreadLocal<ReusableByteArrayOutputStream> BUFFERS =
+      ReusableByteArrayOutputStream.threadLocal(1024);
+
+  private final CookieSessionStore cookieSessionStore;
+  private final AesGcmCipher cipher;
+  private final Path file;
+  private final int maxFileSize;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final ScheduledExecutorService scheduler;
+  private final FileChannel lockChannel;
+  // Guarded by lock
+  private final Map<String, Record> index = new HashMap<>();
+  private FileChannel channel;
+  private MappedByteBuffer mapped;
+  private int position;
+  private long garbageBytes;
+  private volatile boolean dirty;
+
+  private FileSessionStore(
+      @NonNull CookieSessionStore cookieSessionStore, @NonNull Path file, long maxFileSize)
+      throws IOException {
+    checkArgument(
+        maxFileSize >= INITIAL_FILE_SIZE,
+        "The session store file maximum size must be >= %s",
+        INITIAL_FILE_SIZE);
+    this.cookieSessionStore = cookieSessionStore;
+    this.cipher = cookieSessionStore.cipher();
+    this.file = file;
+    this.maxFileSize = (int) Math.min(Integer.MAX_VALUE, maxFileSize);
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    this.lockChannel = lock(file);
+    try {
+      map(file, Math.max(INITIAL_FILE_SIZE, Files.exists(file) ? Files.size(file) : 0));
+      replay();
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("okdp-session-store-%d")
+                .setDaemon(true)
+                .build());
+    scheduler.scheduleWithFixedDelay(
+        this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(
+        this::compactIfNeeded,
+        COMPACTION_INTERVAL_MILLIS,
+        COMPACTION_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Open (or create) a memory-mapped session store file
+   *
+   * @param cookieSessionStore the cookie store creating the session id cookies, holding the PKCE
+   *     state and the encryption key
+   * @param file the session store file
+   * @param maxFileSize the maximum size of the session store file
+   */
+  public static FileSessionStore of(
+      CookieSessionStore cookieSessionStore, String file, long maxFileSize) {
+    try {
+      FileSessionStore sessionStore =
+          new FileSessionStore(cookieSessionStore, Paths.get(file), maxFileSize);
+      log.info(
+          "Opened the session store file {} (sessions: {}, size: {} bytes, max size: {} bytes)",
+          file,
+          sessionStore.size(),
+          sessionStore.position,
+          maxFileSize);
+      return sessionStore;
+    } catch (IOException e) {
+      throw new OidcClientException(format("Unable to open the session store file %s", file), e);
+    }
+  }
+
+  /**
+   * Append the access token to the session store file under a new random session id
+   *
+   * <p>If the provided {@link PersistedToken} is null, save an empty value in a cookie.
+   *
+   * @param persistedToken the persisted access token response from the oidc provider
+   * @return the {@link Cookie} containing the session id
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Cookie> save(PersistedToken persistedToken) {
+    if (persistedToken == null) {
+      return Collections.singletonList(cookieSessionStore.newSessionCookie(""));
+    }
+    return saveRecord(SessionIds.newSessionId(), persistedToken);
+  }
+
+  /**
+   * Append the renewed access token to the session store file under the same session id, so that
+   * the cookie still held by the browser reads the renewed access token
+   *
+   * @param value the session id saved in the {@link Cookie}
+   * @param persistedToken the renewed access token
+   * @return the {@link Cookie} containing the session id
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Cookie> renew(String value, PersistedToken persistedToken) {
+    if (persistedToken == null || value.length() != SESSION_ID_LENGTH) {
+      return save(persistedToken);
+    }
+    return saveRecord(value, persistedToken);
+  }
+
+  private List<Cookie> saveRecord(String sessionId, PersistedToken persistedToken) {
+    long expiresAtMillis =
+        System.currentTimeMillis()
+            + TimeUnit.SECONDS.toMillis(cookieSessionStore.cookieMaxAgeSeconds());
+    ReusableByteArrayOutputStream record = BUFFERS.get().recycle();
+    writeHeader(record, PUT, expiresAtMillis, sessionId);
+    TokenFormat.BINARY.write(persistedToken, record);
+    byte[] message = cipher.encrypt(record.buffer(), 0, record.size());
+
+    lock.writeLock().lock();
+    try {
+      int offset = append(message);
+      if (offset < 0) {
+        log.error(
+            "The session store file {} is full ({} bytes), the session of the user {} is not"
+                + " saved!",
+            file,
+            maxFileSize,
+            persistedToken.id());
+        return Collections.singletonList(cookieSessionStore.newSessionCookie(""));
+      }
+      Record previous = index.put(sessionId, new Record(offset, message.length, expiresAtMillis));
+      if (previous != null) {
+        garbageBytes += 4 + previous.length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+    return Collections.singletonList(cookieSessionStore.newSessionCookie(sessionId));
+  }
+
+  @Override
+  public <T> T save(AuthState authState) {
+    return cookieSessionStore.save(authState);
+  }
+
+  /**
+   * Load the access token saved under the provided session id
+   *
+   * @param value the session id saved in the {@link Cookie}
+   * @return {@link PersistedToken} containing the access token, or null if the session is unknown
+   *     or expired
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public PersistedToken readToken(String value) {
+    byte[] message;
+    lock.readLock().lock();
+    try {
+      Record record = index.get(value);
+      if (record == null || record.expiresAtMillis <= System.currentTimeMillis()) {
+        return null;
+      }
+      message = new byte[record.length];
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position(record.offset + 4);
+      buffer.get(message);
+    } finally {
+      lock.readLock().unlock();
+    }
+    byte[] plainText = cipher.decrypt(message);
+    if (!value.equals(new String(plainText, 1 + 8, SESSION_ID_LENGTH, US_ASCII))) {
+      throw new CipherException(format("Session record mismatch for the session %s", value), null);
+    }
+    return TokenFormat.read(
+        new ByteArrayInputStream(plainText, HEADER_LENGTH, plainText.length - HEADER_LENGTH));
+  }
+
+  @Override
+  public <T> T readPKCEState(String value) {
+    return cookieSessionStore.readPKCEState(value);
+  }
+
+  /**
+   * Record the removal of the session saved under the provided session id
+   *
+   * @param value the session id saved in the {@link Cookie}
+   */
+  @Override
+  public void remove(String value) {
+    lock.writeLock().lock();
+    try {
+      Record record = index.remove(value);
+      if (record == null) {
+        return;
+      }
+      ReusableByteArrayOutputStream tombstone = BUFFERS.get().recycle();
+      writeHeader(tombstone, TOMBSTONE, record.expiresAtMillis, value);
+      byte[] message = cipher.encrypt(tombstone.buffer(), 0, tombstone.size());
+      garbageBytes += 4 + record.length;
+      if (append(message) >= 0) {
+        garbageBytes += 4 + message.length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Force the pending writes to the disk, stop the background thread and close the file */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    lock.writeLock().lock();
+    try {
+      mapped.force();
+      channel.close();
+      lockChannel.close();
+    } catch (IOException e) {
+      log.warn("Unable to close the session store file {}: {}", file, e.getMessage());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** The number of sessions in the store */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Rewrite the session store file with the live records only */
+  public void compact() {
+    lock.writeLock().lock();
+    try {
+      Path compacted = file.resolveSibling(file.getFileName() + ".compact");
+      long now = System.currentTimeMillis();
+      index.values().removeIf(record -> record.expiresAtMillis <= now);
+      long liveBytes = index.values().stream().mapToLong(record -> 4L + record.length).sum();
+      int size = (int) Math.min(maxFileSize, Math.max(INITIAL_FILE_SIZE, liveBytes * 2));
+      try (FileChannel target =
+          FileChannel.open(
+              compacted,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE)) {
+        MappedByteBuffer buffer = target.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        ByteBuffer source = mapped.duplicate();
+        for (Record record : index.values()) {
+          int offset = buffer.position();
+          source.limit(record.offset + 4 + record.length).position(record.offset);
+          buffer.put(source);
+          record.offset = offset;
+        }
+        buffer.force();
+      }
+      Files.move(compacted, file, REPLACE_EXISTING, ATOMIC_MOVE);
+      int before = position;
+      channel.close();
+      map(file, size);
+      position = (int) liveBytes;
+      garbageBytes = 0;
+      log.info(
+          "Compacted the session store file {} ({} -> {} bytes, sessions: {})",
+          file,
+          before,
+          position,
+          index.size());
+    } catch (IOException e) {
+      throw new OidcClientException(format("Unable to compact the session store file %s", file), e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void compactIfNeeded() {
+    try {
+      lock.readLock().lock();
+      try {
+        long now = System.currentTimeMillis();
+        long expiredBytes =
+            index.values().stream()
+                .filter(record -> record.expiresAtMillis <= now)
+                .mapToLong(record -> 4L + record.length)
+                .sum();
+        if (garbageBytes + expiredBytes <= position / 2) {
+          return;
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      compact();
+    } catch (RuntimeException e) {
+      log.warn("Unable to compact the session store file {}: {}", file, e.getMessage(), e);
+    }
+  }
+
+  private void flush() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    lock.readLock().lock();
+    try {
+      mapped.force();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Append the record at the end of the file, growing the file or compacting it if needed
+   *
+   * @return the record offset, or -1 if the file is full
+   */
+  private int append(byte[] message) {
+    int recordLength = 4 + message.length;
+    if (position + recordLength > mapped.capacity() && garbageBytes > 0) {
+      compact();
+    }
+    if (position + recordLength > mapped.capacity()) {
+      if (position + recordLength > maxFileSize) {
+        return -1;
+      }
+      try {
+        map(
+            file,
+            Math.min(maxFileSize, Math.max((long) mapped.capacity() * 2, position + recordLength)));
+      } catch (IOException e) {
+        throw new OidcClientException(format("Unable to grow the session store file %s", file), e);
+      }
+    }
+    int offset = position;
+    ByteBuffer buffer = mapped.duplicate();
+    buffer.position(offset + 4);
+    buffer.put(message);
+    // Write the length last so that a record interrupted by a crash is ignored by the replay
+    mapped.putInt(offset, message.length);
+    position += recordLength;
+    dirty = true;
+    return offset;
+  }
+
+  /**
+   * Lock the session store file for this store through a sibling lock file, the session store file
+   * itself being replaced by the compaction
+   *
+   * @return the lock file channel, holding the lock until it is closed
+   */
+  private static FileChannel lock(Path path) throws IOException {
+    FileChannel lockChannel =
+        FileChannel.open(
+            path.resolveSibling(path.getFileName() + ".lock"),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE);
+    FileLock fileLock;
+    try {
+      fileLock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      fileLock = null;
+    }
+    if (fileLock == null) {
+      lockChannel.close();
+      throw new OidcClientException(
+          format(
+              "The session store file %s is already used by another session store, configure a"
+                  + " distinct '%s' for each application",
+              path, AUTH_SESSION_STORE_PATH),
+          null);
+    }
+    return lockChannel;
+  }
+
+  private void map(Path path, long size) throws IOException {
+    if (channel == null || !channel.isOpen()) {
+      channel =
+          FileChannel.open(
+              path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+  }
+
+  /** Rebuild the index of the live sessions from the records of the file */
+  private void replay() {
+    long now = System.currentTimeMillis();
+    int offset = 0;
+    while (offset + 4 <= mapped.capacity()) {
+      int length = mapped.getInt(offset);
+      if (length <= 0 || offset + 4 + length > mapped.capacity()) {
+        break;
+      }
+      byte[] message = new byte[length];
+      ByteBuffer buffer = mapped.duplicate();
+      buffer.position(offset + 4);
+      buffer.get(message);
+      byte[] plainText;
+      try {
+        plainText = cipher.decrypt(message);
+      } catch (CipherException e) {
+        log.warn(
+            "Ignoring the unreadable records of the session store file {} from offset {}: {}",
+            file,
+            offset,
+            e.getMessage());
+        break;
+      }
+      ByteBuffer header = ByteBuffer.wrap(plainText);
+      byte type = header.get();
+      long expiresAtMillis = header.getLong();
+      String sessionId = new String(plainText, 1 + 8, SESSION_ID_LENGTH, US_ASCII);
+      Record previous = index.remove(sessionId);
+      if (previous != null) {
+        garbageBytes += 4 + previous.length;
+      }
+      if (type == PUT && expiresAtMillis > now) {
+        index.put(sessionId, new Record(offset, length, expiresAtMillis));
+      } else {
+        garbageBytes += 4 + length;
+      }
+      offset += 4 + length;
+    }
+    position = offset;
+    if (position + 4 > mapped.capacity() || mapped.getInt(position) == 0) {
+      return;
+    }
+    // Clear the unreadable tail so that it is not mistaken for records once partially overwritten
+    ByteBuffer tail = mapped.duplicate();
+    tail.position(position);
+    byte[] zeros = new byte[4096];
+    while (tail.hasRemaining()) {
+      tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+    }
+  }
+
+  private static void writeHeader(
+      ReusableByteArrayOutputStream out, byte type, long expiresAtMillis, String sessionId) {
+    out.write(type);
+    for (int i = 7; i >= 0; i--) {
+      out.write((int) (expiresAtMillis >>> (8 * i)));
+    }
+    byte[] id = sessionId.getBytes(US_ASCII);
+    out.write(id, 0, id.length);
+  }
+
+  /** The in-memory index entry of a session record */
+  private static final class Record {
+    private int offset;
+    private final int length;
+    private final long expiresAtMillis;
+
+    private Record(int offset, int length, long expiresAtMillis) {
+      this.offset = offset;
+      this.length = length;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
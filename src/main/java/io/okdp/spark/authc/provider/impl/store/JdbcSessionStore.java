@@ -0,0 +1,528 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl.store;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.model.AuthState;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.utils.AesGcmCipher;
+import io.okdp.spark.authc.utils.ReusableByteArrayOutputStream;
+import io.okdp.spark.authc.utils.TokenFormat;
+import java.io.ByteArrayInputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.servlet.http.Cookie;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Server side token storage sharing the sessions between several instances through a database, the
+ * browser only carries a random session id
+ *
+ * <p>The sessions are saved in the provided table, created on startup if missing:
+ *
+ * <pre>
+ * session_id (sha256 of the session id) | expires_at (epoch millis) | token (encrypted)
+ * </pre>
+ *
+ * <p>The {@link PersistedToken}s are serialized in the binary {@link TokenFormat} and encrypted
+ * with the cookie encryption key, the session ids are only stored hashed. The connections and
+ * their prepared statements are pooled and reused. The removed sessions are deleted in batches and
+ * the expired ones are swept periodically by a background thread. A small local cache with a short
+ * TTL serves the repeated reads of the same session without a database round trip.
+ *
+ * <p>The JDBC driver of the database must be available in the classpath. The short lived PKCE
+ * state is still saved in a cookie by the provided {@link CookieSessionStore}.
+ *
+ * @see SessionStore
+ */
+@Slf4j
+public class JdbcSessionStore implements SessionStore {
+
+  private static final Pattern TABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]{0,62}");
+  private static final Pattern USER_INFO = Pattern.compile("//[^/?;@]*@");
+  private static final Pattern PASSWORD_PARAMETER =
+      Pattern.compile("(?i)\\b(password|passwd|pwd)=[^&;]*");
+  private static final int MAX_CONNECTIONS = 8;
+  private static final long CONNECTION_TIMEOUT_SECONDS = 10;
+  private static final int DELETE_BATCH_SIZE = 500;
+  private static final long DELETE_INTERVAL_SECONDS = 5;
+  private static final long SWEEP_INTERVAL_SECONDS = 60;
+  private static final long LOCAL_CACHE_MAX_SIZE = 10_000;
+  private static final long LOCAL_CACHE_TTL_SECONDS = 5;
+  private static final ThreadLocal<ReusableByteArrayOutputStream> BUFFERS =
+      ReusableByteArrayOutputStream.threadLocal(1024);
+
+  private final CookieSessionStore cookieSessionStore;
+  private final AesGcmCipher cipher;
+  private final String url;
+  private final String user;
+  private final String password;
+  private final String table;
+  private final BlockingQueue<PooledConnection> idleConnections =
+      new ArrayBlockingQueue<>(MAX_CONNECTIONS);
+  private final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS);
+  private final ConcurrentLinkedQueue<String> pendingDeletes = new ConcurrentLinkedQueue<>();
+  private final Cache<String, PersistedToken> localCache =
+      CacheBuilder.newBuilder()
+          .maximumSize(LOCAL_CACHE_MAX_SIZE)
+          .expireAfterWrite(LOCAL_CACHE_TTL_SECONDS, TimeUnit.SECONDS)
+          .build();
+  private final ScheduledExecutorService scheduler;
+
+  private JdbcSessionStore(
+      @NonNull CookieSessionStore cookieSessionStore,
+      @NonNull String url,
+      String user,
+      String password,
+      @NonNull String table) {
+    checkArgument(TABLE_NAME.matcher(table).matches(), "Invalid session store table '%s'", table);
+    this.cookieSessionStore = cookieSessionStore;
+    this.cipher = cookieSessionStore.cipher();
+    this.url = url;
+    this.user = user;
+    this.password = password;
+    this.table = table;
+    createTableIfMissing();
+    this.scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("okdp-jdbc-session-store-%d")
+                .setDaemon(true)
+                .build());
+    scheduler.scheduleWithFixedDelay(
+        this::deletePending, DELETE_INTERVAL_SECONDS, DELETE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    scheduler.scheduleWithFixedDelay(
+        this::deleteExpired, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Create a database session store
+   *
+   * @param cookieSessionStore the cookie store creating the session id cookies, holding the PKCE
+   *     state and the encryption key
+   * @param url the JDBC url of the database
+   * @param user the database user, or null
+   * @param password the database user password, or null
+   * @param table the sessions table, created if missing
+   */
+  public static JdbcSessionStore of(
+      CookieSessionStore cookieSessionStore,
+      String url,
+      String user,
+      String password,
+      String table) {
+    log.info(
+        "Initializing the JDBC session store (url: {}, table: {}) ...", redact(url), table);
+    return new JdbcSessionStore(cookieSessionStore, url, user, password, table);
+  }
+
+  /**
+   * Save the access token in the database under a new random session id
+   *
+   * <p>If the provided {@link PersistedToken} is null, save an empty value in a cookie.
+   *
+   * @param persistedToken the persisted access token response from the oidc provider
+   * @return the {@link Cookie} containing the session id
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Cookie> save(PersistedToken persistedToken) {
+    if (persistedToken == null) {
+      return Collections.singletonList(cookieSessionStore.newSessionCookie(""));
+    }
+    byte[] token = encrypt(persistedToken);
+    String sessionId = SessionIds.newSessionId();
+    long expiresAtMillis = expiresAtMillis();
+
+    PooledConnection connection = borrow();
+    try {
+      PreparedStatement insert = connection.insert;
+      insert.setString(1, key(sessionId));
+      insert.setLong(2, expiresAtMillis);
+      insert.setBytes(3, token);
+      insert.executeUpdate();
+      release(connection);
+    } catch (SQLException e) {
+      discard(connection);
+      throw new OidcClientException(
+          format("Unable to save the session of the user %s: %s", persistedToken.id(), e), e);
+    }
+    localCache.put(sessionId, persistedToken);
+    return Collections.singletonList(cookieSessionStore.newSessionCookie(sessionId));
+  }
+
+  /**
+   * Update the renewed access token in place, so that the other instances still serving the
+   * previous cookie read the renewed access token under the same session id
+   *
+   * <p>If the session was removed in the meantime, the renewed access token is saved under a new
+   * session id.
+   *
+   * @param value the session id saved in the {@link Cookie}
+   * @param persistedToken the renewed access token
+   * @return the {@link Cookie} containing the session id
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Cookie> renew(String value, PersistedToken persistedToken) {
+    if (persistedToken == null) {
+      return save(persistedToken);
+    }
+    byte[] token = encrypt(persistedToken);
+    int updated;
+    PooledConnection connection = borrow();
+    try {
+      PreparedStatement update = connection.update;
+      update.setLong(1, expiresAtMillis());
+      update.setBytes(2, token);
+      update.setString(3, key(value));
+      updated = update.executeUpdate();
+      release(connection);
+    } catch (SQLException e) {
+      discard(connection);
+      throw new OidcClientException(
+          format("Unable to renew the session of the user %s: %s", persistedToken.id(), e), e);
+    }
+    if (updated == 0) {
+      log.debug("The renewed session was removed in the meantime, saving it under a new id");
+      return save(persistedToken);
+    }
+    localCache.put(value, persistedToken);
+    return Collections.singletonList(cookieSessionStore.newSessionCookie(value));
+  }
+
+  @Override
+  public <T> T save(AuthState authState) {
+    return cookieSessionStore.save(authState);
+  }
+
+  /**
+   * Load the access token saved under the provided session id
+   *
+   * @param value the session id saved in the {@link Cookie}
+   * @return {@link PersistedToken} containing the access token, or null if the session is unknown
+   *     or expired
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public PersistedToken readToken(String value) {
+    PersistedToken cached = localCache.getIfPresent(value);
+    if (cached != null && !cached.isExpired()) {
+      return cached;
+    }
+    byte[] token;
+    PooledConnection connection = borrow();
+    try {
+      PreparedStatement select = connection.select;
+      select.setString(1, key(value));
+      select.setLong(2, System.currentTimeMillis());
+      try (ResultSet resultSet = select.executeQuery()) {
+        token = resultSet.next() ? resultSet.getBytes(1) : null;
+      }
+      release(connection);
+    } catch (SQLException e) {
+      discard(connection);
+      throw new OidcClientException(format("Unable to read the session: %s", e), e);
+    }
+    if (token == null) {
+      log.debug("Unknown session id, the session has expired or was removed");
+      return null;
+    }
+    PersistedToken persistedToken =
+        TokenFormat.read(new ByteArrayInputStream(cipher.decrypt(token)));
+    // An expired token may have been renewed in place by another instance in the meantime: always
+    // read it again from the database rather than refreshing it twice with the same refresh token
+    if (persistedToken.isExpired()) {
+      localCache.invalidate(value);
+    } else {
+      localCache.put(value, persistedToken);
+    }
+    return persistedToken;
+  }
+
+  @Override
+  public <T> T readPKCEState(String value) {
+    return cookieSessionStore.readPKCEState(value);
+  }
+
+  /**
+   * Remove the session saved under the provided session id, once it has been replaced by a new one
+   *
+   * <p>The session is removed from the local cache right away, and from the database with the next
+   * batch of deletes.
+   *
+   * @param value the session id saved in the {@link Cookie}
+   */
+  @Override
+  public void remove(String value) {
+    localCache.invalidate(value);
+    pendingDeletes.add(key(value));
+  }
+
+  /** Flush the pending deletes, stop the background thread and close the pooled connections */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    localCache.invalidateAll();
+    deletePending();
+    PooledConnection connection;
+    while ((connection = idleConnections.poll()) != null) {
+      connection.close();
+    }
+  }
+
+  /** Delete the removed sessions in batches */
+  private void deletePending() {
+    if (pendingDeletes.isEmpty()) {
+      return;
+    }
+    PooledConnection connection;
+    try {
+      connection = borrow();
+    } catch (OidcClientException e) {
+      // Keep the pending deletes for the next batch, and the background thread running
+      log.warn("Unable to delete the removed sessions: {}", e.getMessage());
+      return;
+    }
+    try {
+      PreparedStatement delete = connection.delete;
+      int batchSize = 0;
+      String key;
+      while ((key = pendingDeletes.poll()) != null) {
+        delete.setString(1, key);
+        delete.addBatch();
+        if (++batchSize == DELETE_BATCH_SIZE) {
+          delete.executeBatch();
+          batchSize = 0;
+        }
+      }
+      if (batchSize > 0) {
+        delete.executeBatch();
+      }
+      release(connection);
+    } catch (SQLException e) {
+      discard(connection);
+      log.warn("Unable to delete the removed sessions: {}", e.getMessage());
+    }
+  }
+
+  /**
+   * Delete the expired sessions, run periodically by the background thread
+   *
+   * @return the number of deleted sessions
+   */
+  public int deleteExpired() {
+    PooledConnection connection;
+    try {
+      connection = borrow();
+    } catch (OidcClientException e) {
+      log.warn("Unable to delete the expired sessions: {}", e.getMessage());
+      return 0;
+    }
+    try {
+      PreparedStatement deleteExpired = connection.deleteExpired;
+      deleteExpired.setLong(1, System.currentTimeMillis());
+      int count = deleteExpired.executeUpdate();
+      release(connection);
+      log.debug("Deleted {} expired sessions from the table {}", count, table);
+      return count;
+    } catch (SQLException e) {
+      discard(connection);
+      log.warn("Unable to delete the expired sessions: {}", e.getMessage());
+      return 0;
+    }
+  }
+
+  private void createTableIfMissing() {
+    try (Connection connection = connect()) {
+      DatabaseMetaData metaData = connection.getMetaData();
+      if (tableExists(metaData)) {
+        return;
+      }
+      String binaryType =
+          "PostgreSQL".equalsIgnoreCase(metaData.getDatabaseProductName()) ? "BYTEA" : "BLOB";
+      try (Statement statement = connection.createStatement()) {
+        statement.executeUpdate(
+            format(
+                "CREATE TABLE %s (session_id VARCHAR(64) NOT NULL PRIMARY KEY,"
+                    + " expires_at BIGINT NOT NULL, token %s NOT NULL)",
+                table, binaryType));
+        statement.executeUpdate(
+            format("CREATE INDEX %s_expires_at ON %s (expires_at)", table, table));
+        log.info("Created the session store table {}", table);
+      } catch (SQLException e) {
+        // Another instance may have created the table in the meantime
+        if (!tableExists(metaData)) {
+          throw e;
+        }
+      }
+    } catch (SQLException e) {
+      throw new OidcClientException(
+          format("Unable to create the session store table %s: %s", table, e), e);
+    }
+  }
+
+  private boolean tableExists(DatabaseMetaData metaData) throws SQLException {
+    // The unquoted identifiers are stored in upper case or lower case depending on the database
+    List<String> names = new ArrayList<>();
+    names.add(table);
+    names.add(table.toUpperCase());
+    names.add(table.toLowerCase());
+    for (String name : names) {
+      try (ResultSet tables = metaData.getTables(null, null, name, new String[] {"TABLE"})) {
+        if (tables.next()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Connection connect() throws SQLException {
+    return user == null
+        ? DriverManager.getConnection(url)
+        : DriverManager.getConnection(url, user, password);
+  }
+
+  private PooledConnection borrow() {
+    PooledConnection connection = idleConnections.poll();
+    if (connection != null) {
+      return connection;
+    }
+    if (connectionPermits.tryAcquire()) {
+      try {
+        return new PooledConnection(connect(), table);
+      } catch (SQLException e) {
+        connectionPermits.release();
+        throw new OidcClientException(
+            format("Unable to connect to the session store %s: %s", redact(url), e), e);
+      }
+    }
+    // All the connections are in use: wait for one of them to be released
+    try {
+      connection = idleConnections.poll(CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OidcClientException("Interrupted waiting for a session store connection", e);
+    }
+    if (connection == null) {
+      throw new OidcClientException(
+          format("Timeout waiting for a session store connection to %s", redact(url)), null);
+    }
+    return connection;
+  }
+
+  private void release(PooledConnection connection) {
+    if (!idleConnections.offer(connection)) {
+      discard(connection);
+    }
+  }
+
+  private void discard(PooledConnection connection) {
+    connection.close();
+    connectionPermits.release();
+  }
+
+  private byte[] encrypt(PersistedToken persistedToken) {
+    ReusableByteArrayOutputStream serialized = BUFFERS.get().recycle();
+    TokenFormat.BINARY.write(persistedToken, serialized);
+    return cipher.encrypt(serialized.buffer(), 0, serialized.size());
+  }
+
+  private long expiresAtMillis() {
+    return System.currentTimeMillis()
+        + TimeUnit.SECONDS.toMillis(cookieSessionStore.cookieMaxAgeSeconds());
+  }
+
+  /** Hide the credentials of the JDBC url in the logs: the user info and the password parameters */
+  public static String redact(String url) {
+    String redacted = USER_INFO.matcher(url).replaceFirst("//");
+    return PASSWORD_PARAMETER.matcher(redacted).replaceAll("$1=***");
+  }
+
+  /** The session ids are only stored hashed, so that a database dump does not leak them */
+  private static String key(String sessionId) {
+    return Hashing.sha256().hashString(sessionId, US_ASCII).toString();
+  }
+
+  /** A database connection and its reused prepared statements */
+  private static final class PooledConnection {
+    private final Connection connection;
+    private final PreparedStatement insert;
+    private final PreparedStatement select;
+    private final PreparedStatement update;
+    private final PreparedStatement delete;
+    private final PreparedStatement deleteExpired;
+
+    private PooledConnection(Connection connection, String table) throws SQLException {
+      this.connection = connection;
+      try {
+        this.insert =
+            connection.prepareStatement(
+                format(
+                    "INSERT INTO %s (session_id, expires_at, token) VALUES (?, ?, ?)", table));
+        this.select =
+            connection.prepareStatement(
+                format("SELECT token FROM %s WHERE session_id = ? AND expires_at > ?", table));
+        this.update =
+            connection.prepareStatement(
+                format("UPDATE %s SET expires_at = ?, token = ? WHERE session_id = ?", table));
+        this.delete =
+            connection.prepareStatement(format("DELETE FROM %s WHERE session_id = ?", table));
+        this.deleteExpired =
+            connection.prepareStatement(format("DELETE FROM %s WHERE expires_at <= ?", table));
+      } catch (SQLException e) {
+        close();
+        throw e;
+      }
+    }
+
+    private void close() {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        log.debug("Unable to close the session store connection: {}", e.getMessage());
+      }
+    }
+  }
+}
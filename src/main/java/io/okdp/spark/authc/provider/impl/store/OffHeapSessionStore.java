@@ -0,0 +1,314 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl.store;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import io.okdp.spark.authc.model.AuthState;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.utils.ReusableByteArrayOutputStream;
+import io.okdp.spark.authc.utils.TokenFormat;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Server side token storage keeping the sessions off-heap, the browser only carries a random
+ * session id
+ *
+ * <p>The {@link PersistedToken}s, including their refresh token, are serialized in the binary
+ * {@link TokenFormat} into fixed size blocks of direct memory slabs, allocated on demand up to the
+ * configured memory cap, so that a large number of sessions does not add GC pressure to the heap.
+ * The on-heap index only holds the session ids and their block numbers.
+ *
+ * <p>The sessions expire with the session cookie. Once the memory cap is reached, the expired
+ * sessions are purged first, then the least recently used ones are evicted.
+ *
+ * <p>The sessions are local to the JVM: the users have to re-authenticate after a restart, or when
+ * they are balanced to another instance. The short lived PKCE state is still saved in a cookie by
+ * the provided {@link CookieSessionStore}.
+ *
+ * @see SessionStore
+ */
+@Slf4j
+public class OffHeapSessionStore implements SessionStore {
+
+  private static final int BLOCK_SIZE = 256;
+  private static final int SLAB_SIZE = 1024 * 1024;
+  private static final int BLOCKS_PER_SLAB = SLAB_SIZE / BLOCK_SIZE;
+  private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final ThreadLocal<ReusableByteArrayOutputStream> BUFFERS =
+      ReusableByteArrayOutputStream.threadLocal(1024);
+
+  private final CookieSessionStore cookieSessionStore;
+  private final int maxSlabs;
+  // Guarded by this
+  private final List<ByteBuffer> slabs = new ArrayList<>();
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+  private int[] freeBlocks = new int[0];
+  private int freeBlockCount;
+  private long lastSweepMillis = System.currentTimeMillis();
+  private long evictionCount;
+
+  private OffHeapSessionStore(@NonNull CookieSessionStore cookieSessionStore, long maxMemoryBytes) {
+    checkArgument(
+        maxMemoryBytes >= SLAB_SIZE, "The off-heap session store memory must be >= %s", SLAB_SIZE);
+    this.cookieSessionStore = cookieSessionStore;
+    this.maxSlabs = (int) Math.min(Integer.MAX_VALUE / BLOCKS_PER_SLAB, maxMemoryBytes / SLAB_SIZE);
+  }
+
+  /**
+   * Create an off-heap session store
+   *
+   * @param cookieSessionStore the cookie store creating the session id cookies and holding the
+   *     PKCE state
+   * @param maxMemoryBytes the maximum off-heap memory used by the sessions
+   */
+  public static OffHeapSessionStore of(CookieSessionStore cookieSessionStore, long maxMemoryBytes) {
+    log.info(
+        "Initializing the off-heap session store (max memory: {} MB) ...",
+        maxMemoryBytes / SLAB_SIZE);
+    return new OffHeapSessionStore(cookieSessionStore, maxMemoryBytes);
+  }
+
+  /**
+   * Save the access token off-heap under a new random session id
+   *
+   * <p>If the provided {@link PersistedToken} is null, save an empty value in a cookie.
+   *
+   * @param persistedToken the persisted access token response from the oidc provider
+   * @return the {@link Cookie} containing the session id
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Cookie> save(PersistedToken persistedToken) {
+    if (persistedToken == null) {
+      return Collections.singletonList(cookieSessionStore.newSessionCookie(""));
+    }
+    return saveEntry(SessionIds.newSessionId(), persistedToken);
+  }
+
+  /**
+   * Save the renewed access token off-heap under the same session id, so that the cookie still
+   * held by the browser reads the renewed access token
+   *
+   * @param value the session id saved in the {@link Cookie}
+   * @param persistedToken the renewed access token
+   * @return the {@link Cookie} containing the session id
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public List<Cookie> renew(String value, PersistedToken persistedToken) {
+    if (persistedToken == null || value.isEmpty()) {
+      return save(persistedToken);
+    }
+    return saveEntry(value, persistedToken);
+  }
+
+  private List<Cookie> saveEntry(String sessionId, PersistedToken persistedToken) {
+    ReusableByteArrayOutputStream serialized = BUFFERS.get().recycle();
+    TokenFormat.BINARY.write(persistedToken, serialized);
+    long expiresAtMillis =
+        System.currentTimeMillis()
+            + TimeUnit.SECONDS.toMillis(cookieSessionStore.cookieMaxAgeSeconds());
+    boolean saved;
+    synchronized (this) {
+      // Release the blocks of the renewed session first
+      Entry previous = entries.remove(sessionId);
+      if (previous != null) {
+        release(previous);
+      }
+      saved = put(sessionId, serialized.buffer(), serialized.size(), expiresAtMillis);
+    }
+    if (!saved) {
+      log.error(
+          "The session of the user {} ({} bytes) exceeds the off-heap session store capacity,"
+              + " the session is not saved!",
+          persistedToken.id(),
+          serialized.size());
+      return Collections.singletonList(cookieSessionStore.newSessionCookie(""));
+    }
+    return Collections.singletonList(cookieSessionStore.newSessionCookie(sessionId));
+  }
+
+  @Override
+  public <T> T save(AuthState authState) {
+    return cookieSessionStore.save(authState);
+  }
+
+  /**
+   * Load the access token saved under the provided session id
+   *
+   * @param value the session id saved in the {@link Cookie}
+   * @return {@link PersistedToken} containing the access token, or null if the session is unknown
+   *     or expired
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public PersistedToken readToken(String value) {
+    ReusableByteArrayOutputStream serialized = BUFFERS.get().recycle();
+    int length;
+    synchronized (this) {
+      Entry entry = entries.get(value);
+      if (entry == null) {
+        log.debug("Unknown session id, the session has expired or was evicted");
+        return null;
+      }
+      if (entry.expiresAtMillis <= System.currentTimeMillis()) {
+        entries.remove(value);
+        release(entry);
+        return null;
+      }
+      length = entry.length;
+      read(entry, serialized.buffer(length));
+    }
+    return TokenFormat.read(new ByteArrayInputStream(serialized.buffer(), 0, length));
+  }
+
+  @Override
+  public <T> T readPKCEState(String value) {
+    return cookieSessionStore.readPKCEState(value);
+  }
+
+  /**
+   * Remove the session saved under the provided session id, once it has been replaced by a new one
+   *
+   * @param value the session id saved in the {@link Cookie}
+   */
+  @Override
+  public synchronized void remove(String value) {
+    Entry entry = entries.remove(value);
+    if (entry != null) {
+      release(entry);
+    }
+  }
+
+  /** The number of sessions in the store */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** The off-heap memory allocated by the store, in bytes */
+  public synchronized long allocatedBytes() {
+    return (long) slabs.size() * SLAB_SIZE;
+  }
+
+  /** The number of the least recently used sessions evicted once the memory cap was reached */
+  public synchronized long evictionCount() {
+    return evictionCount;
+  }
+
+  private boolean put(String sessionId, byte[] data, int length, long expiresAtMillis) {
+    int blockCount = Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    if (blockCount > maxSlabs * BLOCKS_PER_SLAB) {
+      return false;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastSweepMillis > SWEEP_INTERVAL_MILLIS) {
+      sweep(now);
+    }
+    while (freeBlockCount < blockCount && slabs.size() < maxSlabs) {
+      allocateSlab();
+    }
+    if (freeBlockCount < blockCount) {
+      sweep(now);
+    }
+    Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+    while (freeBlockCount < blockCount && leastRecentlyUsed.hasNext()) {
+      release(leastRecentlyUsed.next().getValue());
+      leastRecentlyUsed.remove();
+      evictionCount++;
+    }
+
+    int[] blocks = new int[blockCount];
+    for (int i = 0; i < blockCount; i++) {
+      blocks[i] = freeBlocks[--freeBlockCount];
+      int offset = i * BLOCK_SIZE;
+      ByteBuffer slab = slab(blocks[i]);
+      slab.put(data, offset, Math.min(BLOCK_SIZE, length - offset));
+    }
+    entries.put(sessionId, new Entry(blocks, length, expiresAtMillis));
+    return true;
+  }
+
+  private void read(Entry entry, byte[] output) {
+    for (int i = 0; i < entry.blocks.length; i++) {
+      int offset = i * BLOCK_SIZE;
+      slab(entry.blocks[i]).get(output, offset, Math.min(BLOCK_SIZE, entry.length - offset));
+    }
+  }
+
+  /** The slab holding the provided block, positioned at the start of the block */
+  private ByteBuffer slab(int block) {
+    ByteBuffer slab = slabs.get(block / BLOCKS_PER_SLAB);
+    slab.clear();
+    slab.position((block % BLOCKS_PER_SLAB) * BLOCK_SIZE);
+    return slab;
+  }
+
+  private void allocateSlab() {
+    int firstBlock = slabs.size() * BLOCKS_PER_SLAB;
+    slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+    freeBlocks = Arrays.copyOf(freeBlocks, freeBlocks.length + BLOCKS_PER_SLAB);
+    // Push the blocks in reverse order so that they are handed out in ascending order
+    for (int block = firstBlock + BLOCKS_PER_SLAB - 1; block >= firstBlock; block--) {
+      freeBlocks[freeBlockCount++] = block;
+    }
+  }
+
+  private void release(Entry entry) {
+    for (int block : entry.blocks) {
+      freeBlocks[freeBlockCount++] = block;
+    }
+  }
+
+  private void sweep(long now) {
+    lastSweepMillis = now;
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next();
+      if (entry.expiresAtMillis <= now) {
+        release(entry);
+        iterator.remove();
+      }
+    }
+  }
+
+  /** The on-heap index entry of a session */
+  private static final class Entry {
+    private final int[] blocks;
+    private final int length;
+    private final long expiresAtMillis;
+
+    private Entry(int[] blocks, int length, long expiresAtMillis) {
+      this.blocks = blocks;
+      this.length = length;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+}
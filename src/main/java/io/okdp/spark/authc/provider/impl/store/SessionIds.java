@@ -0,0 +1,36 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.impl.store;
+
+import static io.okdp.spark.authc.config.Constants.BASE64URL_ENCODER;
+
+import java.security.SecureRandom;
+
+/** Random session ids of the server side session stores */
+final class SessionIds {
+  private static final int SESSION_ID_BYTES = 24;
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+  private SessionIds() {}
+
+  /** A new random session id: 24 random bytes encoded in base64url (32 characters) */
+  static String newSessionId() {
+    byte[] id = new byte[SESSION_ID_BYTES];
+    SECURE_RANDOM.nextBytes(id);
+    return BASE64URL_ENCODER.encodeToString(id);
+  }
+}
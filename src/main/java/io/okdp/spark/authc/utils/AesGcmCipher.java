@@ -0,0 +1,213 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.okdp.spark.authc.config.Constants;
+import io.okdp.spark.authc.exception.CipherException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.NonNull;
+
+/**
+ * Reusable AES-GCM cipher engine built once from the cookie encryption key
+ *
+ * <p>Unlike {@link EncryptionUtils}, the secret key is derived once and each thread reuses its own
+ * {@link Cipher} instance, so the provider lookup does not happen on every message. Each message
+ * gets a fresh 96 bits IV made of a random 64 bits prefix, drawn once per thread, followed by a 32
+ * bits per-thread counter (deterministic construction of NIST SP 800-38D), which does not contend
+ * on a shared {@link SecureRandom}.
+ *
+ * <p>The message layout (iv + ciphertext + tag) is the same as {@link EncryptionUtils}, so the
+ * messages encrypted with either of them can be decrypted by the other.
+ */
+public class AesGcmCipher implements Constants {
+  private static final int GCM_IV_LENGTH = 12;
+  private static final int GCM_TAG_LENGTH = 16;
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+  private final SecretKeySpec secretKey;
+  private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(AesGcmCipher::newCipher);
+  private final ThreadLocal<NonceGenerator> nonces = ThreadLocal.withInitial(NonceGenerator::new);
+
+  private AesGcmCipher(@NonNull String secretKey) {
+    this.secretKey = new SecretKeySpec(secretKey.getBytes(UTF_8), AES_ENCRYPTION_ALGORITHEM);
+    // Fail fast on invalid key sizes instead of failing on the first request
+    try {
+      newCipher()
+          .init(
+              Cipher.ENCRYPT_MODE,
+              this.secretKey,
+              new GCMParameterSpec(GCM_TAG_LENGTH * 8, new byte[GCM_IV_LENGTH]));
+    } catch (GeneralSecurityException e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Create a cipher engine for the provided secret key
+   *
+   * @param secretKey the secret key to use for the encryption (16, 24 or 32 bytes)
+   */
+  public static AesGcmCipher of(String secretKey) {
+    return new AesGcmCipher(secretKey);
+  }
+
+  /**
+   * @param plainText the plain message to encrypt
+   * @return the encrypted message (iv + ciphertext + tag)
+   */
+  public byte[] encrypt(byte[] plainText) {
+    return encrypt(plainText, 0, plainText.length);
+  }
+
+  /**
+   * @param input the buffer containing the plain message to encrypt
+   * @param offset the offset in input where the plain message starts
+   * @param length the plain message length
+   * @return the encrypted message (iv + ciphertext + tag)
+   */
+  public byte[] encrypt(byte[] input, int offset, int length) {
+    try {
+      byte[] message = new byte[GCM_IV_LENGTH + length + GCM_TAG_LENGTH];
+      nonces.get().next(message);
+      Cipher cipher = ciphers.get();
+      cipher.init(
+          Cipher.ENCRYPT_MODE,
+          secretKey,
+          new GCMParameterSpec(GCM_TAG_LENGTH * 8, message, 0, GCM_IV_LENGTH));
+      cipher.doFinal(input, offset, length, message, GCM_IV_LENGTH);
+      return message;
+    } catch (Exception e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @param message the encrypted message (iv + ciphertext + tag)
+   * @return the plain message
+   */
+  public byte[] decrypt(byte[] message) {
+    return decrypt(message, 0, message.length);
+  }
+
+  /**
+   * @param input the buffer containing the encrypted message (iv + ciphertext + tag)
+   * @param offset the offset in input where the encrypted message starts
+   * @param length the encrypted message length
+   * @return the plain message
+   */
+  public byte[] decrypt(byte[] input, int offset, int length) {
+    try {
+      Cipher cipher = ciphers.get();
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          secretKey,
+          new GCMParameterSpec(GCM_TAG_LENGTH * 8, input, offset, GCM_IV_LENGTH));
+      return cipher.doFinal(input, offset + GCM_IV_LENGTH, length - GCM_IV_LENGTH);
+    } catch (Exception e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Decrypt the message into the provided output buffer
+   *
+   * @param input the buffer containing the encrypted message (iv + ciphertext + tag)
+   * @param offset the offset in input where the encrypted message starts
+   * @param length the encrypted message length
+   * @param output the output buffer, at least {@link #plainTextLength(int)} bytes long from
+   *     outputOffset
+   * @param outputOffset the offset in output where the plain message is written
+   * @return the plain message length
+   */
+  public int decrypt(byte[] input, int offset, int length, byte[] output, int outputOffset) {
+    try {
+      Cipher cipher = ciphers.get();
+      cipher.init(
+          Cipher.DECRYPT_MODE,
+          secretKey,
+          new GCMParameterSpec(GCM_TAG_LENGTH * 8, input, offset, GCM_IV_LENGTH));
+      return cipher.doFinal(
+          input, offset + GCM_IV_LENGTH, length - GCM_IV_LENGTH, output, outputOffset);
+    } catch (Exception e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @param messageLength the encrypted message length (iv + ciphertext + tag)
+   * @return the plain message length
+   */
+  public static int plainTextLength(int messageLength) {
+    return Math.max(0, messageLength - GCM_IV_LENGTH - GCM_TAG_LENGTH);
+  }
+
+  /**
+   * @param text the plain text message to encrypt
+   * @return the encrypted text as BASE64 string
+   */
+  public String encryptToString(String text) {
+    return BASE64_ENCODER.encodeToString(encrypt(text.getBytes(UTF_8)));
+  }
+
+  /**
+   * @param cipherTextBase64 the base64 encrypted text
+   * @return the unencrypted message as plain text
+   */
+  public String decrypt(String cipherTextBase64) {
+    byte[] cipherText;
+    try {
+      cipherText = BASE64_DECODER.decode(cipherTextBase64.getBytes(UTF_8));
+    } catch (IllegalArgumentException e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+    return new String(decrypt(cipherText), UTF_8);
+  }
+
+  private static Cipher newCipher() {
+    try {
+      return Cipher.getInstance(CIPHER_TRANSFORMATION);
+    } catch (GeneralSecurityException e) {
+      throw new CipherException(e.getMessage(), e);
+    }
+  }
+
+  /** Per-thread IV generator: random 64 bits prefix followed by a 32 bits counter */
+  private static final class NonceGenerator {
+    private long prefix = SECURE_RANDOM.nextLong();
+    private int counter;
+
+    void next(byte[] iv) {
+      if (++counter == 0) {
+        // Draw a new prefix once the counter wraps around
+        prefix = SECURE_RANDOM.nextLong();
+      }
+      for (int i = 0; i < 8; i++) {
+        iv[i] = (byte) (prefix >>> (56 - 8 * i));
+      }
+      iv[8] = (byte) (counter >>> 24);
+      iv[9] = (byte) (counter >>> 16);
+      iv[10] = (byte) (counter >>> 8);
+      iv[11] = (byte) counter;
+    }
+  }
+}
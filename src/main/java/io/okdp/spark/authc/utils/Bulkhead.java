@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cap the number of concurrent calls to a remote service, so that a slow service does not hold
+ * all the servlet container threads
+ *
+ * <p>The calls above the limit are rejected right away rather than queued.
+ */
+public final class Bulkhead {
+
+  private final int maxConcurrentCalls;
+  private final Semaphore permits;
+  private final LongAdder rejected = new LongAdder();
+
+  private Bulkhead(int maxConcurrentCalls) {
+    checkArgument(maxConcurrentCalls > 0, "The bulkhead max concurrent calls must be > 0");
+    this.maxConcurrentCalls = maxConcurrentCalls;
+    this.permits = new Semaphore(maxConcurrentCalls);
+  }
+
+  /**
+   * Create a bulkhead
+   *
+   * @param maxConcurrentCalls the maximum number of calls running at the same time
+   */
+  public static Bulkhead of(int maxConcurrentCalls) {
+    return new Bulkhead(maxConcurrentCalls);
+  }
+
+  /**
+   * Take a slot for a call, a taken slot must be released with {@link #release()}
+   *
+   * @return true if the call is permitted, false if the maximum number of calls is reached
+   */
+  public boolean tryAcquire() {
+    if (permits.tryAcquire()) {
+      return true;
+    }
+    rejected.increment();
+    return false;
+  }
+
+  /** Release the slot of a completed call */
+  public void release() {
+    permits.release();
+  }
+
+  /** The number of calls currently running */
+  public int inFlightCount() {
+    return maxConcurrentCalls - permits.availablePermits();
+  }
+
+  /** The number of calls rejected because the maximum number of calls was reached */
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+}
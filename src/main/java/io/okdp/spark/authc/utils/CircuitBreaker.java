@@ -0,0 +1,157 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stop sending the requests to a failing remote service for a while, instead of piling up the
+ * callers waiting for its timeouts
+ *
+ * <p>The breaker opens after the provided number of consecutive failures, the calls are then
+ * rejected right away. Once the open duration elapsed, a single probe call is let through (half
+ * open): the breaker closes if the probe succeeds, and opens again otherwise.
+ */
+@Slf4j
+public final class CircuitBreaker {
+
+  /** The breaker states */
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openMillis;
+  private final AtomicReference<Transition> state =
+      new AtomicReference<>(new Transition(State.CLOSED, 0));
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder opened = new LongAdder();
+
+  /** The state of the breaker along with the time it entered it, published atomically */
+  private static final class Transition {
+    private final State state;
+    private final long since;
+
+    private Transition(State state, long since) {
+      this.state = state;
+      this.since = since;
+    }
+  }
+
+  private CircuitBreaker(String name, int failureThreshold, long openMillis) {
+    checkArgument(failureThreshold >= 0, "The circuit breaker failure threshold must be >= 0");
+    checkArgument(openMillis > 0, "The circuit breaker open duration must be > 0");
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Create a circuit breaker
+   *
+   * @param name the name of the remote service, used in the logs
+   * @param failureThreshold the number of consecutive failures opening the breaker, 0 to never open
+   * @param openDuration the time the calls are rejected before probing the remote service again
+   * @param unit the time unit of the open duration
+   */
+  public static CircuitBreaker of(
+      String name, int failureThreshold, long openDuration, TimeUnit unit) {
+    return new CircuitBreaker(name, failureThreshold, unit.toMillis(openDuration));
+  }
+
+  /**
+   * Check if a call can be sent to the remote service
+   *
+   * <p>A permitted call must report its outcome with {@link #onSuccess()} or {@link #onFailure()}.
+   *
+   * @return true if the call is permitted, false if it is rejected
+   */
+  public boolean tryAcquire() {
+    Transition current = state.get();
+    if (current.state == State.CLOSED) {
+      return true;
+    }
+    long now = System.currentTimeMillis();
+    if (current.state == State.OPEN
+        && now - current.since >= openMillis
+        && state.compareAndSet(current, new Transition(State.HALF_OPEN, now))) {
+      log.info("Probing the {} after {} ms ...", name, openMillis);
+      return true;
+    }
+    rejected.increment();
+    return false;
+  }
+
+  /** Report a successful call, or a call answered by the remote service with a client error */
+  public void onSuccess() {
+    consecutiveFailures.set(0);
+    Transition closed = new Transition(State.CLOSED, System.currentTimeMillis());
+    if (state.getAndUpdate(current -> current.state == State.CLOSED ? current : closed).state
+        != State.CLOSED) {
+      log.info("The {} is available again, closing the circuit breaker", name);
+    }
+  }
+
+  /** Report a failed call: an I/O error, a timeout or a server error */
+  public void onFailure() {
+    Transition halfOpen = state.get();
+    if (halfOpen.state == State.HALF_OPEN
+        && state.compareAndSet(halfOpen, new Transition(State.OPEN, System.currentTimeMillis()))) {
+      opened.increment();
+      log.warn("The {} is still unavailable, rejecting the calls for {} ms", name, openMillis);
+      return;
+    }
+    if (failureThreshold <= 0 || consecutiveFailures.incrementAndGet() < failureThreshold) {
+      return;
+    }
+    Transition closed = state.get();
+    if (closed.state == State.CLOSED
+        && state.compareAndSet(closed, new Transition(State.OPEN, System.currentTimeMillis()))) {
+      opened.increment();
+      log.warn(
+          "The {} failed {} times in a row, rejecting the calls for {} ms",
+          name,
+          consecutiveFailures.get(),
+          openMillis);
+    }
+  }
+
+  /** The current state of the breaker */
+  public State state() {
+    return state.get().state;
+  }
+
+  /** The number of calls rejected while the breaker was open */
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  /** The number of times the breaker opened */
+  public long openedCount() {
+    return opened.sum();
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The cookie payload compression codecs
+ *
+ * <p>The compressed payload starts with a version byte identifying the codec used to compress it,
+ * so that the cookies written with another codec remain readable. The legacy gzip payloads have no
+ * version byte and are identified by the gzip magic number.
+ */
+public enum CompressionCodec {
+
+  /** Gzip stream (legacy format), identified by the first byte of the gzip magic number */
+  GZIP((byte) 0x1f) {
+    @Override
+    void encode(byte[] data, int offset, int length, OutputStream out) throws IOException {
+      try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+        gzip.write(data, offset, length);
+      }
+    }
+
+    @Override
+    InputStream decode(byte[] data, int offset, int length) throws IOException {
+      return new GZIPInputStream(new ByteArrayInputStream(data, offset, length));
+    }
+  },
+
+  /** Uncompressed payload, used when the compression does not shrink the payload */
+  STORE((byte) 0x01) {
+    @Override
+    void encode(byte[] data, int offset, int length, OutputStream out) throws IOException {
+      out.write(id());
+      out.write(data, offset, length);
+    }
+
+    @Override
+    InputStream decode(byte[] data, int offset, int length) {
+      return new ByteArrayInputStream(data, offset + 1, length - 1);
+    }
+  },
+
+  /** Raw deflate with a preset dictionary tuned for the short JSON claim sets */
+  DEFLATE((byte) 0x02) {
+    @Override
+    void encode(byte[] data, int offset, int length, OutputStream out) throws IOException {
+      Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+      try {
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        out.write(id());
+        byte[] buffer = new byte[512];
+        while (!deflater.finished()) {
+          out.write(buffer, 0, deflater.deflate(buffer));
+        }
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    InputStream decode(byte[] data, int offset, int length) {
+      Inflater inflater = new Inflater(true);
+      inflater.setDictionary(DICTIONARY);
+      return new InflaterInputStream(
+          new ByteArrayInputStream(data, offset + 1, length - 1), inflater, 512) {
+        @Override
+        public void close() throws IOException {
+          // Release the native memory of the non-default inflater
+          inflater.end();
+          super.close();
+        }
+      };
+    }
+  };
+
+  /**
+   * The preset dictionary built from the common {@link io.okdp.spark.authc.model.PersistedToken}
+   * and {@link io.okdp.spark.authc.model.UserInfo} field names and claim values. Deflate encodes
+   * the closest matches with the shortest distances, so the most frequent strings come last.
+   *
+   * <p>Changing the dictionary breaks the existing cookies: add a new codec version instead.
+   */
+  private static final byte[] DICTIONARY =
+      ("\"uma_authorization\",\"offline_access\",\"default-roles-"
+              + "eyJhbGciOiJIUzUxMiIsInR5cCIgOiAiSldUIiwia2lkIiA6I"
+              + "eyJhbGciOiJIUzI1NiIsInR5cCIgOiAiSldUIiwia2lkIiA6I"
+              + "\"groups\":[\"admins\",\"developers\",\"viewers\",\"users\"],"
+              + "\"roles\":[],\"groups\":[],"
+              + "{\"type\":\"google\"},{\"type\":\"sub\"},"
+              + "@gmail.com\",\"@example.org\","
+              + "\"expires_in\":300,\"expires_at\":\"2025-01-01T00:00:00.000Z\","
+              + "\"refresh_token\":\"\"}"
+              + "\"name\":\"\",\"email\":\""
+              + "{\"identity_provider\":{\"type\":\"email\"},\"access_token_payload\":{\"sub\":\"")
+          .getBytes(UTF_8);
+
+  private final byte id;
+
+  CompressionCodec(byte id) {
+    this.id = id;
+  }
+
+  /** The version byte identifying the codec in the compressed payload */
+  public byte id() {
+    return id;
+  }
+
+  abstract void encode(byte[] data, int offset, int length, OutputStream out) throws IOException;
+
+  abstract InputStream decode(byte[] data, int offset, int length) throws IOException;
+
+  /**
+   * Compress the provided data, or store it as is if the compression does not shrink it
+   *
+   * @param data the data to compress
+   * @return the compressed data prefixed with the codec version byte
+   */
+  public byte[] compress(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 1);
+    compress(data, 0, data.length, out);
+    return out.toByteArray();
+  }
+
+  /**
+   * Compress the provided data into the output buffer, or store it as is if the compression does
+   * not shrink it
+   *
+   * @param data the buffer containing the data to compress
+   * @param offset the offset in data where the data to compress starts
+   * @param length the length of the data to compress
+   * @param out the output buffer, reset before writing the compressed data prefixed with the codec
+   *     version byte
+   */
+  public void compress(byte[] data, int offset, int length, ByteArrayOutputStream out) {
+    try {
+      out.reset();
+      encode(data, offset, length, out);
+      if (out.size() > length) {
+        out.reset();
+        STORE.encode(data, offset, length, out);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Decompress the provided data with the codec identified by its version byte
+   *
+   * @param data the compressed data prefixed with the codec version byte
+   * @return the uncompressed data
+   */
+  public static byte[] decompress(byte[] data) {
+    try (InputStream in = decompress(data, 0, data.length)) {
+      return ByteStreams.toByteArray(in);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Stream the decompressed data with the codec identified by its version byte
+   *
+   * @param data the buffer containing the compressed data prefixed with the codec version byte
+   * @param offset the offset in data where the compressed data starts
+   * @param length the length of the compressed data
+   * @return the uncompressed data stream, to be closed by the caller
+   */
+  public static InputStream decompress(byte[] data, int offset, int length) {
+    if (length <= 0) {
+      throw new IllegalArgumentException("The compressed payload is empty");
+    }
+    try {
+      return of(data[offset]).decode(data, offset, length);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+  /**
+   * Find the codec by its name (gzip|deflate|store)
+   *
+   * @param name the codec name, case insensitive
+   */
+  public static CompressionCodec from(String name) {
+    for (CompressionCodec codec : values()) {
+      if (codec.name().equalsIgnoreCase(name.trim())) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException(
+        format(
+            "Unsupported cookie compression codec '%s', expected one of: %s",
+            name, Arrays.toString(values())));
+  }
+
+  private static CompressionCodec of(byte id) {
+    for (CompressionCodec codec : values()) {
+      if (codec.id == id) {
+        return codec;
+      }
+    }
+    throw new IllegalArgumentException(format("Unsupported compression codec version: %s", id));
+  }
+}
@@ -18,45 +18,37 @@ package io.okdp.spark.authc.utils;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.common.io.ByteStreams;
 import io.okdp.spark.authc.config.Constants;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /** Compression utility methods */
 public class CompressionUtils implements Constants {
 
   /**
    * @param text the plain text message to compress
-   * @return the compressed text as BASE64 string
+   * @return the gzip compressed text as BASE64 string
    */
   public static String compressToString(String text) {
-    try {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      GZIPOutputStream gzip = new GZIPOutputStream(out);
-      gzip.write(text.getBytes(UTF_8));
-      gzip.close();
-      return BASE64_ENCODER.encodeToString(out.toByteArray());
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    return compressToString(text, CompressionCodec.GZIP);
+  }
+
+  /**
+   * @param text the plain text message to compress
+   * @param codec the compression codec to use
+   * @return the compressed text as BASE64 string
+   */
+  public static String compressToString(String text, CompressionCodec codec) {
+    return BASE64_ENCODER.encodeToString(codec.compress(text.getBytes(UTF_8)));
   }
 
   /**
+   * Uncompress the text compressed with any of the {@link CompressionCodec}s, including the legacy
+   * gzip format
+   *
    * @param base64Compressed the base64 compressed text
    * @return the uncompressed message as plain text
    */
   public static String decompress(String base64Compressed) {
-    try {
-      byte[] decoded = BASE64_DECODER.decode(base64Compressed.getBytes(UTF_8));
-      ByteArrayInputStream in = new ByteArrayInputStream(decoded);
-      GZIPInputStream gunzip = new GZIPInputStream(in);
-      return new String(ByteStreams.toByteArray(gunzip), UTF_8);
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+    byte[] decoded = BASE64_DECODER.decode(base64Compressed.getBytes(UTF_8));
+    return new String(CompressionCodec.decompress(decoded), UTF_8);
   }
 }
@@ -26,6 +26,8 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -53,6 +55,100 @@ public class HttpAuthenticationUtils implements Constants {
         .filter(v -> !Strings.isNullOrEmpty(v));
   }
 
+  /**
+   * Get the session cookie value from the provided ServletRequest, reassembling it from its chunks
+   * if it was split across several cookies (cookieName_0..cookieName_N-1)
+   *
+   * @param cookieName the session cookie name
+   * @param maxChunks the maximum number of chunks the session cookie is split into (cookie max
+   *     chunks), a cookie announcing more chunks is ignored
+   * @param request the {@link ServletRequest}
+   * @return the cookie content if the cookie and all its chunks exist or return empty otherwise
+   */
+  public static Optional<String> getChunkedCookieValue(
+      String cookieName, int maxChunks, ServletRequest request) {
+    Optional<String> maybeValue = getCookieValue(cookieName, request);
+    if (!maybeValue.isPresent() || !maybeValue.get().startsWith(AUTH_COOKIE_CHUNKS_PREFIX)) {
+      return maybeValue;
+    }
+    int chunkCount;
+    try {
+      chunkCount = Integer.parseInt(maybeValue.get().substring(AUTH_COOKIE_CHUNKS_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      chunkCount = -1;
+    }
+    if (chunkCount <= 0 || chunkCount > maxChunks) {
+      log.warn("Invalid chunked cookie {} value: {}", cookieName, maybeValue.get());
+      return Optional.empty();
+    }
+    Map<String, String> cookies =
+        StreamEx.of(((HttpServletRequest) request).getCookies())
+            .toMap(Cookie::getName, Cookie::getValue, (first, second) -> first);
+    StringBuilder value = new StringBuilder(chunkCount * AUTH_COOKIE_CHUNK_SIZE);
+    for (int i = 0; i < chunkCount; i++) {
+      String chunk = cookies.get(cookieChunkName(cookieName, i));
+      if (Strings.isNullOrEmpty(chunk)) {
+        log.warn(
+            "The chunk {} of the cookie {} is missing ({} chunks expected)",
+            i,
+            cookieName,
+            chunkCount);
+        return Optional.empty();
+      }
+      value.append(chunk);
+    }
+    return Optional.of(value.toString());
+  }
+
+  /**
+   * The name of the cookie holding the chunk at the provided index
+   *
+   * @param cookieName the session cookie name
+   * @param index the chunk index
+   */
+  public static String cookieChunkName(String cookieName, int index) {
+    return cookieName + "_" + index;
+  }
+
+  /**
+   * Add the saved session cookies to the response, and expire the chunks left in the browser by a
+   * previous larger session
+   *
+   * @param cookies the main session cookie followed by its chunks, if any
+   * @param request the {@link ServletRequest}
+   * @param response the {@link ServletResponse}
+   */
+  public static void addChunkedCookies(
+      List<Cookie> cookies, ServletRequest request, ServletResponse response) {
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    cookies.forEach(httpResponse::addCookie);
+    Cookie mainCookie = cookies.get(0);
+    String chunkPrefix = mainCookie.getName() + "_";
+    int chunkCount = cookies.size() - 1;
+    StreamEx.of(ofNullable(((HttpServletRequest) request).getCookies()).orElse(new Cookie[0]))
+        .map(Cookie::getName)
+        .filter(name -> name.startsWith(chunkPrefix))
+        .filter(
+            name -> {
+              String index = name.substring(chunkPrefix.length());
+              return !index.isEmpty()
+                  && index.chars().allMatch(Character::isDigit)
+                  && index.length() <= 3
+                  && Integer.parseInt(index) >= chunkCount;
+            })
+        .distinct()
+        .forEach(
+            name -> {
+              Cookie stale = new Cookie(name, "");
+              stale.setMaxAge(0);
+              stale.setDomain(mainCookie.getDomain());
+              stale.setPath(mainCookie.getPath());
+              stale.setHttpOnly(mainCookie.isHttpOnly());
+              stale.setSecure(mainCookie.getSecure());
+              httpResponse.addCookie(stale);
+            });
+  }
+
   /**
    * Get the first header value matching the provided headerName from the provided ServletRequest
    *
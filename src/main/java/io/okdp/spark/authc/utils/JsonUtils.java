@@ -22,7 +22,10 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.okdp.spark.authc.exception.OidcClientException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URL;
+import java.net.URLConnection;
 
 /** Json utility methods */
 public class JsonUtils {
@@ -43,6 +46,29 @@ public class JsonUtils {
     }
   }
 
+  /**
+   * Method to deserialize JSON content from given url into given Java type, with bounded connect
+   * and read timeouts.
+   *
+   * @param url the external url containing the json content
+   * @param type the object class type where to load the object
+   * @param timeoutMillis the connect and the read timeouts
+   * @throws OidcClientException if the underlying input source has issues during access or parsing
+   */
+  public static <T> T loadJsonFromUrl(String url, Class<T> type, int timeoutMillis)
+      throws OidcClientException {
+    try {
+      URLConnection connection = new URL(url).openConnection();
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      try (InputStream in = connection.getInputStream()) {
+        return mapper.readValue(in, type);
+      }
+    } catch (IOException e) {
+      throw new OidcClientException(format("Unable te fetch json data from Url: %s", url), e);
+    }
+  }
+
   /**
    * Method to deserialize JSON content from given json string into given Java type.
    *
@@ -58,6 +84,36 @@ public class JsonUtils {
     }
   }
 
+  /**
+   * Method to deserialize JSON content from given input stream into given Java type.
+   *
+   * @param in the input stream containing the json content, closed once read
+   * @param type the object class type where to load the object
+   * @throws OidcClientException if the underlying input source has issues during access or parsing
+   */
+  public static <T> T loadJsonFromStream(InputStream in, Class<T> type) throws RuntimeException {
+    try {
+      return mapper.readValue(in, type);
+    } catch (IOException e) {
+      throw new OidcClientException(format("Unable to load json data into the class %s", type), e);
+    }
+  }
+
+  /**
+   * Method to serialize JSON java object into an output stream.
+   *
+   * @param type the object to serialize
+   * @param out the output stream where to write the json content
+   * @throws OidcClientException if the underlying output has issues during serialization
+   */
+  public static <T> void writeJson(T type, OutputStream out) throws RuntimeException {
+    try {
+      mapper.writeValue(out, type);
+    } catch (IOException e) {
+      throw new OidcClientException(e.getMessage(), e);
+    }
+  }
+
   /**
    * Method to serialize JSON java object into a string.
    *
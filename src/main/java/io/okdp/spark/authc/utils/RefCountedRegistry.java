@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import lombok.NonNull;
+
+/**
+ * Share a single instance per key between its owners
+ *
+ * <p>The instance is created by the first owner acquiring the key, the next owners reuse it. The
+ * instance is handed back to the last owner releasing the key, which then closes it.
+ *
+ * <p>The instances are created outside of any lock, the owners of the other keys are not blocked
+ * by a slow creation.
+ *
+ * @param <K> the key of the shared instances
+ * @param <V> the shared instances
+ */
+public final class RefCountedRegistry<K, V> {
+
+  private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Acquire the instance of the key, or create it if the key is not yet acquired
+   *
+   * <p>The other owners of the key wait while the instance is created, so that it is only created
+   * once. If the creation fails, the waiting owners attempt to create it in turn.
+   *
+   * @param key the key of the instance
+   * @param factory creates the instance if the key is not yet acquired
+   * @return the shared instance
+   * @throws E if the instance creation failed, the key is then not acquired
+   */
+  public <E extends Exception> V acquire(@NonNull K key, Factory<V, E> factory) throws E {
+    while (true) {
+      CompletableFuture<V> creation = new CompletableFuture<>();
+      Entry<V> entry =
+          entries.compute(
+              key,
+              (k, acquired) -> {
+                Entry<V> owned = acquired != null ? acquired : new Entry<>(creation);
+                owned.refCount++;
+                return owned;
+              });
+      if (entry.instance != creation) {
+        try {
+          return entry.instance.join();
+        } catch (CompletionException e) {
+          // The creation failed and the entry was removed along with its owners, retry
+          continue;
+        }
+      }
+      V instance;
+      try {
+        instance = factory.create();
+      } catch (Exception | Error e) {
+        entries.remove(key, entry);
+        creation.completeExceptionally(e);
+        throw e;
+      }
+      creation.complete(instance);
+      return instance;
+    }
+  }
+
+  /**
+   * Release the instance of the key
+   *
+   * @param key the key of the instance
+   * @return the instance if the last owner released it, null if it is still used by other owners
+   */
+  public V release(@NonNull K key) {
+    List<Entry<V>> released = new ArrayList<>(1);
+    entries.computeIfPresent(
+        key,
+        (k, entry) -> {
+          if (--entry.refCount > 0) {
+            return entry;
+          }
+          released.add(entry);
+          return null;
+        });
+    return released.isEmpty() ? null : released.get(0).instance.join();
+  }
+
+  /** The number of owners of the key */
+  public int refCount(@NonNull K key) {
+    Entry<V> entry = entries.get(key);
+    return entry == null ? 0 : entry.refCount;
+  }
+
+  /** Create a shared instance */
+  @FunctionalInterface
+  public interface Factory<V, E extends Exception> {
+    V create() throws E;
+  }
+
+  private static final class Entry<V> {
+    private final CompletableFuture<V> instance;
+    // Updated under the lock of the entry key
+    private volatile int refCount;
+
+    private Entry(CompletableFuture<V> instance) {
+      this.instance = instance;
+    }
+  }
+}
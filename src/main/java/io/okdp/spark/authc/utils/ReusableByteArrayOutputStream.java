@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * {@link ByteArrayOutputStream} exposing its internal buffer, so that it can be reused across
+ * requests by the thread that owns it without copying its content
+ *
+ * <p>The buffers grown beyond the retained capacity are dropped on {@link #recycle()}, so that an
+ * unusually large payload does not stay pinned in memory.
+ */
+public class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+  private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+  private final int initialCapacity;
+
+  public ReusableByteArrayOutputStream(int initialCapacity) {
+    super(initialCapacity);
+    this.initialCapacity = initialCapacity;
+  }
+
+  /**
+   * Create a per-thread reusable buffer
+   *
+   * @param initialCapacity the initial buffer capacity
+   */
+  public static ThreadLocal<ReusableByteArrayOutputStream> threadLocal(int initialCapacity) {
+    return ThreadLocal.withInitial(() -> new ReusableByteArrayOutputStream(initialCapacity));
+  }
+
+  /** The internal buffer, the valid data is in the range [0, {@link #size()}) */
+  public byte[] buffer() {
+    return buf;
+  }
+
+  /**
+   * Grow the internal buffer if needed, keeping its content
+   *
+   * @param minCapacity the minimum buffer capacity
+   * @return the internal buffer
+   */
+  public byte[] buffer(int minCapacity) {
+    if (buf.length < minCapacity) {
+      byte[] grown = new byte[Math.max(minCapacity, buf.length * 2)];
+      System.arraycopy(buf, 0, grown, 0, count);
+      buf = grown;
+    }
+    return buf;
+  }
+
+  /** Reset the stream, dropping the internal buffer if it grew beyond the retained capacity */
+  public ReusableByteArrayOutputStream recycle() {
+    if (buf.length > MAX_RETAINED_CAPACITY) {
+      buf = new byte[initialCapacity];
+    }
+    reset();
+    return this;
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static java.lang.String.format;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.okdp.spark.authc.exception.AuthenticationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.HttpStatus;
+
+/**
+ * Coalesce the concurrent calls sharing the same key, so that only the first caller runs the call
+ * and the other ones wait for its result
+ *
+ * <p>The call runs in the thread of the first caller. The other callers wait for its result at
+ * most the provided timeout, and share its failure if the call fails. The successful results can
+ * optionally be retained for a short time, so that the callers arriving just after the call
+ * completed reuse the same result.
+ *
+ * @param <K> the key of the calls
+ * @param <V> the result of the calls
+ */
+@Slf4j
+public final class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final Cache<K, V> completed;
+  private final long timeoutMillis;
+
+  private SingleFlight(long timeoutMillis, long retentionMillis) {
+    this.timeoutMillis = timeoutMillis;
+    this.completed =
+        retentionMillis > 0
+            ? CacheBuilder.newBuilder()
+                .expireAfterWrite(retentionMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(10_000)
+                .build()
+            : null;
+  }
+
+  /**
+   * Create a single flight group
+   *
+   * @param timeout the maximum time the callers wait for the result of the running call
+   * @param retention the time the successful results are reused, 0 to only share the running calls
+   * @param unit the time unit of the timeout and the retention
+   */
+  public static <K, V> SingleFlight<K, V> of(long timeout, long retention, TimeUnit unit) {
+    return new SingleFlight<>(unit.toMillis(timeout), unit.toMillis(retention));
+  }
+
+  /**
+   * Run the call, or wait for the result of the call already running with the same key
+   *
+   * @param key the key of the call
+   * @param call the call to run if no call with the same key is running
+   * @return the result of the call
+   * @throws AuthenticationException if the call failed, or if its result was not available in time
+   */
+  public V execute(@NonNull K key, @NonNull Supplier<V> call) throws AuthenticationException {
+    V result = completed == null ? null : completed.getIfPresent(key);
+    if (result != null) {
+      return result;
+    }
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      log.debug("Waiting for the result of the running call");
+      return await(running);
+    }
+    try {
+      // The previous call may have completed in the meantime
+      result = completed == null ? null : completed.getIfPresent(key);
+      if (result == null) {
+        result = call.get();
+        if (completed != null && result != null) {
+          completed.put(key, result);
+        }
+      }
+      flight.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Start the asynchronous call, or join the call already running with the same key
+   *
+   * <p>The running call is shared with the blocking callers of {@link #execute(Object, Supplier)}.
+   * The returned future is bounded by the timeouts of the asynchronous call itself.
+   *
+   * @param key the key of the call
+   * @param call the asynchronous call to start if no call with the same key is running
+   * @return the result of the call, completed exceptionally if the call failed
+   */
+  public CompletableFuture<V> executeAsync(
+      @NonNull K key, @NonNull Supplier<CompletableFuture<V>> call) {
+    V result = completed == null ? null : completed.getIfPresent(key);
+    if (result != null) {
+      return CompletableFuture.completedFuture(result);
+    }
+    CompletableFuture<V> flight = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      log.debug("Joining the running call");
+      return running;
+    }
+    result = completed == null ? null : completed.getIfPresent(key);
+    CompletableFuture<V> started;
+    try {
+      started = result != null ? CompletableFuture.completedFuture(result) : call.get();
+    } catch (RuntimeException e) {
+      started = new CompletableFuture<>();
+      started.completeExceptionally(e);
+    }
+    started.whenComplete(
+        (value, e) -> {
+          if (e == null && completed != null && value != null) {
+            completed.put(key, value);
+          }
+          inFlight.remove(key, flight);
+          if (e != null) {
+            flight.completeExceptionally(
+                e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+          } else {
+            flight.complete(value);
+          }
+        });
+    return flight;
+  }
+
+  /** The number of calls currently running */
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+
+  private V await(CompletableFuture<V> running) {
+    try {
+      return running.get(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof AuthenticationException) {
+        throw (AuthenticationException) e.getCause();
+      }
+      throw new AuthenticationException(e.getCause().getMessage(), e.getCause());
+    } catch (TimeoutException e) {
+      throw new AuthenticationException(
+          HttpStatus.SC_GATEWAY_TIMEOUT,
+          format("Timed out after %s ms waiting for the oidc provider response", timeoutMillis));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AuthenticationException(e.getMessage(), e);
+    }
+  }
+}
@@ -0,0 +1,265 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.IdentityProvider;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
+import io.okdp.spark.authc.provider.impl.GoogleIdentityProvider;
+import io.okdp.spark.authc.provider.impl.SubIdentityProvider;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The {@link PersistedToken} serialization formats
+ *
+ * <p>The binary format starts with a format version byte which never matches the opening '{' of
+ * the json format, so that the tokens serialized with either of them can be read back whatever the
+ * configured format is. The binary layout (version 1) is:
+ *
+ * <pre>
+ * version (1 byte) | identity provider tag (1 byte) | expires_in (varint)
+ * | expires_at epoch seconds (varint) | has user info (1 byte)
+ * [ | sub | name | email | groups | roles ] | refresh_token
+ * </pre>
+ *
+ * <p>The strings are prefixed by their UTF-8 length + 1 as a varint (0 for null), and the lists by
+ * their size as a varint.
+ */
+public enum TokenFormat {
+
+  /** Jackson json serialization */
+  JSON {
+    @Override
+    public void write(PersistedToken persistedToken, OutputStream out) {
+      JsonUtils.writeJson(persistedToken, out);
+    }
+  },
+
+  /** Compact binary serialization */
+  BINARY {
+    @Override
+    public void write(PersistedToken persistedToken, OutputStream out) {
+      try {
+        out.write(BINARY_FORMAT_VERSION);
+        out.write(identityProviderTag(persistedToken.identityProvider()));
+        writeVarLong(out, persistedToken.expiresIn() & 0xFFFFFFFFL);
+        writeVarLong(out, persistedToken.expiresAt().getTime() / 1000);
+        UserInfo userInfo = persistedToken.userInfo();
+        out.write(userInfo == null ? 0 : 1);
+        if (userInfo != null) {
+          writeString(out, userInfo.sub());
+          writeString(out, userInfo.name());
+          writeString(out, userInfo.email());
+          writeStrings(out, userInfo.groups());
+          writeStrings(out, userInfo.roles());
+        }
+        writeString(out, persistedToken.refreshToken());
+      } catch (IOException e) {
+        throw new OidcClientException(e.getMessage(), e);
+      }
+    }
+  };
+
+  private static final int BINARY_FORMAT_VERSION = 0x01;
+
+  /** Guard against the corrupted lengths, far beyond any cookie size */
+  private static final int MAX_STRING_LENGTH = 64 * 1024;
+
+  /** The identity providers, indexed by their binary tag: append only */
+  private static final List<Class<? extends IdentityProvider>> IDENTITY_PROVIDERS =
+      Arrays.asList(
+          EmailIdentityProvider.class, SubIdentityProvider.class, GoogleIdentityProvider.class);
+
+  /**
+   * Serialize the token into the output stream
+   *
+   * @param persistedToken the token to serialize
+   * @param out the output stream where to write the serialized token
+   */
+  public abstract void write(PersistedToken persistedToken, OutputStream out);
+
+  /**
+   * Deserialize the token written with any of the formats
+   *
+   * @param in the input stream containing the serialized token, closed once read
+   * @return the deserialized {@link PersistedToken}
+   */
+  public static PersistedToken read(InputStream in) {
+    try (PushbackInputStream pushback = new PushbackInputStream(in, 1)) {
+      int version = pushback.read();
+      if (version != BINARY_FORMAT_VERSION) {
+        if (version != -1) {
+          pushback.unread(version);
+        }
+        return JsonUtils.loadJsonFromStream(pushback, PersistedToken.class);
+      }
+      IdentityProvider identityProvider = identityProvider(readByte(pushback));
+      int expiresIn = (int) readVarLong(pushback);
+      Date expiresAt = new Date(readVarLong(pushback) * 1000);
+      UserInfo userInfo = null;
+      if (readByte(pushback) == 1) {
+        userInfo =
+            new UserInfo()
+                .sub(readString(pushback))
+                .name(readString(pushback))
+                .email(readString(pushback))
+                .groups(readStrings(pushback))
+                .roles(readStrings(pushback));
+      }
+      return PersistedToken.builder()
+          .identityProvider(identityProvider)
+          .expiresIn(expiresIn)
+          .expiresAt(expiresAt)
+          .userInfo(userInfo)
+          .refreshToken(readString(pushback))
+          .build();
+    } catch (IOException e) {
+      throw new OidcClientException(
+          format("Unable to load the binary data into the class %s", PersistedToken.class), e);
+    }
+  }
+
+  /**
+   * Find the format by its name (json|binary)
+   *
+   * @param name the format name, case insensitive
+   */
+  public static TokenFormat from(String name) {
+    for (TokenFormat tokenFormat : values()) {
+      if (tokenFormat.name().equalsIgnoreCase(name.trim())) {
+        return tokenFormat;
+      }
+    }
+    throw new IllegalArgumentException(
+        format(
+            "Unsupported token format '%s', expected one of: %s", name, Arrays.toString(values())));
+  }
+
+  private static int identityProviderTag(IdentityProvider identityProvider) {
+    int tag = IDENTITY_PROVIDERS.indexOf(identityProvider.getClass());
+    if (tag < 0) {
+      throw new IllegalArgumentException(
+          format("Unsupported identity provider %s", identityProvider.getClass()));
+    }
+    return tag;
+  }
+
+  private static IdentityProvider identityProvider(int tag) throws IOException {
+    switch (tag) {
+      case 0:
+        return new EmailIdentityProvider();
+      case 1:
+        return new SubIdentityProvider();
+      case 2:
+        return new GoogleIdentityProvider();
+      default:
+        throw new IOException(format("Unsupported identity provider tag: %s", tag));
+    }
+  }
+
+  private static void writeVarLong(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static void writeString(OutputStream out, String value) throws IOException {
+    if (value == null) {
+      writeVarLong(out, 0);
+      return;
+    }
+    byte[] bytes = value.getBytes(UTF_8);
+    writeVarLong(out, bytes.length + 1L);
+    out.write(bytes);
+  }
+
+  private static void writeStrings(OutputStream out, List<String> values) throws IOException {
+    List<String> list = values == null ? Collections.emptyList() : values;
+    writeVarLong(out, list.size());
+    for (String value : list) {
+      writeString(out, value);
+    }
+  }
+
+  private static int readByte(InputStream in) throws IOException {
+    int value = in.read();
+    if (value == -1) {
+      throw new EOFException("Truncated binary token");
+    }
+    return value;
+  }
+
+  private static long readVarLong(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte(in);
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint in binary token");
+  }
+
+  private static String readString(InputStream in) throws IOException {
+    long length = readVarLong(in);
+    if (length == 0) {
+      return null;
+    }
+    if (length - 1 > MAX_STRING_LENGTH) {
+      throw new IOException(format("String length %s exceeds the limit", length - 1));
+    }
+    byte[] bytes = new byte[(int) (length - 1)];
+    int read = 0;
+    while (read < bytes.length) {
+      int n = in.read(bytes, read, bytes.length - read);
+      if (n == -1) {
+        throw new EOFException("Truncated binary token");
+      }
+      read += n;
+    }
+    return new String(bytes, UTF_8);
+  }
+
+  private static List<String> readStrings(InputStream in) throws IOException {
+    long size = readVarLong(in);
+    if (size > MAX_STRING_LENGTH) {
+      throw new IOException(format("List size %s exceeds the limit", size));
+    }
+    List<String> values = new ArrayList<>((int) size);
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+}
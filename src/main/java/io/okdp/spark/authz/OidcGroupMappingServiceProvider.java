@@ -16,15 +16,21 @@
 
 package io.okdp.spark.authz;
 
-import static java.util.Collections.emptyList;
+import static io.okdp.spark.authc.config.Constants.AUTH_GROUP_CACHE_DEFAULT_CONCURRENCY_LEVEL;
+import static io.okdp.spark.authc.config.Constants.AUTH_GROUP_CACHE_DEFAULT_MAX_SIZE;
+import static io.okdp.spark.authc.config.Constants.AUTH_GROUP_CACHE_DEFAULT_TTL_MINUTES;
 import static java.util.concurrent.TimeUnit.MINUTES;
 import static scala.collection.JavaConverters.asScalaSet;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.security.GroupMappingServiceProvider;
 import scala.collection.immutable.Set;
@@ -34,28 +40,155 @@ import scala.collection.immutable.Set;
  * This implementation fetches the list of the groups membership of the user which are already
  * cached during the authentication phase. The groups correspond to the roles and groups claims
  * returned by the OIDC provider.
+ *
+ * <p>The cache entries expire after the configured time without any access, so that the active
+ * users keep their groups, and are only written when the groups of the user change.
+ *
+ * <p>The spark {@link org.apache.spark.SecurityManager} calls {@link #getGroups(String)} on every
+ * ACL check (Ex.: once per application of the History Server applications list), so the immutable
+ * scala set of the groups is built once per user when the groups are cached, and the group names
+ * are interned across the users.
+ *
+ * <p>The filter also binds the groups of the authenticated user to the request thread with {@link
+ * #requestScope(String, List)}, so that the ACL checks done while serving the request do not depend
+ * on the shared cache. The cache remains the fallback for the lookups done outside of the request
+ * thread.
  */
 @Slf4j
 public class OidcGroupMappingServiceProvider implements GroupMappingServiceProvider {
+  private static final Set<String> NO_GROUPS = asScalaSet(new HashSet<String>()).toSet();
+  private static final Interner<String> GROUP_NAMES = Interners.newWeakInterner();
+  private static final ThreadLocal<UserGroups> REQUEST_GROUPS = new ThreadLocal<>();
   // The user entry is added within the same http request
-  private static final Cache<String, List<String>> userGroupsCache =
-      CacheBuilder.newBuilder().expireAfterWrite(59, MINUTES).maximumSize(1000).build();
+  private static volatile Cache<String, UserGroups> userGroupsCache =
+      newCache(
+          AUTH_GROUP_CACHE_DEFAULT_MAX_SIZE,
+          AUTH_GROUP_CACHE_DEFAULT_TTL_MINUTES,
+          AUTH_GROUP_CACHE_DEFAULT_CONCURRENCY_LEVEL);
 
   public OidcGroupMappingServiceProvider() {
     log.info("Initializing {} ...", OidcGroupMappingServiceProvider.class);
   }
 
+  /**
+   * Resize the user/groups cache, the already cached users are kept
+   *
+   * @param maximumSize the maximum number of cached users
+   * @param ttlMinutes the time after which an entry expires when the user is no longer active
+   * @param concurrencyLevel the number of concurrently updatable segments of the cache
+   */
+  public static synchronized void configure(
+      long maximumSize, long ttlMinutes, int concurrencyLevel) {
+    log.info(
+        "Configuring the user/groups cache (max-size: {}, ttl (minutes): {},"
+            + " concurrency-level: {}) ...",
+        maximumSize,
+        ttlMinutes,
+        concurrencyLevel);
+    Cache<String, UserGroups> cache = newCache(maximumSize, ttlMinutes, concurrencyLevel);
+    cache.putAll(userGroupsCache.asMap());
+    userGroupsCache = cache;
+  }
+
   public static void addUserAndGroups(String authenticatedUser, List<String> groups) {
-    userGroupsCache.put(authenticatedUser, groups);
+    cacheUserAndGroups(authenticatedUser, groups);
+  }
+
+  /**
+   * Cache the groups of the authenticated user and bind them to the current thread until the
+   * returned scope is closed
+   *
+   * <pre>
+   * try (RequestScope ignored = requestScope(user, groups)) {
+   *   filterChain.doFilter(request, response);
+   * }
+   * </pre>
+   *
+   * @param authenticatedUser the authenticated user
+   * @param groups the groups and roles of the user
+   * @return the scope restoring the previous binding of the thread once closed
+   */
+  public static RequestScope requestScope(String authenticatedUser, List<String> groups) {
+    UserGroups previous = REQUEST_GROUPS.get();
+    REQUEST_GROUPS.set(cacheUserAndGroups(authenticatedUser, groups));
+    return () -> {
+      if (previous == null) {
+        REQUEST_GROUPS.remove();
+      } else {
+        REQUEST_GROUPS.set(previous);
+      }
+    };
   }
 
   @Override
   public Set<String> getGroups(String authenticatedUser) {
-    List<String> groups =
-        Optional.ofNullable(userGroupsCache.getIfPresent(authenticatedUser)).orElse(emptyList());
+    UserGroups userGroups = REQUEST_GROUPS.get();
+    if (userGroups == null || !userGroups.user.equals(authenticatedUser)) {
+      userGroups = userGroupsCache.getIfPresent(authenticatedUser);
+    }
+    Set<String> groups = userGroups == null ? NO_GROUPS : userGroups.scalaGroups;
     log.debug("Authorization - The user {} is member of the groups: {}", authenticatedUser, groups);
-    // scala.collection.JavaConverters is deprecated in scala 2.13
-    // and replaced by scala.jdk.CollectionConverters
-    return asScalaSet(new HashSet<>(groups)).toSet();
+    return groups;
+  }
+
+  /** The hit, miss and eviction statistics of the user/groups cache */
+  public static CacheStats groupCacheStats() {
+    return userGroupsCache.stats();
+  }
+
+  /** The approximate number of users in the user/groups cache */
+  public static long groupCacheSize() {
+    return userGroupsCache.size();
+  }
+
+  private static UserGroups cacheUserAndGroups(String authenticatedUser, List<String> groups) {
+    Cache<String, UserGroups> cache = userGroupsCache;
+    // Only write on change: the lookup also extends the entry expiry of the active users
+    UserGroups cached = cache.getIfPresent(authenticatedUser);
+    if (cached != null && cached.groups.equals(groups)) {
+      return cached;
+    }
+    UserGroups userGroups = new UserGroups(authenticatedUser, groups);
+    cache.put(authenticatedUser, userGroups);
+    return userGroups;
+  }
+
+  private static Cache<String, UserGroups> newCache(
+      long maximumSize, long ttlMinutes, int concurrencyLevel) {
+    return CacheBuilder.newBuilder()
+        .expireAfterAccess(ttlMinutes, MINUTES)
+        .maximumSize(maximumSize)
+        .concurrencyLevel(concurrencyLevel)
+        .recordStats()
+        .build();
+  }
+
+  /** The binding of the user groups to the current thread, see {@link #requestScope} */
+  public interface RequestScope extends AutoCloseable {
+    /** Restore the previous binding of the thread */
+    @Override
+    void close();
+  }
+
+  /** The cached groups of a user, along with their ready to use immutable scala set */
+  private static final class UserGroups {
+    private final String user;
+    private final List<String> groups;
+    private final Set<String> scalaGroups;
+
+    private UserGroups(String user, List<String> groups) {
+      this.user = user;
+      ImmutableList.Builder<String> interned = ImmutableList.builder();
+      LinkedHashSet<String> distinct = new LinkedHashSet<>();
+      for (String group : groups) {
+        String name = GROUP_NAMES.intern(group);
+        interned.add(name);
+        distinct.add(name);
+      }
+      this.groups = interned.build();
+      // scala.collection.JavaConverters is deprecated in scala 2.13
+      // and replaced by scala.jdk.CollectionConverters
+      this.scalaGroups = asScalaSet(distinct).toSet();
+    }
   }
 }
@@ -27,8 +27,10 @@ import static scala.collection.JavaConverters.asScalaSet;
 
 import io.okdp.spark.authc.common.CommonTest;
 import io.okdp.spark.authc.config.Constants;
+import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.model.PersistedToken;
 import io.okdp.spark.authc.model.WellKnownConfiguration;
+import io.okdp.spark.authc.provider.AuthProvider;
 import io.okdp.spark.authc.provider.impl.DefaultAuthorizationCodeAuthProvider;
 import io.okdp.spark.authc.utils.JsonUtils;
 import io.okdp.spark.authz.OidcGroupMappingServiceProvider;
@@ -36,6 +38,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Field;
+import java.util.Collections;
 import java.util.HashSet;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -44,6 +47,8 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.HttpStatus;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.platform.suite.api.Suite;
@@ -76,6 +81,7 @@ public class OidcAuthFilterTest implements Constants, CommonTest {
           + ".hGlrvV_xXpc3h29S3KvYt11bftXnJ6cIu9Db_7Z6dgueVfmmBvB5Ml8inGfaUKj5KzBFvVS2YeSxLfr4yu4H0KWOKUyTIjkQqeGXh0JfOrKvIIViTxKi1U1OKnNmZxTYJCjJzjqvwZAgxlZRcEdizbH4wsNCYmQO9NUJDeULVlv0V7AkvS6jX0k2OrseOSh526l-SyhRVx8d4IXLHDRbr5ulnuR3nlhuUiILCtbpJFCHGB-XuwEkETRvL6F8nMpapG0x_Sw1XL5XZ6OQ1NNYDt11mdKDlKtf9cQi5TbIyk_OJ_Oayr4JU-o3Y3ov6tMs1R2RxIVxZnBQlqp7x5_03g\"\n"
           + "}";
   private DefaultAuthorizationCodeAuthProvider oidcAuthProvider;
+  private final FilterConfig filterConfig = mock(FilterConfig.class);
 
   @BeforeEach
   public void setUp() throws NoSuchFieldException, IllegalAccessException {
@@ -83,7 +89,6 @@ public class OidcAuthFilterTest implements Constants, CommonTest {
     WellKnownConfiguration wlc =
         JsonUtils.loadJsonFromString(
             TEST_DEX_WELL_KNOWN_CONFIGURATION, WellKnownConfiguration.class);
-    FilterConfig filterConfig = mock(FilterConfig.class);
     try (MockedStatic<JsonUtils> jsonUtils = mockStatic(JsonUtils.class)) {
       jsonUtils
           .when(
@@ -115,6 +120,60 @@ public class OidcAuthFilterTest implements Constants, CommonTest {
     field.set(oidcAuthFilter, oidcAuthProvider);
   }
 
+  @AfterEach
+  public void tearDown() {
+    oidcAuthFilter.destroy();
+  }
+
+  @Test
+  void should_share_the_core_between_the_filters_with_the_same_configuration() throws Exception {
+    // Given
+    OidcAuthFilter otherFilter = new OidcAuthFilter();
+    Field field = OidcAuthFilter.class.getDeclaredField("authProvider");
+    field.setAccessible(true);
+
+    // When - The well known configuration is not fetched again
+    otherFilter.init(filterConfig);
+
+    // Then
+    AuthProvider sharedAuthProvider = (AuthProvider) field.get(otherFilter);
+    assertThat(sharedAuthProvider.httpSecurityConfig())
+        .isSameAs(oidcAuthProvider.httpSecurityConfig());
+    otherFilter.destroy();
+  }
+
+  @Test
+  void should_answer_503_until_the_background_initialization_completes() throws Exception {
+    // Given - The client id is missing, the background initialization keeps retrying
+    FilterConfig backgroundConfig = mock(FilterConfig.class);
+    when(backgroundConfig.getInitParameterNames())
+        .thenReturn(Collections.enumeration(asList(AUTH_BACKGROUND_INIT, AUTH_ISSUER_URI)));
+    when(backgroundConfig.getInitParameter(AUTH_BACKGROUND_INIT)).thenReturn("true");
+    when(backgroundConfig.getInitParameter(AUTH_ISSUER_URI)).thenReturn("http://127.0.0.1:1/dex");
+    OidcAuthFilter backgroundFilter = new OidcAuthFilter();
+    backgroundFilter.init(backgroundConfig);
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletRequest versionRequest = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    FilterChain chain = mock(FilterChain.class);
+    when(request.getRequestURI()).thenReturn("/jobs/");
+    when(versionRequest.getRequestURI()).thenReturn("/api/v1/version");
+
+    // When
+    try {
+      backgroundFilter.doFilter(request, response, chain);
+      backgroundFilter.doFilter(versionRequest, response, chain);
+    } finally {
+      backgroundFilter.destroy();
+    }
+
+    // Then
+    verify(response).setHeader("Retry-After", String.valueOf(AUTH_INIT_RETRY_AFTER_SECONDS));
+    verify(response).sendError(eq(HttpStatus.SC_SERVICE_UNAVAILABLE), anyString());
+    verify(chain, never()).doFilter(request, response);
+    verify(chain).doFilter(versionRequest, response);
+  }
+
   @Test
   void should_skip_authentication_for_static_content() throws IOException, ServletException {
     // Given
@@ -185,7 +244,9 @@ public class OidcAuthFilterTest implements Constants, CommonTest {
     // Set the authZ code request parameter
     when(request.getParameter(any(String.class))).thenReturn("kpxblxm2si3x6ofxufgo54h4j");
     // Return the access token from code
-    doReturn(accessTokenResponse).when(oidcAuthProvider).doExecute(any(Request.class));
+    doReturn(JsonUtils.loadJsonFromString(accessTokenResponse, AccessToken.class))
+        .when(oidcAuthProvider)
+        .doExecute(any(Request.class), eq(AccessToken.class));
 
     // When
     oidcAuthFilter.doFilter(request, response, chain);
@@ -220,7 +281,9 @@ public class OidcAuthFilterTest implements Constants, CommonTest {
     // Set the authZ code request parameter
     when(request.getParameter(any(String.class))).thenReturn("kpxblxm2si3x6ofxufgo54h4j");
     // Return the access token from code
-    doReturn(accessTokenResponse).when(oidcAuthProvider).doExecute(any(Request.class));
+    doReturn(JsonUtils.loadJsonFromString(accessTokenResponse, AccessToken.class))
+        .when(oidcAuthProvider)
+        .doExecute(any(Request.class), eq(AccessToken.class));
     // Authorization provider
     OidcGroupMappingServiceProvider groupMappingServiceProvider =
         new OidcGroupMappingServiceProvider();
@@ -0,0 +1,80 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.benchmark;
+
+import com.google.common.base.Strings;
+import io.okdp.spark.authc.utils.AesGcmCipher;
+import io.okdp.spark.authc.utils.EncryptionUtils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the static {@link EncryptionUtils} methods with the reusable {@link AesGcmCipher} engine
+ * on a cookie sized payload, from several threads as on a loaded History Server.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CipherBenchmark {
+
+  private static final String SECRET_KEY = "E132A72E815F496FFC49B3EC876754F4";
+
+  private AesGcmCipher cipher;
+  private String plainText;
+  private String encrypted;
+
+  @Setup
+  public void setUp() {
+    cipher = AesGcmCipher.of(SECRET_KEY);
+    plainText = Strings.repeat("H4sIAAAAAAAA/6tWKkktLlGyUlAqS8wpTVWqBQCmgE2jEgAAAA==", 40);
+    encrypted = EncryptionUtils.encryptToString(plainText, SECRET_KEY);
+  }
+
+  @Benchmark
+  public String encryptWithStaticMethods() {
+    return EncryptionUtils.encryptToString(plainText, SECRET_KEY);
+  }
+
+  @Benchmark
+  public String encryptWithCipherEngine() {
+    return cipher.encryptToString(plainText);
+  }
+
+  @Benchmark
+  public String decryptWithStaticMethods() {
+    return EncryptionUtils.decrypt(encrypted, SECRET_KEY);
+  }
+
+  @Benchmark
+  public String decryptWithCipherEngine() {
+    return cipher.decrypt(encrypted);
+  }
+}
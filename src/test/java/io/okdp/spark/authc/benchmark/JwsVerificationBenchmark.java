@@ -0,0 +1,118 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.benchmark;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.okdp.spark.authc.jwt.CachingJWSKeySelector;
+import io.okdp.spark.authc.jwt.CachingJWSVerifierFactory;
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the JWT header verification with the default nimbus key selector and verifier factory,
+ * converting the JWK and building a new verifier on every token, and with the cached keys and
+ * verifiers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JwsVerificationBenchmark {
+
+  @Param({"RS256", "ES256"})
+  private String algorithm;
+
+  @Param({"DEFAULT", "CACHED"})
+  private String verification;
+
+  private DefaultJWTProcessor<SecurityContext> jwtProcessor;
+  private String jwt;
+
+  @Setup
+  public void setUp() throws JOSEException {
+    JWSAlgorithm jwsAlgorithm = JWSAlgorithm.parse(algorithm);
+    JWK jwk;
+    JWSSigner signer;
+    if (JWSAlgorithm.Family.RSA.contains(jwsAlgorithm)) {
+      jwk = new RSAKeyGenerator(2048).keyID("rsa-key").generate();
+      signer = new RSASSASigner(jwk.toRSAKey());
+    } else {
+      jwk = new ECKeyGenerator(Curve.P_256).keyID("ec-key").generate();
+      signer = new ECDSASigner(jwk.toECKey());
+    }
+    SignedJWT signedJWT =
+        new SignedJWT(
+            new JWSHeader.Builder(jwsAlgorithm).keyID(jwk.getKeyID()).build(),
+            new JWTClaimsSet.Builder()
+                .subject("bob")
+                .issuer("https://idp.okdp.local")
+                .issueTime(new Date())
+                .expirationTime(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                .build());
+    signedJWT.sign(signer);
+    jwt = signedJWT.serialize();
+
+    JWKSource<SecurityContext> jwkSource = new ImmutableJWKSet<>(new JWKSet(jwk.toPublicJWK()));
+    jwtProcessor = new DefaultJWTProcessor<>();
+    if ("CACHED".equals(verification)) {
+      jwtProcessor.setJWSKeySelector(
+          new CachingJWSKeySelector<>(Collections.singleton(jwsAlgorithm), jwkSource));
+      jwtProcessor.setJWSVerifierFactory(new CachingJWSVerifierFactory());
+    } else {
+      jwtProcessor.setJWSKeySelector(
+          new JWSVerificationKeySelector<>(Collections.singleton(jwsAlgorithm), jwkSource));
+    }
+  }
+
+  @Benchmark
+  public JWTClaimsSet verify() throws ParseException, BadJOSEException, JOSEException {
+    return jwtProcessor.process(jwt, null);
+  }
+}
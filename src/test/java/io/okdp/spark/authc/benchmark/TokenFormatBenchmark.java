@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.benchmark;
+
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
+import io.okdp.spark.authc.utils.TokenFormat;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the json and binary {@link PersistedToken} serialization formats, the serialized sizes
+ * are checked by the TokenFormatTest
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TokenFormatBenchmark {
+
+  @Param({"JSON", "BINARY"})
+  private TokenFormat tokenFormat;
+
+  private PersistedToken token;
+  private byte[] serialized;
+
+  @Setup
+  public void setUp() {
+    token =
+        PersistedToken.builder()
+            .identityProvider(new EmailIdentityProvider())
+            .userInfo(
+                new UserInfo()
+                    .sub("CgRiaWxsEgRsZGFw")
+                    .name("bill")
+                    .email("bill@example.org")
+                    .groups(Arrays.asList("admins", "developers", "spark-users"))
+                    .roles(Arrays.asList("offline_access", "uma_authorization")))
+            .expiresIn(86399)
+            .expiresAt(Date.from(Instant.parse("2024-02-22T10:11:11Z")))
+            .refreshToken("ChlvaWJmNXBuaG1rdWN0enppaGltaWp1MnJkEhlndmdzZ2tmcnVhd2x6cGV1a2ZnajNqdjJr")
+            .build();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    tokenFormat.write(token, out);
+    serialized = out.toByteArray();
+  }
+
+  @Benchmark
+  public byte[] write() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+    tokenFormat.write(token, out);
+    return out.toByteArray();
+  }
+
+  @Benchmark
+  public PersistedToken read() {
+    return TokenFormat.read(new ByteArrayInputStream(serialized));
+  }
+}
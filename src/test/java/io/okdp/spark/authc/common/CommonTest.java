@@ -16,7 +16,13 @@
 
 package io.okdp.spark.authc.common;
 
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
 import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.core5.http.ClassicHttpRequest;
@@ -76,6 +82,17 @@ public interface CommonTest {
           + "  ]\n"
           + "}";
 
+  /** An expired access token of the user bob, member of the provided groups */
+  default PersistedToken persistedToken(List<String> groups) {
+    return PersistedToken.builder()
+        .identityProvider(new EmailIdentityProvider())
+        .userInfo(new UserInfo().sub("sub").name("bob").email("bob@example.org").groups(groups))
+        .refreshToken("refresh-token")
+        .expiresIn(60)
+        .expiresAt(Date.from(Instant.parse("2024-02-21T10:11:12Z")))
+        .build();
+  }
+
   abstract class NoopCloseableHttpClient extends CloseableHttpClient {
     @Override
     protected CloseableHttpResponse doExecute(
@@ -0,0 +1,176 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.config;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.okdp.spark.authc.model.OidcMetadataSnapshot;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OidcMetadataSnapshotStoreTest {
+
+  private static final String SIGNING_KEY = "p9Wx4kSkSMRcUKD2mDtsAw==";
+  private static final String JWKS = "{\"keys\":[]}";
+
+  @TempDir Path tempDir;
+
+  private HttpServer server;
+  private String issuerUri;
+  private final AtomicInteger notModified = new AtomicInteger();
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    issuerUri = "http://localhost:" + server.getAddress().getPort();
+    server.createContext(
+        "/.well-known/openid-configuration",
+        exchange ->
+            respond(
+                exchange,
+                "{\"issuer\":\"" + issuerUri + "\",\"jwks_uri\":\"" + issuerUri + "/jwks\"}",
+                "\"config-v1\""));
+    server.createContext("/jwks", exchange -> respond(exchange, JWKS, "\"jwks-v1\""));
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void should_save_then_load_the_snapshot() {
+    // Given
+    Path path = tempDir.resolve("oidc-metadata.json");
+    OidcMetadataSnapshotStore store = store(path);
+
+    // When
+    OidcMetadataSnapshot saved = store.revalidate(null);
+    OidcMetadataSnapshot loaded = store(path).load();
+
+    // Then
+    assertThat(Files.exists(path)).isTrue();
+    assertThat(loaded).isNotNull();
+    assertThat(loaded.issuer()).isEqualTo(issuerUri);
+    assertThat(loaded.jwks().body()).isEqualTo(JWKS);
+    assertThat(loaded.jwks().etag()).isEqualTo("\"jwks-v1\"");
+    assertThat(loaded.signature()).isEqualTo(saved.signature());
+  }
+
+  @Test
+  public void should_revalidate_the_snapshot_with_conditional_requests() {
+    // Given
+    Path path = tempDir.resolve("oidc-metadata.json");
+    OidcMetadataSnapshotStore store = store(path);
+    OidcMetadataSnapshot snapshot = store.revalidate(null);
+
+    // When
+    OidcMetadataSnapshot revalidated = store.revalidate(snapshot);
+
+    // Then
+    assertThat(notModified.get()).isEqualTo(2);
+    assertThat(revalidated.jwks().body()).isEqualTo(JWKS);
+    assertThat(revalidated.savedAt()).isGreaterThanOrEqualTo(snapshot.savedAt());
+  }
+
+  @Test
+  public void should_ignore_the_tampered_or_expired_snapshots() throws IOException {
+    // Given
+    Path path = tempDir.resolve("oidc-metadata.json");
+    store(path).revalidate(null);
+    String content = new String(Files.readAllBytes(path), UTF_8);
+    Path tampered = tempDir.resolve("tampered.json");
+    Files.write(tampered, content.replace("jwks-v1", "jwks-v2").getBytes(UTF_8));
+
+    // When / Then
+    assertThat(store(tampered).load()).isNull();
+    assertThat(store(issuerUri, path, "another-key", 60).load()).isNull();
+    assertThat(store("http://localhost", path, SIGNING_KEY, 60).load()).isNull();
+    assertThat(store(issuerUri, path, SIGNING_KEY, -1).load()).isNull();
+  }
+
+  @Test
+  public void should_not_serve_the_jwks_older_than_its_max_age() {
+    // Given
+    Path path = tempDir.resolve("oidc-metadata.json");
+    store(path).revalidate(null);
+    OidcMetadataSnapshotStore store =
+        OidcMetadataSnapshotStore.of(issuerUri, path.toString(), null, SIGNING_KEY, 60, -1, 1000);
+
+    // When
+    OidcMetadataSnapshot loaded = store.load();
+
+    // Then
+    assertThat(loaded).isNotNull();
+    assertThat(store.jwksUsable(loaded)).isFalse();
+    assertThat(store(path).jwksUsable(loaded)).isTrue();
+  }
+
+  @Test
+  public void should_prefer_the_inline_snapshot() throws IOException {
+    // Given
+    Path path = tempDir.resolve("oidc-metadata.json");
+    store(path).revalidate(null);
+    String inline = Base64.getEncoder().encodeToString(Files.readAllBytes(path));
+
+    // When
+    OidcMetadataSnapshot loaded =
+        OidcMetadataSnapshotStore.of(issuerUri, null, inline, SIGNING_KEY, 60, 60, 1000).load();
+
+    // Then
+    assertThat(loaded).isNotNull();
+    assertThat(loaded.issuer()).isEqualTo(issuerUri);
+  }
+
+  private OidcMetadataSnapshotStore store(Path path) {
+    return store(issuerUri, path, SIGNING_KEY, 60);
+  }
+
+  private OidcMetadataSnapshotStore store(
+      String issuerUri, Path path, String signingKey, long maxAgeSeconds) {
+    return OidcMetadataSnapshotStore.of(
+        issuerUri, path.toString(), null, signingKey, maxAgeSeconds, maxAgeSeconds, 1000);
+  }
+
+  private void respond(HttpExchange exchange, String body, String etag) throws IOException {
+    if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+      notModified.incrementAndGet();
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    byte[] bytes = body.getBytes(UTF_8);
+    exchange.getResponseHeaders().add("ETag", etag);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
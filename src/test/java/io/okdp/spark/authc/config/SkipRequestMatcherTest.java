@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class SkipRequestMatcherTest {
+
+  @Test
+  public void should_match_exact_prefix_and_suffix_rules() {
+    // Given
+    SkipRequestMatcher matcher =
+        SkipRequestMatcher.compile("/api/v1/version", "/static/*", "*.css", "*.js");
+
+    // When / Then
+    assertThat(matcher.matches("GET", "/api/v1/version")).isTrue();
+    assertThat(matcher.matches("GET", "/api/v1/version/")).isFalse();
+    assertThat(matcher.matches("GET", "/static/spark-logo.png")).isTrue();
+    assertThat(matcher.matches("GET", "/static")).isFalse();
+    assertThat(matcher.matches("GET", "/proxy/app-1/static/webui.css")).isTrue();
+    assertThat(matcher.matches("GET", "/proxy/app-1/static/utils.js")).isTrue();
+    assertThat(matcher.matches("GET", "/proxy/app-1/static/utils.json")).isFalse();
+    assertThat(matcher.matches("GET", "/jobs/")).isFalse();
+  }
+
+  @Test
+  public void should_match_the_method_rules_only_for_their_method() {
+    // Given
+    SkipRequestMatcher matcher = SkipRequestMatcher.compile("OPTIONS *", "post /api/*");
+
+    // When / Then
+    assertThat(matcher.matches("OPTIONS", "/jobs/")).isTrue();
+    assertThat(matcher.matches("POST", "/api/v1/applications")).isTrue();
+    assertThat(matcher.matches("GET", "/jobs/")).isFalse();
+    assertThat(matcher.matches("GET", "/api/v1/applications")).isFalse();
+    assertThat(matcher.matches(null, "/jobs/")).isFalse();
+  }
+
+  @Test
+  public void should_fall_back_to_the_regex_rules() {
+    // Given
+    SkipRequestMatcher matcher = SkipRequestMatcher.compile("regex:/proxy/[^/]+/metrics/.*");
+
+    // When / Then
+    assertThat(matcher.matches("GET", "/proxy/app-1/metrics/json")).isTrue();
+    assertThat(matcher.matches("GET", "/proxy/app-1/jobs/")).isFalse();
+  }
+
+  @Test
+  public void should_keep_the_previous_rules() {
+    // Given
+    SkipRequestMatcher matcher = SkipRequestMatcher.compile("*.css");
+
+    // When
+    SkipRequestMatcher extended = matcher.and(Arrays.asList("regex:.*/\\.js"));
+
+    // Then
+    assertThat(extended.matches("GET", "/static/webui.css")).isTrue();
+    assertThat(extended.matches("GET", "/static/.js")).isTrue();
+    assertThat(matcher.matches("GET", "/static/.js")).isFalse();
+  }
+
+  @Test
+  public void should_reject_unsupported_wildcards() {
+    assertThatThrownBy(() -> SkipRequestMatcher.compile("/proxy/*/metrics"))
+        .isInstanceOf(IllegalArgumentException.class)
+        .hasMessageContaining("/proxy/*/metrics");
+  }
+}
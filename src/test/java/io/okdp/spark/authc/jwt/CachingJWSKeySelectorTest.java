@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.SecurityContext;
+import java.security.Key;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Test;
+
+public class CachingJWSKeySelectorTest {
+
+  @Test
+  public void should_reuse_keys_and_verifiers_until_the_jwks_changes() throws JOSEException {
+    // Given
+    RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("rsa-key").generate();
+    RSAKey rotatedKey = new RSAKeyGenerator(2048).keyID("rsa-key").generate();
+    AtomicReference<JWKSet> jwkSet = new AtomicReference<>(new JWKSet(rsaKey.toPublicJWK()));
+    CachingJWSKeySelector<SecurityContext> keySelector =
+        new CachingJWSKeySelector<>(
+            Collections.singleton(JWSAlgorithm.RS256),
+            (jwkSelector, context) -> jwkSelector.select(jwkSet.get()));
+    CachingJWSVerifierFactory verifierFactory = new CachingJWSVerifierFactory();
+    JWSHeader header = new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("rsa-key").build();
+
+    // When
+    List<Key> keys = keySelector.selectJWSKeys(header, null);
+    List<Key> sameKeys = keySelector.selectJWSKeys(header, null);
+    JWSVerifier verifier = verifierFactory.createJWSVerifier(header, keys.get(0));
+    JWSVerifier sameVerifier = verifierFactory.createJWSVerifier(header, sameKeys.get(0));
+    jwkSet.set(new JWKSet(rotatedKey.toPublicJWK()));
+    List<Key> rotatedKeys = keySelector.selectJWSKeys(header, null);
+
+    // Then
+    assertThat(keys).hasSize(1);
+    assertThat(sameKeys.get(0)).isSameAs(keys.get(0));
+    assertThat(sameVerifier).isSameAs(verifier);
+    assertThat(rotatedKeys.get(0)).isNotSameAs(keys.get(0));
+    assertThat(rotatedKeys.get(0)).isEqualTo(rotatedKey.toPublicKey());
+    assertThat(verifierFactory.createJWSVerifier(header, rotatedKeys.get(0)))
+        .isNotSameAs(verifier);
+  }
+
+  @Test
+  public void should_not_select_keys_for_unknown_kids_or_unexpected_algorithms()
+      throws JOSEException {
+    // Given
+    RSAKey rsaKey = new RSAKeyGenerator(2048).keyID("rsa-key").generate();
+    JWKSet jwkSet = new JWKSet(rsaKey.toPublicJWK());
+    CachingJWSKeySelector<SecurityContext> keySelector =
+        new CachingJWSKeySelector<>(
+            Collections.singleton(JWSAlgorithm.RS256),
+            (jwkSelector, context) -> jwkSelector.select(jwkSet));
+
+    // When
+    List<Key> unknownKid =
+        keySelector.selectJWSKeys(
+            new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("unknown").build(), null);
+    List<Key> unexpectedAlgorithm =
+        keySelector.selectJWSKeys(
+            new JWSHeader.Builder(JWSAlgorithm.PS256).keyID("rsa-key").build(), null);
+
+    // Then
+    assertThat(unknownKid).isEmpty();
+    assertThat(unexpectedAlgorithm).isEmpty();
+  }
+}
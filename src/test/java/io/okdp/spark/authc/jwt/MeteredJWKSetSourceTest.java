@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSetCacheRefreshEvaluator;
+import com.nimbusds.jose.jwk.source.JWKSetSource;
+import com.nimbusds.jose.proc.SecurityContext;
+import org.junit.jupiter.api.Test;
+
+public class MeteredJWKSetSourceTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void should_count_the_refreshes_and_the_failures() throws KeySourceException {
+    // Given
+    JWKSetSource<SecurityContext> source = mock(JWKSetSource.class);
+    JWKSet jwkSet = new JWKSet();
+    when(source.getJWKSet(any(), anyLong(), any()))
+        .thenReturn(jwkSet)
+        .thenThrow(new KeySourceException("The oidc provider is unavailable"));
+    MeteredJWKSetSource<SecurityContext> meteredSource = new MeteredJWKSetSource<>(source);
+
+    // When
+    JWKSet fetched =
+        meteredSource.getJWKSet(
+            JWKSetCacheRefreshEvaluator.noRefresh(), System.currentTimeMillis(), null);
+
+    // Then
+    assertThat(fetched).isSameAs(jwkSet);
+    assertThat(meteredSource.lastSuccessMillis()).isPositive();
+    assertThatThrownBy(
+            () ->
+                meteredSource.getJWKSet(
+                    JWKSetCacheRefreshEvaluator.forceRefresh(), System.currentTimeMillis(), null))
+        .isInstanceOf(KeySourceException.class);
+    assertThat(meteredSource.refreshCount()).isEqualTo(2);
+    assertThat(meteredSource.failureCount()).isEqualTo(1);
+    assertThat(meteredSource.averageLatencyMillis()).isNotNegative();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.HashCode;
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.BadJWSException;
+import com.nimbusds.jwt.proc.BadJWTException;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+public class VerifiedJwtCacheTest {
+
+  @Test
+  public void should_cache_verified_tokens_until_their_expiration_time() {
+    // Given
+    VerifiedJwtCache verifiedJwtCache = VerifiedJwtCache.of(100, 30);
+    HashCode valid = verifiedJwtCache.key("header.valid.signature");
+    HashCode expired = verifiedJwtCache.key("header.expired.signature");
+    PersistedToken validToken = persistedToken(Instant.now().plusSeconds(60));
+
+    // When
+    verifiedJwtCache.putVerified(valid, validToken);
+    verifiedJwtCache.putVerified(expired, persistedToken(Instant.now().minusSeconds(1)));
+
+    // Then
+    assertThat(verifiedJwtCache.key("header.valid.signature")).isEqualTo(valid);
+    assertThat(verifiedJwtCache.getIfPresent(valid).rejected()).isFalse();
+    assertThat(verifiedJwtCache.getIfPresent(valid).persistedToken()).isSameAs(validToken);
+    assertThat(verifiedJwtCache.getIfPresent(expired)).isNull();
+    assertThat(verifiedJwtCache.stats().hitCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_cache_rejected_tokens_for_the_negative_ttl_only() {
+    // Given
+    VerifiedJwtCache verifiedJwtCache = VerifiedJwtCache.of(100, 30);
+    VerifiedJwtCache noNegativeCache = VerifiedJwtCache.of(100, 0);
+    HashCode rejected = verifiedJwtCache.key("header.rejected.signature");
+
+    // When
+    verifiedJwtCache.putRejected(rejected);
+    noNegativeCache.putRejected(rejected);
+
+    // Then
+    assertThat(verifiedJwtCache.getIfPresent(rejected).rejected()).isTrue();
+    assertThat(verifiedJwtCache.getIfPresent(rejected).persistedToken()).isNull();
+    assertThat(noNegativeCache.getIfPresent(rejected)).isNull();
+  }
+
+  @Test
+  public void should_cache_the_definitive_rejections_only() {
+    // Given
+    VerifiedJwtCache verifiedJwtCache = VerifiedJwtCache.of(100, 30);
+    HashCode malformed = verifiedJwtCache.key("malformed");
+    HashCode badSignature = verifiedJwtCache.key("header.claims.bad-signature");
+    HashCode expired = verifiedJwtCache.key("header.expired.signature");
+    HashCode unavailableJwks = verifiedJwtCache.key("header.claims.unavailable-jwks");
+    HashCode unknownKey = verifiedJwtCache.key("header.claims.unknown-key");
+
+    // When
+    verifiedJwtCache.putRejected(malformed, new ParseException("Invalid JWT", 0));
+    verifiedJwtCache.putRejected(badSignature, new BadJWSException("Invalid signature"));
+    verifiedJwtCache.putRejected(expired, new BadJWTException("Expired JWT"));
+    boolean cached =
+        verifiedJwtCache.putRejected(
+            unavailableJwks, new KeySourceException("Couldn't retrieve JWK set"));
+    verifiedJwtCache.putRejected(unknownKey, new BadJOSEException("No matching key(s) found"));
+
+    // Then
+    assertThat(verifiedJwtCache.getIfPresent(malformed).rejected()).isTrue();
+    assertThat(verifiedJwtCache.getIfPresent(badSignature).rejected()).isTrue();
+    assertThat(verifiedJwtCache.getIfPresent(expired).rejected()).isTrue();
+    assertThat(cached).isFalse();
+    assertThat(verifiedJwtCache.getIfPresent(unavailableJwks)).isNull();
+    assertThat(verifiedJwtCache.getIfPresent(unknownKey)).isNull();
+  }
+
+  @Test
+  public void should_not_cache_anything_when_disabled() {
+    // Given
+    VerifiedJwtCache verifiedJwtCache = VerifiedJwtCache.of(0, 30);
+    HashCode key = verifiedJwtCache.key("header.valid.signature");
+
+    // When
+    verifiedJwtCache.putVerified(key, persistedToken(Instant.now().plusSeconds(60)));
+
+    // Then
+    assertThat(verifiedJwtCache.getIfPresent(key)).isNull();
+    assertThat(verifiedJwtCache.size()).isZero();
+  }
+
+  private static PersistedToken persistedToken(Instant expiresAt) {
+    return PersistedToken.builder()
+        .identityProvider(new EmailIdentityProvider())
+        .userInfo(new UserInfo().sub("sub").name("bob").email("bob@example.org"))
+        .expiresAt(Date.from(expiresAt))
+        .build();
+  }
+}
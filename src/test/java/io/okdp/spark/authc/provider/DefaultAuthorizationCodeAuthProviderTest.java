@@ -17,7 +17,6 @@
 package io.okdp.spark.authc.provider;
 
 import static java.lang.String.format;
-import static java.util.stream.Collectors.toList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
@@ -27,6 +26,7 @@ import io.okdp.spark.authc.common.CommonTest;
 import io.okdp.spark.authc.config.Constants;
 import io.okdp.spark.authc.config.HttpSecurityConfig;
 import io.okdp.spark.authc.config.OidcConfig;
+import io.okdp.spark.authc.config.SkipRequestMatcher;
 import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.model.WellKnownConfiguration;
 import io.okdp.spark.authc.provider.impl.DefaultAuthorizationCodeAuthProvider;
@@ -34,11 +34,22 @@ import io.okdp.spark.authc.provider.impl.store.CookieSessionStore;
 import io.okdp.spark.authc.utils.HttpAuthenticationUtils;
 import io.okdp.spark.authc.utils.JsonUtils;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.stream.Stream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.http.message.BasicNameValuePair;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
@@ -51,6 +62,7 @@ public class DefaultAuthorizationCodeAuthProviderTest implements Constants, Comm
   private final String redirectUri = "https://spark.okdp.local/home";
 
   @InjectMocks private AuthProvider authProvider;
+  private OidcConfig oidcConfig;
   private String accessTokenResponse;
 
   @BeforeEach
@@ -85,7 +97,7 @@ public class DefaultAuthorizationCodeAuthProviderTest implements Constants, Comm
                       WellKnownConfiguration.class))
           .thenReturn(wlc);
 
-      OidcConfig oidcConfig =
+      oidcConfig =
           OidcConfig.builder()
               .issuerUri(issuerUri)
               .clientId(clientId)
@@ -142,7 +154,9 @@ public class DefaultAuthorizationCodeAuthProviderTest implements Constants, Comm
     HttpServletResponse response = mock(HttpServletResponse.class);
     DefaultAuthorizationCodeAuthProvider oidcAuthProvider =
         spy((DefaultAuthorizationCodeAuthProvider) authProvider);
-    doReturn(accessTokenResponse).when(oidcAuthProvider).doExecute(any(Request.class));
+    doReturn(JsonUtils.loadJsonFromString(accessTokenResponse, AccessToken.class))
+        .when(oidcAuthProvider)
+        .doExecute(any(Request.class), eq(AccessToken.class));
     when(request.getParameter(any(String.class))).thenReturn("kpxblxm2si3x6ofxufgo54h4j");
 
     // When
@@ -153,12 +167,68 @@ public class DefaultAuthorizationCodeAuthProviderTest implements Constants, Comm
         .isEqualTo(new ObjectMapper().readValue(accessTokenResponse, AccessToken.class));
   }
 
+  @Test
+  void should_not_share_the_code_exchange_between_different_code_verifiers() throws Exception {
+    // Given
+    CountDownLatch exchanges = new CountDownLatch(2);
+    AtomicInteger tokens = new AtomicInteger();
+    AuthProvider pkceLikeProvider =
+        new DefaultAuthorizationCodeAuthProvider(
+            ((DefaultAuthorizationCodeAuthProvider) authProvider).httpSecurityConfig()) {
+          @Override
+          protected List<NameValuePair> accessTokenForm(
+              ServletRequest servletRequest, ServletResponse servletResponse) {
+            List<NameValuePair> form =
+                new ArrayList<>(super.accessTokenForm(servletRequest, servletResponse));
+            form.add(
+                new BasicNameValuePair(
+                    "code_verifier", servletRequest.getParameter("code_verifier")));
+            return form;
+          }
+
+          @Override
+          public <T> T doExecute(Request request, Class<T> type) {
+            exchanges.countDown();
+            try {
+              exchanges.await(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            AccessToken accessToken = new AccessToken();
+            accessToken.accessToken("token-" + tokens.incrementAndGet());
+            return type.cast(accessToken);
+          }
+        };
+    HttpServletRequest victim = mock(HttpServletRequest.class);
+    when(victim.getParameter("code")).thenReturn("kpxblxm2si3x6ofxufgo54h4j");
+    when(victim.getParameter("code_verifier")).thenReturn("victim-verifier");
+    HttpServletRequest attacker = mock(HttpServletRequest.class);
+    when(attacker.getParameter("code")).thenReturn("kpxblxm2si3x6ofxufgo54h4j");
+    when(attacker.getParameter("code_verifier")).thenReturn("attacker-verifier");
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    // When
+    Future<AccessToken> victimToken =
+        executor.submit(() -> pkceLikeProvider.requestAccessToken(victim, response));
+    Future<AccessToken> attackerToken =
+        executor.submit(() -> pkceLikeProvider.requestAccessToken(attacker, response));
+
+    // Then
+    assertThat(victimToken.get(5, TimeUnit.SECONDS).accessToken())
+        .isNotEqualTo(attackerToken.get(5, TimeUnit.SECONDS).accessToken());
+    assertThat(tokens.get()).isEqualTo(2);
+    executor.shutdown();
+  }
+
   @Test
   void should_get_access_token_from_refresh_token() throws IOException {
     // Given
     DefaultAuthorizationCodeAuthProvider oidcAuthProvider =
         spy((DefaultAuthorizationCodeAuthProvider) authProvider);
-    doReturn(accessTokenResponse).when(oidcAuthProvider).doExecute(any(Request.class));
+    doReturn(JsonUtils.loadJsonFromString(accessTokenResponse, AccessToken.class))
+        .when(oidcAuthProvider)
+        .doExecute(any(Request.class), eq(AccessToken.class));
     String refreshToken =
         "ChlvaWJmNXBuaG1rdWN0enppaGltaWp1MnJkEhlndmdzZ2tmcnVhd2x6cGV1a2ZnajNqdjJr";
 
@@ -171,18 +241,63 @@ public class DefaultAuthorizationCodeAuthProviderTest implements Constants, Comm
   }
 
   @Test
-  void should_bypass_authentication_for_authorized_uri() throws IOException {
+  @SuppressWarnings("deprecation")
+  void should_bypass_authentication_for_authorized_uri() {
+    // Given
+    HttpSecurityConfig httpSecurityConfig =
+        HttpSecurityConfig.create(oidcConfig)
+            .authorizeRequests(
+                "/path/to/css/style.css",
+                ".*/.*\\.js",
+                "/path/to/image/spark-logo.png",
+                "/path/to/authorized/.*");
+    AuthProvider auth = httpSecurityConfig.configure();
+
+    HttpServletRequest request1 = mock(HttpServletRequest.class);
+    when(request1.getRequestURI()).thenReturn("/path/to/css/style.css");
+
+    HttpServletRequest request2 = mock(HttpServletRequest.class);
+    when(request2.getRequestURI()).thenReturn("/path/to/js/script.js");
+
+    HttpServletRequest request3 = mock(HttpServletRequest.class);
+    when(request3.getRequestURI()).thenReturn("/path/to/authorized/any/logo.png");
+
+    HttpServletRequest request4 = mock(HttpServletRequest.class);
+    when(request4.getRequestURI()).thenReturn("/home");
+
+    // When
+    boolean isAuthorized1 = auth.isAuthorized(request1);
+    boolean isAuthorized2 = auth.isAuthorized(request2);
+    boolean isAuthorized3 = auth.isAuthorized(request3);
+    boolean isAuthorized4 = auth.isAuthorized(request4);
+
+    // Then
+    assertThat(isAuthorized1).isTrue();
+    assertThat(isAuthorized2).isTrue();
+    assertThat(isAuthorized3).isTrue();
+    assertThat(isAuthorized4).isFalse();
+    assertThat(httpSecurityConfig.patterns())
+        .extracting(Pattern::pattern)
+        .containsExactly(
+            "/path/to/css/style.css",
+            ".*/.*\\.js",
+            "/path/to/image/spark-logo.png",
+            "/path/to/authorized/.*");
+  }
+
+  @Test
+  void should_bypass_authentication_for_the_skip_rules() throws IOException {
     // Given
     HttpSecurityConfig httpSecurityConfig = mock(HttpSecurityConfig.class);
-    when(httpSecurityConfig.patterns())
+    when(httpSecurityConfig.skipRequestMatcher())
         .thenReturn(
-            Stream.of(
-                    "/path/to/css/style.css",
-                    ".*/.*\\.js",
-                    "/path/to/image/spark-logo.png",
-                    "/path/to/authorized/.*")
-                .map(Pattern::compile)
-                .collect(toList()));
+            SkipRequestMatcher.compile(
+                "/path/to/css/style.css",
+                "*.js",
+                "/path/to/image/spark-logo.png",
+                "/path/to/authorized/*",
+                "regex:/path/to/.*/legacy\\.gif",
+                "OPTIONS *"));
 
     when(httpSecurityConfig.configure())
         .thenReturn(new DefaultAuthorizationCodeAuthProvider(httpSecurityConfig));
@@ -200,16 +315,27 @@ public class DefaultAuthorizationCodeAuthProviderTest implements Constants, Comm
     HttpServletRequest request4 = mock(HttpServletRequest.class);
     when(request4.getRequestURI()).thenReturn("/home");
 
+    HttpServletRequest request5 = mock(HttpServletRequest.class);
+    when(request5.getRequestURI()).thenReturn("/path/to/images/legacy.gif");
+
+    HttpServletRequest request6 = mock(HttpServletRequest.class);
+    when(request6.getMethod()).thenReturn("OPTIONS");
+    when(request6.getRequestURI()).thenReturn("/home");
+
     // When
     boolean isAuthorized1 = auth.isAuthorized(request1);
     boolean isAuthorized2 = auth.isAuthorized(request2);
     boolean isAuthorized3 = auth.isAuthorized(request3);
     boolean isAuthorized4 = auth.isAuthorized(request4);
+    boolean isAuthorized5 = auth.isAuthorized(request5);
+    boolean isAuthorized6 = auth.isAuthorized(request6);
 
     // Then
     assertThat(isAuthorized1).isTrue();
     assertThat(isAuthorized2).isTrue();
     assertThat(isAuthorized3).isTrue();
     assertThat(isAuthorized4).isFalse();
+    assertThat(isAuthorized5).isTrue();
+    assertThat(isAuthorized6).isTrue();
   }
 }
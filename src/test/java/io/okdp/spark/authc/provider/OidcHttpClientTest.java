@@ -0,0 +1,114 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import io.okdp.spark.authc.model.AccessToken;
+import io.okdp.spark.authc.provider.impl.OidcHttpClient;
+import io.okdp.spark.authc.utils.JsonUtils;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import org.apache.hc.client5.http.fluent.Request;
+import org.apache.hc.core5.http.ContentType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OidcHttpClientTest {
+
+  private HttpServer server;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/token",
+        exchange -> {
+          byte[] body =
+              "{\"access_token\": \"token\", \"expires_in\": 300}".getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+          }
+        });
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void should_reuse_the_pooled_connections() throws IOException {
+    // Given
+    OidcHttpClient httpClient = OidcHttpClient.of(4, 5, 5, 60);
+    String tokenEndpoint =
+        "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+
+    // When
+    AccessToken first = post(httpClient, tokenEndpoint + "/token");
+    AccessToken second = post(httpClient, tokenEndpoint + "/token");
+
+    // Then
+    assertThat(first.accessToken()).isEqualTo("token");
+    assertThat(second.expiresIn()).isEqualTo(300);
+    assertThat(httpClient.requestCount()).isEqualTo(2);
+    assertThat(httpClient.failureCount()).isZero();
+    assertThat(httpClient.poolStats().getLeased()).isZero();
+    assertThat(httpClient.poolStats().getAvailable()).isEqualTo(1);
+    httpClient.close();
+  }
+
+  @Test
+  public void should_count_the_failed_requests() throws IOException {
+    // Given
+    OidcHttpClient httpClient = OidcHttpClient.of(4, 1, 1, 0);
+    int closedPort;
+    try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      closedPort = socket.getLocalPort();
+    }
+
+    // When
+    Throwable failure = null;
+    try {
+      post(httpClient, "http://127.0.0.1:" + closedPort + "/token");
+    } catch (IOException e) {
+      failure = e;
+    }
+
+    // Then
+    assertThat(failure).isNotNull();
+    assertThat(httpClient.failureCount()).isEqualTo(1);
+    httpClient.close();
+  }
+
+  private AccessToken post(OidcHttpClient httpClient, String uri) throws IOException {
+    return httpClient.execute(
+        Request.post(uri)
+            .bodyString("grant_type=refresh_token", ContentType.APPLICATION_FORM_URLENCODED),
+        response ->
+            JsonUtils.loadJsonFromStream(response.getEntity().getContent(), AccessToken.class));
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
+import io.okdp.spark.authc.provider.impl.RenewedSessions;
+import io.okdp.spark.authc.provider.impl.SessionRenewer.RenewedSession;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RenewedSessionsTest {
+
+  private SessionStore sessionStore;
+  private PersistedToken replacedToken;
+
+  @BeforeEach
+  public void setUp() {
+    sessionStore = mock(SessionStore.class);
+    replacedToken = persistedToken(-5);
+    when(sessionStore.renew(any(), any()))
+        .thenReturn(Collections.singletonList(new Cookie("OKDP_AUTH_SPARK_UI", "renewed")));
+  }
+
+  @Test
+  public void should_share_the_renewed_session_between_the_concurrent_requests() throws Exception {
+    // Given
+    RenewedSessions renewedSessions = RenewedSessions.of(sessionStore, 3600);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    // When
+    Future<RenewedSession> first =
+        executor.submit(() -> renewedSessions.renew("expired", replacedToken, persistedToken(300)));
+    Future<RenewedSession> second =
+        executor.submit(() -> renewedSessions.renew("expired", replacedToken, persistedToken(300)));
+    RenewedSession renewed = first.get(5, TimeUnit.SECONDS);
+
+    // Then
+    assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(renewed);
+    assertThat(renewedSessions.renewed("expired")).isSameAs(renewed);
+    verify(sessionStore, times(1)).renew(eq("expired"), any());
+    executor.shutdown();
+    renewedSessions.close();
+  }
+
+  @Test
+  public void should_defer_the_removal_of_the_replaced_session() {
+    // Given
+    RenewedSessions renewedSessions = RenewedSessions.of(sessionStore, 3600);
+
+    // When
+    renewedSessions.renew("expired", replacedToken, persistedToken(300));
+
+    // Then
+    verify(sessionStore, never()).remove("expired");
+    renewedSessions.close();
+  }
+
+  @Test
+  public void should_not_hand_out_an_expired_renewed_session() {
+    // Given
+    RenewedSessions renewedSessions = RenewedSessions.of(sessionStore, 3600);
+
+    // When
+    renewedSessions.renew("expired", replacedToken, persistedToken(-5));
+
+    // Then
+    assertThat(renewedSessions.renewed("expired")).isNull();
+    assertThat(renewedSessions.size()).isZero();
+    renewedSessions.close();
+  }
+
+  @Test
+  public void should_release_the_renewed_session_once_its_token_has_expired() throws Exception {
+    // Given
+    RenewedSessions renewedSessions = RenewedSessions.of(sessionStore, 3600);
+    renewedSessions.renew("expired", replacedToken, persistedToken(1));
+
+    // When
+    long sizeBeforeExpiry = renewedSessions.size();
+    Thread.sleep(1500);
+
+    // Then
+    assertThat(sizeBeforeExpiry).isEqualTo(1);
+    assertThat(renewedSessions.renewed("expired")).isNull();
+    assertThat(renewedSessions.size()).isZero();
+    renewedSessions.close();
+  }
+
+  @Test
+  public void should_renew_again_the_session_renewed_in_place() {
+    // Given
+    when(sessionStore.renew(any(), any()))
+        .thenReturn(Collections.singletonList(new Cookie("OKDP_AUTH_SPARK_UI", "session")));
+    RenewedSessions renewedSessions = RenewedSessions.of(sessionStore, 3600);
+    PersistedToken renewedToken = persistedToken(30);
+
+    // When
+    renewedSessions.renew("session", replacedToken, renewedToken);
+    renewedSessions.renew("session", renewedToken, persistedToken(300));
+
+    // Then
+    assertThat(renewedSessions.renewed("session")).isNull();
+    verify(sessionStore, times(2)).renew(eq("session"), any());
+    verify(sessionStore, never()).remove(any());
+    renewedSessions.close();
+  }
+
+  private PersistedToken persistedToken(long expiresInSeconds) {
+    return PersistedToken.builder()
+        .userInfo(new UserInfo().email("bob@example.org"))
+        .refreshToken("refresh-token")
+        .expiresAt(Date.from(Instant.now().plusSeconds(expiresInSeconds)))
+        .identityProvider(new EmailIdentityProvider())
+        .build();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.okdp.spark.authc.config.HttpSecurityConfig;
+import io.okdp.spark.authc.model.AccessToken;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
+import io.okdp.spark.authc.provider.impl.RenewedSessions;
+import io.okdp.spark.authc.provider.impl.SessionRenewer;
+import io.okdp.spark.authc.provider.impl.SessionRenewer.RenewedSession;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionRenewerTest {
+
+  private AuthProvider authProvider;
+  private SessionStore sessionStore;
+  private RenewedSessions renewedSessions;
+  private PersistedToken renewedToken;
+  private List<Cookie> renewedCookies;
+
+  @BeforeEach
+  public void setUp() {
+    authProvider = mock(AuthProvider.class);
+    HttpSecurityConfig httpSecurityConfig = mock(HttpSecurityConfig.class);
+    sessionStore = mock(SessionStore.class);
+    renewedSessions = RenewedSessions.of(sessionStore, 3600);
+    AccessToken accessToken = new AccessToken();
+    renewedToken = persistedToken(Instant.now().plusSeconds(300));
+    renewedCookies = Collections.singletonList(new Cookie("OKDP_AUTH_SPARK_UI", "renewed"));
+    when(authProvider.httpSecurityConfig()).thenReturn(httpSecurityConfig);
+    when(authProvider.refreshToken("refresh-token")).thenReturn(accessToken);
+    when(httpSecurityConfig.sessionStore()).thenReturn(sessionStore);
+    when(httpSecurityConfig.toPersistedToken(accessToken)).thenReturn(renewedToken);
+    when(sessionStore.renew(any(), eq(renewedToken))).thenReturn(renewedCookies);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    renewedSessions.close();
+  }
+
+  @Test
+  public void should_serve_the_expired_session_while_renewing_it_in_the_background()
+      throws InterruptedException {
+    // Given
+    SessionRenewer sessionRenewer = SessionRenewer.of(authProvider, renewedSessions, 0, 30);
+    PersistedToken expiredToken = persistedToken(Instant.now().minusSeconds(5));
+
+    // When
+    boolean served = sessionRenewer.renewStale("session", expiredToken);
+    boolean servedAgain = sessionRenewer.renewStale("session", expiredToken);
+    RenewedSession renewed = awaitRenewed("session");
+
+    // Then
+    assertThat(served).isTrue();
+    assertThat(servedAgain).isTrue();
+    assertThat(renewed.persistedToken()).isSameAs(renewedToken);
+    assertThat(renewed.cookies()).isEqualTo(renewedCookies);
+    verify(authProvider, timeout(1000).times(1)).refreshToken("refresh-token");
+    sessionRenewer.close();
+  }
+
+  @Test
+  public void should_renew_on_the_request_thread_once_the_grace_period_is_over() {
+    // Given
+    SessionRenewer sessionRenewer = SessionRenewer.of(authProvider, renewedSessions, 0, 30);
+
+    // When
+    boolean served =
+        sessionRenewer.renewStale("session", persistedToken(Instant.now().minusSeconds(60)));
+
+    // Then
+    assertThat(served).isFalse();
+    verify(authProvider, never()).refreshToken(any());
+    sessionRenewer.close();
+  }
+
+  @Test
+  public void should_renew_ahead_only_within_the_refresh_ahead_window()
+      throws InterruptedException {
+    // Given
+    SessionRenewer sessionRenewer = SessionRenewer.of(authProvider, renewedSessions, 60, 0);
+
+    // When
+    sessionRenewer.renewAhead("fresh-session", persistedToken(Instant.now().plusSeconds(600)));
+    sessionRenewer.renewAhead("session", persistedToken(Instant.now().plusSeconds(30)));
+    RenewedSession renewed = awaitRenewed("session");
+
+    // Then
+    assertThat(renewed.persistedToken()).isSameAs(renewedToken);
+    assertThat(renewedSessions.renewed("fresh-session")).isNull();
+    verify(authProvider, timeout(1000).times(1)).refreshToken("refresh-token");
+    sessionRenewer.close();
+  }
+
+  @Test
+  public void should_not_remove_the_session_renewed_in_place() throws InterruptedException {
+    // Given
+    List<Cookie> inPlaceCookies =
+        Collections.singletonList(new Cookie("OKDP_AUTH_SPARK_UI", "session"));
+    when(sessionStore.renew(any(), eq(renewedToken))).thenReturn(inPlaceCookies);
+    SessionRenewer sessionRenewer = SessionRenewer.of(authProvider, renewedSessions, 60, 0);
+
+    // When
+    sessionRenewer.renewAhead("session", persistedToken(Instant.now().plusSeconds(30)));
+    verify(sessionStore, timeout(1000)).renew("session", renewedToken);
+    Thread.sleep(100);
+
+    // Then
+    assertThat(renewedSessions.renewed("session")).isNull();
+    verify(sessionStore, never()).save(any(PersistedToken.class));
+    verify(sessionStore, never()).remove(any());
+    sessionRenewer.close();
+  }
+
+  @Test
+  public void should_be_disabled_by_default() {
+    assertThat(SessionRenewer.of(authProvider, renewedSessions, 0, 0)).isNull();
+  }
+
+  private RenewedSession awaitRenewed(String sessionValue) throws InterruptedException {
+    for (int i = 0; i < 100 && renewedSessions.renewed(sessionValue) == null; i++) {
+      Thread.sleep(20);
+    }
+    return renewedSessions.renewed(sessionValue);
+  }
+
+  private PersistedToken persistedToken(Instant expiresAt) {
+    return PersistedToken.builder()
+        .userInfo(new UserInfo().email("bob@example.org"))
+        .refreshToken("refresh-token")
+        .expiresAt(Date.from(expiresAt))
+        .identityProvider(new EmailIdentityProvider())
+        .build();
+  }
+}
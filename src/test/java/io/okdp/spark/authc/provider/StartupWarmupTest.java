@@ -0,0 +1,98 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jwt.JWTClaimsSet;
+import io.okdp.spark.authc.config.HttpSecurityConfig;
+import io.okdp.spark.authc.config.SkipRequestMatcher;
+import io.okdp.spark.authc.jwt.VerifiedJwtCache;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.impl.StartupWarmup;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import javax.servlet.http.Cookie;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class StartupWarmupTest {
+
+  private AuthProvider authProvider;
+  private HttpSecurityConfig httpSecurityConfig;
+  private SessionStore sessionStore;
+
+  @BeforeEach
+  public void setUp() {
+    authProvider = mock(AuthProvider.class);
+    httpSecurityConfig = mock(HttpSecurityConfig.class);
+    sessionStore = mock(SessionStore.class);
+    PersistedToken persistedToken =
+        PersistedToken.builder().expiresAt(Date.from(Instant.now().plusSeconds(300))).build();
+    when(authProvider.httpSecurityConfig()).thenReturn(httpSecurityConfig);
+    when(httpSecurityConfig.skipRequestMatcher()).thenReturn(SkipRequestMatcher.compile("*.css"));
+    when(httpSecurityConfig.toPersistedToken(any(JWTClaimsSet.class))).thenReturn(persistedToken);
+    when(sessionStore.save(persistedToken))
+        .thenReturn(Collections.singletonList(new Cookie("OKDP_AUTH_SPARK_UI", "warmup-session")));
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"RS256", "ES256"})
+  public void should_run_the_synthetic_round_trips(String algorithm) {
+    // Given
+    Set<JWSAlgorithm> jwsAlgorithms = Collections.singleton(JWSAlgorithm.parse(algorithm));
+    StartupWarmup warmup =
+        StartupWarmup.of(
+            authProvider, sessionStore, VerifiedJwtCache.of(100, 0), jwsAlgorithms, 3);
+
+    // When
+    warmup.run();
+
+    // Then
+    verify(httpSecurityConfig, times(3)).toPersistedToken(any(JWTClaimsSet.class));
+    verify(sessionStore, times(3)).readToken("warmup-session");
+    verify(sessionStore, never()).remove(any());
+    // The synthetic sessions are not saved to the configured session store
+    verify(httpSecurityConfig, never()).sessionStore();
+  }
+
+  @Test
+  public void should_disable_the_warmup_without_iterations() {
+    // When
+    StartupWarmup warmup =
+        StartupWarmup.of(
+            authProvider,
+            sessionStore,
+            VerifiedJwtCache.of(100, 0),
+            Collections.singleton(JWSAlgorithm.RS256),
+            0);
+
+    // Then
+    assertThat(warmup).isNull();
+  }
+}
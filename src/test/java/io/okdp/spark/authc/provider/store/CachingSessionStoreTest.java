@@ -0,0 +1,121 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.SessionStore;
+import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
+import io.okdp.spark.authc.provider.impl.store.CachingSessionStore;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+
+public class CachingSessionStoreTest {
+
+  @Test
+  public void should_decode_the_same_session_value_only_once() {
+    // Given
+    SessionStore cookieSessionStore = mock(SessionStore.class);
+    PersistedToken token = persistedToken(Instant.now().plusSeconds(3600));
+    when(cookieSessionStore.readToken("value")).thenReturn(token);
+    CachingSessionStore sessionStore =
+        (CachingSessionStore) CachingSessionStore.of(cookieSessionStore, 10, 60);
+
+    // When
+    PersistedToken first = sessionStore.readToken("value");
+    PersistedToken second = sessionStore.readToken("value");
+
+    // Then
+    assertThat(first).isSameAs(token);
+    assertThat(second).isSameAs(token);
+    verify(cookieSessionStore, times(1)).readToken("value");
+    assertThat(sessionStore.hitCount()).isEqualTo(1);
+    assertThat(sessionStore.missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_not_cache_expired_sessions() {
+    // Given
+    SessionStore cookieSessionStore = mock(SessionStore.class);
+    when(cookieSessionStore.readToken("value"))
+        .thenReturn(persistedToken(Instant.now().minusSeconds(1)));
+    CachingSessionStore sessionStore =
+        (CachingSessionStore) CachingSessionStore.of(cookieSessionStore, 10, 60);
+
+    // When
+    sessionStore.readToken("value");
+    sessionStore.readToken("value");
+
+    // Then
+    verify(cookieSessionStore, times(2)).readToken("value");
+    assertThat(sessionStore.size()).isZero();
+    assertThat(sessionStore.hitCount()).isZero();
+  }
+
+  @Test
+  public void should_not_keep_the_token_read_during_an_in_place_renewal() {
+    // Given
+    SessionStore serverSideStore = mock(SessionStore.class);
+    PersistedToken previousToken = persistedToken(Instant.now().plusSeconds(60));
+    PersistedToken renewedToken = persistedToken(Instant.now().plusSeconds(3600));
+    CachingSessionStore sessionStore =
+        (CachingSessionStore) CachingSessionStore.of(serverSideStore, 10, 60);
+    when(serverSideStore.readToken("value")).thenReturn(previousToken);
+    when(serverSideStore.renew("value", renewedToken))
+        .thenAnswer(
+            invocation -> {
+              // A concurrent request reads the session before it is renewed in place
+              sessionStore.readToken("value");
+              when(serverSideStore.readToken("value")).thenReturn(renewedToken);
+              return "value";
+            });
+
+    // When
+    sessionStore.renew("value", renewedToken);
+    PersistedToken persistedToken = sessionStore.readToken("value");
+
+    // Then
+    assertThat(persistedToken).isSameAs(renewedToken);
+  }
+
+  @Test
+  public void should_return_the_underlying_store_when_the_cache_is_disabled() {
+    // Given
+    SessionStore cookieSessionStore = mock(SessionStore.class);
+
+    // When
+    SessionStore sessionStore = CachingSessionStore.of(cookieSessionStore, 0, 60);
+
+    // Then
+    assertThat(sessionStore).isSameAs(cookieSessionStore);
+  }
+
+  private PersistedToken persistedToken(Instant expiresAt) {
+    return PersistedToken.builder()
+        .userInfo(new UserInfo().email("bob@example.org"))
+        .expiresAt(Date.from(expiresAt))
+        .identityProvider(new EmailIdentityProvider())
+        .build();
+  }
+}
@@ -17,20 +17,36 @@
 package io.okdp.spark.authc.provider.store;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
 import io.okdp.spark.authc.model.AccessToken;
 import io.okdp.spark.authc.model.PersistedToken;
 import io.okdp.spark.authc.model.UserInfo;
 import io.okdp.spark.authc.provider.SessionStore;
 import io.okdp.spark.authc.provider.impl.EmailIdentityProvider;
 import io.okdp.spark.authc.provider.impl.store.CookieSessionStore;
+import io.okdp.spark.authc.utils.CompressionCodec;
+import io.okdp.spark.authc.utils.CompressionUtils;
+import io.okdp.spark.authc.utils.EncryptionUtils;
+import io.okdp.spark.authc.utils.HttpAuthenticationUtils;
 import io.okdp.spark.authc.utils.TokenUtils;
 import java.io.IOException;
 import java.time.Instant;
 import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -121,10 +137,12 @@ public class CookieFactoryStoreTest {
                     Instant.parse("2024-02-21T10:11:12.123Z").plusSeconds(accessToken.expiresIn())))
             .identityProvider(new EmailIdentityProvider())
             .build();
-    Cookie cookie = sessionStore.save(originalPersistedToken);
+    List<Cookie> cookies = sessionStore.save(originalPersistedToken);
+    Cookie cookie = cookies.get(0);
     PersistedToken persistedToken = sessionStore.readToken(cookie.getValue());
 
     // Then
+    assertThat(cookies).hasSize(1);
     assertThat(cookie.getName()).isEqualTo(cookieName);
     assertThat(cookie.getDomain()).isEqualTo(cookieDomain);
     assertThat(cookie.getMaxAge()).isEqualTo(60);
@@ -159,10 +177,12 @@ public class CookieFactoryStoreTest {
                     Instant.parse("2024-02-21T10:11:12.123Z").plusSeconds(accessToken.expiresIn())))
             .identityProvider(new EmailIdentityProvider())
             .build();
-    Cookie cookie = sessionStore.save(originalPersistedToken);
+    List<Cookie> cookies = sessionStore.save(originalPersistedToken);
+    Cookie cookie = cookies.get(0);
     PersistedToken persistedToken = sessionStore.readToken(cookie.getValue());
 
     // Then
+    assertThat(cookies).hasSize(1);
     assertThat(cookie.getName()).isEqualTo(cookieName);
     assertThat(cookie.getDomain()).isEqualTo(cookieDomain);
     assertThat(cookie.getMaxAge()).isEqualTo(60);
@@ -177,4 +197,108 @@ public class CookieFactoryStoreTest {
             Instant.parse("2024-02-21T10:11:12.123Z").plusSeconds(accessToken.expiresIn() - 1));
     assertThat(persistedToken.userInfo()).isEqualTo(TokenUtils.userInfo(accessToken.accessToken()));
   }
+
+  @Test
+  public void should_read_token_stored_in_legacy_cookie_format() {
+    // Given
+    String encryptionKey = "E132A72E815F496FFC49B3EC876754F4";
+    SessionStore sessionStore =
+        CookieSessionStore.of("spark", "spark.okdp.local", true, encryptionKey, 60, false);
+    PersistedToken originalPersistedToken =
+        PersistedToken.builder()
+            .userInfo(TokenUtils.userInfo(accessToken.accessToken()))
+            .refreshToken(accessToken.refreshToken())
+            .expiresIn(accessToken.expiresIn())
+            .expiresAt(Date.from(Instant.parse("2024-02-21T10:11:12.123Z")))
+            .identityProvider(new EmailIdentityProvider())
+            .build();
+    String legacyCookieValue =
+        EncryptionUtils.encryptToString(
+            CompressionUtils.compressToString(
+                originalPersistedToken.toJson(), CompressionCodec.GZIP),
+            encryptionKey);
+
+    // When
+    List<Cookie> cookies = sessionStore.save(originalPersistedToken);
+    Cookie cookie = cookies.get(0);
+    PersistedToken legacyPersistedToken = sessionStore.readToken(legacyCookieValue);
+
+    // Then
+    assertThat(legacyPersistedToken.userInfo()).isEqualTo(originalPersistedToken.userInfo());
+    assertThat(legacyPersistedToken.refreshToken()).isEqualTo(accessToken.refreshToken());
+    assertThat(legacyPersistedToken.expiresAt()).isEqualTo(originalPersistedToken.expiresAt());
+    assertThat(legacyPersistedToken.identityProvider()).isInstanceOf(EmailIdentityProvider.class);
+    assertThat(cookie.getValue()).startsWith("2.");
+    assertThat(cookie.getValue().length()).isLessThan(legacyCookieValue.length() * 3 / 4);
+  }
+
+  @Test
+  public void should_split_large_token_into_chunks_and_reassemble_it() {
+    // Given
+    String cookieName = "spark";
+    SessionStore sessionStore =
+        CookieSessionStore.of(
+                cookieName, "spark.okdp.local", true, "E132A72E815F496FFC49B3EC876754F4", 60, false)
+            .compressionCodec(CompressionCodec.STORE)
+            .maxChunks(5);
+    UserInfo userInfo = TokenUtils.userInfo(accessToken.accessToken());
+    userInfo.groups(
+        IntStream.range(0, 400)
+            .mapToObj(i -> "spark-users-group-" + i)
+            .collect(Collectors.toList()));
+    PersistedToken originalPersistedToken =
+        PersistedToken.builder()
+            .userInfo(userInfo)
+            .refreshToken(accessToken.refreshToken())
+            .expiresIn(accessToken.expiresIn())
+            .expiresAt(Date.from(Instant.parse("2024-02-21T10:11:12.123Z")))
+            .identityProvider(new EmailIdentityProvider())
+            .build();
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    // When
+    List<Cookie> cookies = sessionStore.save(originalPersistedToken);
+    when(request.getCookies()).thenReturn(cookies.toArray(new Cookie[0]));
+    Optional<String> value = HttpAuthenticationUtils.getChunkedCookieValue(cookieName, 5, request);
+    PersistedToken persistedToken = sessionStore.readToken(value.get());
+    HttpAuthenticationUtils.addChunkedCookies(
+        sessionStore.save((PersistedToken) null), request, response);
+
+    // Then
+    assertThat(cookies.size()).isBetween(3, 6);
+    assertThat(cookies.get(0).getValue()).isEqualTo("chunks-" + (cookies.size() - 1));
+    assertThat(cookies.get(1).getName()).isEqualTo("spark_0");
+    assertThat(cookies).allMatch(cookie -> cookie.getValue().length() <= 3800);
+    assertThat(persistedToken.userInfo().groups()).hasSize(400);
+    assertThat(persistedToken.refreshToken()).isEqualTo(accessToken.refreshToken());
+    // The main cookie and all its chunks are expired
+    verify(response, times(cookies.size())).addCookie(any(Cookie.class));
+  }
+
+  @Test
+  public void should_drop_refresh_token_when_token_exceeds_max_chunks() {
+    // Given
+    SessionStore sessionStore =
+        CookieSessionStore.of(
+                "spark", "spark.okdp.local", true, "E132A72E815F496FFC49B3EC876754F4", 60, false)
+            .compressionCodec(CompressionCodec.STORE)
+            .maxChunks(1);
+    PersistedToken persistedToken =
+        PersistedToken.builder()
+            .userInfo(TokenUtils.userInfo(accessToken.accessToken()))
+            .refreshToken(Strings.repeat("r", 4000))
+            .expiresIn(accessToken.expiresIn())
+            .expiresAt(Date.from(Instant.parse("2024-02-21T10:11:12.123Z")))
+            .identityProvider(new EmailIdentityProvider())
+            .build();
+
+    // When
+    List<Cookie> cookies = sessionStore.save(persistedToken);
+
+    // Then
+    assertThat(cookies).hasSize(1);
+    assertThat(sessionStore.<PersistedToken>readToken(cookies.get(0).getValue()).hasRefreshToken())
+        .isFalse();
+  }
 }
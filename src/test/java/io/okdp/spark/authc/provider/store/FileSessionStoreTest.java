@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.okdp.spark.authc.common.CommonTest;
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.impl.store.CookieSessionStore;
+import io.okdp.spark.authc.provider.impl.store.FileSessionStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class FileSessionStoreTest implements CommonTest {
+
+  private static final String SECRET_KEY = "E132A72E815F496FFC49B3EC876754F4";
+  private static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+  @TempDir Path tempDir;
+
+  @Test
+  public void should_save_and_read_token_after_reopening_the_store() {
+    // Given
+    String file = tempDir.resolve("sessions.db").toString();
+    FileSessionStore sessionStore =
+        FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+    PersistedToken token = persistedToken(Arrays.asList("admins", "developers"));
+    String sessionId = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+    sessionStore.close();
+
+    // When
+    FileSessionStore reopened = FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+    PersistedToken persistedToken = reopened.readToken(sessionId);
+    reopened.close();
+
+    // Then
+    assertThat(sessionId).hasSize(32);
+    assertThat(reopened.size()).isEqualTo(1);
+    assertThat(persistedToken.userInfo()).isEqualTo(token.userInfo());
+    assertThat(persistedToken.refreshToken()).isEqualTo(token.refreshToken());
+    assertThat(persistedToken.expiresAt()).isEqualTo(token.expiresAt());
+  }
+
+  @Test
+  public void should_not_restore_removed_or_expired_sessions() {
+    // Given
+    String file = tempDir.resolve("sessions.db").toString();
+    FileSessionStore sessionStore =
+        FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+    PersistedToken token = persistedToken(Arrays.asList("admins"));
+    String removed = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+    String kept = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+    sessionStore.remove(removed);
+    sessionStore.close();
+    FileSessionStore expiringSessionStore =
+        FileSessionStore.of(cookieSessionStore(0), file, MAX_FILE_SIZE);
+    String expired = expiringSessionStore.<List<Cookie>>save(token).get(0).getValue();
+    expiringSessionStore.close();
+
+    // When
+    FileSessionStore reopened = FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+
+    // Then
+    assertThat(reopened.<PersistedToken>readToken(removed)).isNull();
+    assertThat(reopened.<PersistedToken>readToken(expired)).isNull();
+    assertThat(reopened.<PersistedToken>readToken(kept)).isNotNull();
+    assertThat(reopened.size()).isEqualTo(1);
+    reopened.close();
+  }
+
+  @Test
+  public void should_renew_the_session_in_place_after_reopening_the_store() {
+    // Given
+    String file = tempDir.resolve("sessions.db").toString();
+    FileSessionStore sessionStore =
+        FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+    String sessionId =
+        sessionStore.<List<Cookie>>save(persistedToken(Arrays.asList("admins"))).get(0).getValue();
+    List<Cookie> cookies =
+        sessionStore.renew(sessionId, persistedToken(Arrays.asList("developers")));
+    sessionStore.close();
+
+    // When
+    FileSessionStore reopened = FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+    PersistedToken persistedToken = reopened.readToken(sessionId);
+    reopened.close();
+
+    // Then
+    assertThat(cookies.get(0).getValue()).isEqualTo(sessionId);
+    assertThat(reopened.size()).isEqualTo(1);
+    assertThat(persistedToken.userInfo().groups()).containsExactly("developers");
+  }
+
+  @Test
+  public void should_ignore_records_encrypted_with_another_key() {
+    // Given
+    String file = tempDir.resolve("sessions.db").toString();
+    FileSessionStore sessionStore =
+        FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+    String sessionId =
+        sessionStore.<List<Cookie>>save(persistedToken(Arrays.asList("admins"))).get(0).getValue();
+    sessionStore.close();
+
+    // When
+    FileSessionStore reopened =
+        FileSessionStore.of(
+            CookieSessionStore.of(
+                "spark", "spark.okdp.local", true, "0123456789ABCDEF0123456789ABCDEF", 60, false),
+            file,
+            MAX_FILE_SIZE);
+
+    // Then
+    assertThat(reopened.size()).isZero();
+    assertThat(reopened.<PersistedToken>readToken(sessionId)).isNull();
+    reopened.close();
+  }
+
+  @Test
+  public void should_fail_to_open_a_file_used_by_another_session_store() {
+    // Given
+    String file = tempDir.resolve("sessions.db").toString();
+    FileSessionStore sessionStore =
+        FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE);
+
+    // When / Then
+    assertThatThrownBy(() -> FileSessionStore.of(cookieSessionStore(60), file, MAX_FILE_SIZE))
+        .isInstanceOf(OidcClientException.class)
+        .hasMessageContaining("is already used by another session store");
+    sessionStore.close();
+  }
+
+  @Test
+  public void should_compact_removed_sessions_and_grow_the_file() throws IOException {
+    // Given
+    Path file = tempDir.resolve("sessions.db");
+    FileSessionStore sessionStore =
+        FileSessionStore.of(cookieSessionStore(60), file.toString(), MAX_FILE_SIZE);
+    // ~200KB per session: the initial 4MB file is grown
+    PersistedToken token =
+        persistedToken(
+            IntStream.range(0, 8000)
+                .mapToObj(i -> "spark-users-group-" + i)
+                .collect(Collectors.toList()));
+    List<String> sessionIds =
+        IntStream.range(0, 30)
+            .mapToObj(i -> sessionStore.<List<Cookie>>save(token).get(0).getValue())
+            .collect(Collectors.toList());
+    long grownSize = Files.size(file);
+    sessionIds.subList(1, 30).forEach(sessionStore::remove);
+
+    // When
+    sessionStore.compact();
+    sessionStore.close();
+    FileSessionStore reopened =
+        FileSessionStore.of(cookieSessionStore(60), file.toString(), MAX_FILE_SIZE);
+
+    // Then
+    assertThat(grownSize).isGreaterThan(4 * 1024 * 1024);
+    assertThat(Files.size(file)).isLessThan(grownSize);
+    assertThat(reopened.size()).isEqualTo(1);
+    assertThat(reopened.<PersistedToken>readToken(sessionIds.get(0)).userInfo().groups())
+        .hasSize(8000);
+    reopened.close();
+  }
+
+  private static CookieSessionStore cookieSessionStore(int cookieMaxAgeSeconds) {
+    return CookieSessionStore.of(
+        "spark", "spark.okdp.local", true, SECRET_KEY, cookieMaxAgeSeconds, false);
+  }
+}
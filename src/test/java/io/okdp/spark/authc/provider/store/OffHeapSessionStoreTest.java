@@ -0,0 +1,127 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.provider.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.okdp.spark.authc.common.CommonTest;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.provider.impl.store.CookieSessionStore;
+import io.okdp.spark.authc.provider.impl.store.OffHeapSessionStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+
+public class OffHeapSessionStoreTest implements CommonTest {
+
+  private static final String SECRET_KEY = "E132A72E815F496FFC49B3EC876754F4";
+
+  @Test
+  public void should_save_and_read_token_stored_off_heap() {
+    // Given
+    OffHeapSessionStore sessionStore = OffHeapSessionStore.of(cookieSessionStore(60), 1 << 20);
+    PersistedToken token = persistedToken(Arrays.asList("admins", "developers"));
+
+    // When
+    List<Cookie> cookies = sessionStore.save(token);
+    String sessionId = cookies.get(0).getValue();
+    PersistedToken persistedToken = sessionStore.readToken(sessionId);
+
+    // Then
+    assertThat(cookies).hasSize(1);
+    assertThat(cookies.get(0).getMaxAge()).isEqualTo(60);
+    assertThat(sessionId).hasSize(32);
+    assertThat(persistedToken.userInfo()).isEqualTo(token.userInfo());
+    assertThat(persistedToken.refreshToken()).isEqualTo(token.refreshToken());
+    assertThat(persistedToken.expiresAt()).isEqualTo(token.expiresAt());
+    assertThat(sessionStore.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_not_read_unknown_removed_or_expired_sessions() {
+    // Given
+    OffHeapSessionStore sessionStore = OffHeapSessionStore.of(cookieSessionStore(60), 1 << 20);
+    OffHeapSessionStore expiringSessionStore =
+        OffHeapSessionStore.of(cookieSessionStore(0), 1 << 20);
+    PersistedToken token = persistedToken(Arrays.asList("admins"));
+
+    // When
+    String removed = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+    sessionStore.remove(removed);
+    String expired = expiringSessionStore.<List<Cookie>>save(token).get(0).getValue();
+
+    // Then
+    assertThat(sessionStore.<PersistedToken>readToken("unknown")).isNull();
+    assertThat(sessionStore.<PersistedToken>readToken(removed)).isNull();
+    assertThat(expiringSessionStore.<PersistedToken>readToken(expired)).isNull();
+    assertThat(sessionStore.size()).isZero();
+    assertThat(expiringSessionStore.size()).isZero();
+  }
+
+  @Test
+  public void should_renew_the_session_in_place() {
+    // Given
+    OffHeapSessionStore sessionStore = OffHeapSessionStore.of(cookieSessionStore(60), 1 << 20);
+    String sessionId =
+        sessionStore.<List<Cookie>>save(persistedToken(Arrays.asList("admins"))).get(0).getValue();
+
+    // When
+    List<Cookie> cookies =
+        sessionStore.renew(sessionId, persistedToken(Arrays.asList("developers")));
+
+    // Then
+    assertThat(cookies.get(0).getValue()).isEqualTo(sessionId);
+    assertThat(sessionStore.<PersistedToken>readToken(sessionId).userInfo().groups())
+        .containsExactly("developers");
+    assertThat(sessionStore.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_evict_least_recently_used_sessions_beyond_memory_cap() {
+    // Given
+    OffHeapSessionStore sessionStore = OffHeapSessionStore.of(cookieSessionStore(60), 1 << 20);
+    // ~200KB per session: 5 sessions fit in the 1MB cap
+    PersistedToken token =
+        persistedToken(
+            IntStream.range(0, 8000)
+                .mapToObj(i -> "spark-users-group-" + i)
+                .collect(Collectors.toList()));
+    String first = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+    String second = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+    IntStream.range(0, 3).forEach(i -> sessionStore.save(token));
+
+    // When
+    // Touch the first session so that the second one becomes the least recently used
+    sessionStore.readToken(first);
+    String sixth = sessionStore.<List<Cookie>>save(token).get(0).getValue();
+
+    // Then
+    assertThat(sessionStore.allocatedBytes()).isEqualTo(1 << 20);
+    assertThat(sessionStore.evictionCount()).isEqualTo(1);
+    assertThat(sessionStore.<PersistedToken>readToken(second)).isNull();
+    assertThat(sessionStore.<PersistedToken>readToken(first)).isNotNull();
+    assertThat(sessionStore.<PersistedToken>readToken(sixth).userInfo().groups()).hasSize(8000);
+  }
+
+  private static CookieSessionStore cookieSessionStore(int cookieMaxAgeSeconds) {
+    return CookieSessionStore.of(
+        "spark", "spark.okdp.local", true, SECRET_KEY, cookieMaxAgeSeconds, false);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.okdp.spark.authc.exception.CipherException;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+public class AesGcmCipherTest {
+
+  // Generated using: openssl enc -aes-128-cbc -k MyPassPhrapse -P -md sha1 -pbkdf2
+  private final String secretKey = "E132A72E815F496FFC49B3EC876754F4";
+
+  @Test
+  public void should_encrypt_and_decrypt_text() {
+    // Given
+    AesGcmCipher cipher = AesGcmCipher.of(secretKey);
+    String text = "message to encrypt";
+
+    // When
+    String decrypted = cipher.decrypt(cipher.encryptToString(text));
+
+    // Then
+    assertThat(decrypted).isEqualTo(text);
+  }
+
+  @Test
+  public void should_use_a_fresh_iv_for_each_message() {
+    // Given
+    AesGcmCipher cipher = AesGcmCipher.of(secretKey);
+    byte[] text = "message to encrypt".getBytes(UTF_8);
+
+    // When
+    byte[] first = cipher.encrypt(text);
+    byte[] second = cipher.encrypt(text);
+
+    // Then
+    assertThat(Arrays.copyOf(first, 12)).isNotEqualTo(Arrays.copyOf(second, 12));
+    assertThat(first).isNotEqualTo(second);
+  }
+
+  @Test
+  public void should_decrypt_messages_encrypted_with_the_static_methods() {
+    // Given
+    AesGcmCipher cipher = AesGcmCipher.of(secretKey);
+    String text = "message to encrypt";
+
+    // When
+    String decrypted = cipher.decrypt(EncryptionUtils.encryptToString(text, secretKey));
+
+    // Then
+    assertThat(decrypted).isEqualTo(text);
+    assertThat(EncryptionUtils.decrypt(cipher.encryptToString(text), secretKey)).isEqualTo(text);
+  }
+
+  @Test
+  public void should_reject_tampered_messages() {
+    // Given
+    AesGcmCipher cipher = AesGcmCipher.of(secretKey);
+    byte[] encrypted = cipher.encrypt("message to encrypt".getBytes(UTF_8));
+
+    // When
+    encrypted[encrypted.length - 1] ^= 1;
+
+    // Then
+    assertThatThrownBy(() -> cipher.decrypt(encrypted)).isInstanceOf(CipherException.class);
+  }
+
+  @Test
+  public void should_reject_invalid_keys() {
+    assertThatThrownBy(() -> AesGcmCipher.of("too-short")).isInstanceOf(CipherException.class);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.okdp.spark.authc.utils.CircuitBreaker.State;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void should_open_after_consecutive_failures_and_close_on_successful_probe()
+      throws Exception {
+    // Given
+    CircuitBreaker circuitBreaker = CircuitBreaker.of("idp", 3, 100, TimeUnit.MILLISECONDS);
+
+    // When
+    for (int i = 0; i < 3; i++) {
+      assertThat(circuitBreaker.tryAcquire()).isTrue();
+      circuitBreaker.onFailure();
+    }
+
+    // Then
+    assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.tryAcquire()).isFalse();
+    assertThat(circuitBreaker.rejectedCount()).isEqualTo(1);
+
+    // When the open duration elapsed, a single probe is let through
+    Thread.sleep(150);
+    assertThat(circuitBreaker.tryAcquire()).isTrue();
+    assertThat(circuitBreaker.state()).isEqualTo(State.HALF_OPEN);
+    assertThat(circuitBreaker.tryAcquire()).isFalse();
+    circuitBreaker.onSuccess();
+
+    // Then
+    assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+    assertThat(circuitBreaker.tryAcquire()).isTrue();
+    assertThat(circuitBreaker.openedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void should_open_again_on_failed_probe() throws Exception {
+    // Given
+    CircuitBreaker circuitBreaker = CircuitBreaker.of("idp", 1, 100, TimeUnit.MILLISECONDS);
+    circuitBreaker.onFailure();
+    Thread.sleep(150);
+
+    // When
+    assertThat(circuitBreaker.tryAcquire()).isTrue();
+    circuitBreaker.onFailure();
+
+    // Then
+    assertThat(circuitBreaker.state()).isEqualTo(State.OPEN);
+    assertThat(circuitBreaker.tryAcquire()).isFalse();
+    assertThat(circuitBreaker.openedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void should_reset_the_failures_on_success() {
+    // Given
+    CircuitBreaker circuitBreaker = CircuitBreaker.of("idp", 2, 1, TimeUnit.SECONDS);
+
+    // When
+    circuitBreaker.onFailure();
+    circuitBreaker.onSuccess();
+    circuitBreaker.onFailure();
+
+    // Then
+    assertThat(circuitBreaker.state()).isEqualTo(State.CLOSED);
+    assertThat(CircuitBreaker.of("idp", 0, 1, TimeUnit.SECONDS).tryAcquire()).isTrue();
+  }
+
+  @Test
+  public void should_reject_the_calls_above_the_bulkhead_limit() {
+    // Given
+    Bulkhead bulkhead = Bulkhead.of(2);
+
+    // When
+    boolean first = bulkhead.tryAcquire();
+    boolean second = bulkhead.tryAcquire();
+    boolean third = bulkhead.tryAcquire();
+
+    // Then
+    assertThat(first).isTrue();
+    assertThat(second).isTrue();
+    assertThat(third).isFalse();
+    assertThat(bulkhead.inFlightCount()).isEqualTo(2);
+    assertThat(bulkhead.rejectedCount()).isEqualTo(1);
+    bulkhead.release();
+    assertThat(bulkhead.tryAcquire()).isTrue();
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class CompressionCodecTest {
+
+  private static final String TOKEN =
+      "{\"identity_provider\":{\"type\":\"email\"},\"access_token_payload\":{\"sub\":\"8f2a1c3e\","
+          + "\"name\":\"John Doe\",\"email\":\"john.doe@example.org\","
+          + "\"groups\":[\"admins\",\"developers\"],\"roles\":[\"offline_access\"]},"
+          + "\"expires_in\":300,\"expires_at\":\"2024-02-22T10:11:11.123Z\"}";
+
+  @ParameterizedTest
+  @EnumSource(CompressionCodec.class)
+  public void should_compress_and_decompress_data(CompressionCodec codec) {
+    // Given
+    byte[] data = TOKEN.getBytes(UTF_8);
+
+    // When
+    byte[] compressed = codec.compress(data);
+
+    // Then
+    assertThat(compressed[0]).isEqualTo(codec.id());
+    assertThat(CompressionCodec.decompress(compressed)).isEqualTo(data);
+  }
+
+  @Test
+  public void should_compress_better_than_gzip_with_the_preset_dictionary() {
+    // Given
+    byte[] data = TOKEN.getBytes(UTF_8);
+
+    // When
+    byte[] deflated = CompressionCodec.DEFLATE.compress(data);
+    byte[] gzipped = CompressionCodec.GZIP.compress(data);
+
+    // Then
+    assertThat(deflated.length).isLessThan(gzipped.length);
+  }
+
+  @Test
+  public void should_store_the_data_when_the_compression_does_not_shrink_it() {
+    // Given
+    byte[] data = "ab".getBytes(UTF_8);
+
+    // When
+    byte[] compressed = CompressionCodec.DEFLATE.compress(data);
+
+    // Then
+    assertThat(compressed[0]).isEqualTo(CompressionCodec.STORE.id());
+    assertThat(CompressionCodec.decompress(compressed)).isEqualTo(data);
+  }
+
+  @Test
+  public void should_decompress_the_legacy_gzip_data() throws IOException {
+    // Given
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+      gzip.write(TOKEN.getBytes(UTF_8));
+    }
+
+    // When
+    byte[] decompressed = CompressionCodec.decompress(out.toByteArray());
+
+    // Then
+    assertThat(new String(decompressed, UTF_8)).isEqualTo(TOKEN);
+  }
+
+  @Test
+  public void should_reject_unknown_codecs() {
+    assertThat(CompressionCodec.from(" Deflate ")).isEqualTo(CompressionCodec.DEFLATE);
+    assertThatThrownBy(() -> CompressionCodec.from("brotli"))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> CompressionCodec.decompress(new byte[] {0x7f, 0x00}))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+}
@@ -16,8 +16,14 @@
 
 package io.okdp.spark.authc.utils;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.zip.GZIPInputStream;
 import org.junit.jupiter.api.Test;
 
 public class CompressionUtilsTest {
@@ -35,4 +41,18 @@ public class CompressionUtilsTest {
     assertThat(compressed).isBase64();
     assertThat(decompressed).isEqualTo(data);
   }
+
+  @Test
+  public void should_compress_to_gzip_by_default() throws IOException {
+    // Given
+    String data = "Data to compress";
+
+    // When
+    String compressed = CompressionUtils.compressToString(data);
+    GZIPInputStream gunzip =
+        new GZIPInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(compressed)));
+
+    // Then
+    assertThat(new String(ByteStreams.toByteArray(gunzip), UTF_8)).isEqualTo(data);
+  }
 }
@@ -17,7 +17,11 @@
 package io.okdp.spark.authc.utils;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
 import org.junit.jupiter.api.Test;
 
 public class HttpAuthenticationUtilsTest {
@@ -48,4 +52,22 @@ public class HttpAuthenticationUtilsTest {
     assertThat(isSecure).isTrue();
     assertThat(isNotSecure).isTrue();
   }
+
+  @Test
+  public void should_ignore_the_cookies_announcing_more_chunks_than_the_maximum() {
+    // Given
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getCookies())
+        .thenReturn(
+            new Cookie[] {
+              new Cookie("spark", "chunks-2"),
+              new Cookie("spark_0", "first-"),
+              new Cookie("spark_1", "second")
+            });
+
+    // When / Then
+    assertThat(HttpAuthenticationUtils.getChunkedCookieValue("spark", 2, request))
+        .hasValue("first-second");
+    assertThat(HttpAuthenticationUtils.getChunkedCookieValue("spark", 1, request)).isEmpty();
+  }
 }
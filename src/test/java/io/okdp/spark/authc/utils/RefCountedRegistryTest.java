@@ -0,0 +1,101 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class RefCountedRegistryTest {
+
+  @Test
+  public void should_share_the_instance_until_the_last_owner_releases_it() throws Exception {
+    // Given
+    RefCountedRegistry<String, String> registry = new RefCountedRegistry<>();
+    AtomicInteger creations = new AtomicInteger();
+
+    // When
+    String first = registry.acquire("key", () -> "instance-" + creations.incrementAndGet());
+    String second = registry.acquire("key", () -> "instance-" + creations.incrementAndGet());
+
+    // Then
+    assertThat(second).isSameAs(first);
+    assertThat(creations).hasValue(1);
+    assertThat(registry.refCount("key")).isEqualTo(2);
+    assertThat(registry.release("key")).isNull();
+    assertThat(registry.release("key")).isSameAs(first);
+    assertThat(registry.refCount("key")).isZero();
+  }
+
+  @Test
+  public void should_not_block_the_other_keys_while_creating_an_instance() throws Exception {
+    // Given
+    RefCountedRegistry<String, String> registry = new RefCountedRegistry<>();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    // When
+    Future<String> slow =
+        executor.submit(
+            () ->
+                registry.acquire(
+                    "slow",
+                    () -> {
+                      started.countDown();
+                      release.await();
+                      return "slow-instance";
+                    }));
+    started.await();
+    Future<String> fast = executor.submit(() -> registry.acquire("fast", () -> "fast-instance"));
+
+    // Then
+    assertThat(fast.get(5, TimeUnit.SECONDS)).isEqualTo("fast-instance");
+    release.countDown();
+    assertThat(slow.get(5, TimeUnit.SECONDS)).isEqualTo("slow-instance");
+    executor.shutdown();
+  }
+
+  @Test
+  public void should_not_acquire_the_key_if_the_creation_failed() throws Exception {
+    // Given
+    RefCountedRegistry<String, String> registry = new RefCountedRegistry<>();
+
+    // When
+    assertThatThrownBy(
+            () ->
+                registry.acquire(
+                    "key",
+                    () -> {
+                      throw new IOException("unreachable");
+                    }))
+        .isInstanceOf(IOException.class);
+    String instance = registry.acquire("key", () -> "instance");
+
+    // Then
+    assertThat(instance).isEqualTo("instance");
+    assertThat(registry.refCount("key")).isEqualTo(1);
+  }
+}
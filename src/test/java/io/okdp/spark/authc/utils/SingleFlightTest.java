@@ -0,0 +1,194 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.okdp.spark.authc.exception.AuthenticationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hc.core5.http.HttpStatus;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+  @Test
+  public void should_run_a_single_call_for_concurrent_callers() throws Exception {
+    // Given
+    SingleFlight<String, String> singleFlight = SingleFlight.of(10, 0, TimeUnit.SECONDS);
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    // When
+    List<Future<String>> results = new ArrayList<>();
+    try {
+      results.add(
+          executor.submit(
+              () ->
+                  singleFlight.execute(
+                      "refresh-token",
+                      () -> {
+                        calls.incrementAndGet();
+                        started.countDown();
+                        await(release);
+                        return "access-token";
+                      })));
+      started.await();
+      for (int i = 0; i < 7; i++) {
+        results.add(
+            executor.submit(
+                () ->
+                    singleFlight.execute(
+                        "refresh-token",
+                        () -> {
+                          calls.incrementAndGet();
+                          return "other-access-token";
+                        })));
+      }
+      // Let the callers join the running call
+      Thread.sleep(200);
+      release.countDown();
+      for (Future<String> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("access-token");
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Then
+    assertThat(calls).hasValue(1);
+    assertThat(singleFlight.inFlightCount()).isZero();
+  }
+
+  @Test
+  public void should_share_the_failure_and_bound_the_wait() throws Exception {
+    // Given
+    SingleFlight<String, String> singleFlight = SingleFlight.of(100, 0, TimeUnit.MILLISECONDS);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // When
+    Future<String> leader =
+        executor.submit(
+            () ->
+                singleFlight.execute(
+                    "code",
+                    () -> {
+                      started.countDown();
+                      await(release);
+                      throw new AuthenticationException(HttpStatus.SC_BAD_REQUEST, "invalid_grant");
+                    }));
+    started.await();
+
+    // Then
+    try {
+      assertThatThrownBy(() -> singleFlight.execute("code", () -> "access-token"))
+          .isInstanceOf(AuthenticationException.class)
+          .extracting("httpStatusCode")
+          .isEqualTo(HttpStatus.SC_GATEWAY_TIMEOUT);
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+    assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+        .hasCauseInstanceOf(AuthenticationException.class)
+        .hasMessageContaining("invalid_grant");
+    assertThat(singleFlight.execute("code", () -> "access-token")).isEqualTo("access-token");
+  }
+
+  @Test
+  public void should_reuse_the_retained_results() {
+    // Given
+    SingleFlight<String, String> singleFlight = SingleFlight.of(10, 10, TimeUnit.SECONDS);
+    AtomicInteger calls = new AtomicInteger();
+
+    // When
+    String first =
+        singleFlight.execute("refresh-token", () -> "access-token-" + calls.incrementAndGet());
+    String second =
+        singleFlight.execute("refresh-token", () -> "access-token-" + calls.incrementAndGet());
+
+    // Then
+    assertThat(first).isEqualTo("access-token-1");
+    assertThat(second).isEqualTo("access-token-1");
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  public void should_share_the_asynchronous_call_with_the_blocking_callers() throws Exception {
+    // Given
+    SingleFlight<String, String> singleFlight = SingleFlight.of(10, 10, TimeUnit.SECONDS);
+    AtomicInteger calls = new AtomicInteger();
+    CompletableFuture<String> response = new CompletableFuture<>();
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    // When
+    CompletableFuture<String> first =
+        singleFlight.executeAsync(
+            "refresh-token",
+            () -> {
+              calls.incrementAndGet();
+              return response;
+            });
+    CompletableFuture<String> second =
+        singleFlight.executeAsync(
+            "refresh-token",
+            () -> {
+              calls.incrementAndGet();
+              return CompletableFuture.completedFuture("other-access-token");
+            });
+    Future<String> blocking =
+        executor.submit(
+            () -> singleFlight.execute("refresh-token", () -> "blocking-access-token"));
+    try {
+      // Let the blocking caller join the running call
+      Thread.sleep(200);
+      assertThat(first).isNotDone();
+      response.complete("access-token");
+
+      // Then
+      assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("access-token");
+      assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("access-token");
+      assertThat(blocking.get(5, TimeUnit.SECONDS)).isEqualTo("access-token");
+    } finally {
+      executor.shutdownNow();
+    }
+    assertThat(calls).hasValue(1);
+    assertThat(singleFlight.inFlightCount()).isZero();
+    assertThat(singleFlight.executeAsync("refresh-token", () -> null).get())
+        .isEqualTo("access-token");
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
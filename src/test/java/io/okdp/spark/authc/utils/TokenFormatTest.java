@@ -0,0 +1,97 @@
+/*
+ *    Copyright 2024 The OKDP Authors.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package io.okdp.spark.authc.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.okdp.spark.authc.exception.OidcClientException;
+import io.okdp.spark.authc.model.PersistedToken;
+import io.okdp.spark.authc.model.UserInfo;
+import io.okdp.spark.authc.provider.impl.GoogleIdentityProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class TokenFormatTest {
+
+  private final PersistedToken token =
+      PersistedToken.builder()
+          .identityProvider(new GoogleIdentityProvider())
+          .userInfo(
+              new UserInfo()
+                  .sub("accounts.google.com:108654245762188424520")
+                  .name("Bob")
+                  .email("bob@example.org")
+                  .groups(Arrays.asList("admins", "développeurs"))
+                  .roles(Arrays.asList("offline_access")))
+          .expiresIn(86399)
+          .expiresAt(Date.from(Instant.parse("2024-02-22T10:11:11Z")))
+          .refreshToken("ChlvaWJmNXBuaG1rdWN0enppaGltaWp1MnJkEhlndmdzZ2tmcnVhd2x6cGV1a2ZnajNqdjJr")
+          .build();
+
+  @ParameterizedTest
+  @EnumSource(TokenFormat.class)
+  public void should_write_and_read_token(TokenFormat tokenFormat) {
+    // Given
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    // When
+    tokenFormat.write(token, out);
+    PersistedToken read = TokenFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+    // Then
+    assertThat(read.identityProvider()).isInstanceOf(GoogleIdentityProvider.class);
+    assertThat(read.userInfo()).isEqualTo(token.userInfo());
+    assertThat(read.expiresIn()).isEqualTo(token.expiresIn());
+    assertThat(read.expiresAt()).isEqualTo(token.expiresAt());
+    assertThat(read.refreshToken()).isEqualTo(token.refreshToken());
+    assertThat(read.id()).isEqualTo(token.id());
+  }
+
+  @Test
+  public void should_write_smaller_binary_token() {
+    // Given
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    ByteArrayOutputStream binary = new ByteArrayOutputStream();
+
+    // When
+    TokenFormat.JSON.write(token, json);
+    TokenFormat.BINARY.write(token, binary);
+
+    // Then
+    assertThat(binary.size()).isLessThan(json.size() / 2);
+  }
+
+  @Test
+  public void should_fail_on_truncated_binary_token() {
+    // Given
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    TokenFormat.BINARY.write(token, out);
+    byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 10);
+
+    // Then
+    assertThatThrownBy(() -> TokenFormat.read(new ByteArrayInputStream(truncated)))
+        .isInstanceOf(OidcClientException.class);
+    assertThatThrownBy(() -> TokenFormat.from("xml")).isInstanceOf(IllegalArgumentException.class);
+  }
+}
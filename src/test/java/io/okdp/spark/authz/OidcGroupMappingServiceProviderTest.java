@@ -20,9 +20,13 @@ import static java.util.Arrays.asList;
 import static java.util.Collections.emptySet;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static scala.collection.JavaConverters.asScalaSet;
+import static scala.collection.JavaConverters.setAsJavaSet;
 
+import com.google.common.cache.CacheStats;
+import io.okdp.spark.authz.OidcGroupMappingServiceProvider.RequestScope;
 import java.util.HashSet;
 import org.junit.jupiter.api.Test;
+import scala.collection.immutable.Set;
 
 public class OidcGroupMappingServiceProviderTest {
 
@@ -52,4 +56,77 @@ public class OidcGroupMappingServiceProviderTest {
     assertThat(groupMappingServiceProvider.getGroups("user2@example.org"))
         .isEqualTo(asScalaSet(emptySet()).toSet());
   }
+
+  @Test
+  public void should_reuse_the_precomputed_group_set_of_the_user() {
+    // Given
+    OidcGroupMappingServiceProvider groupMappingServiceProvider =
+        new OidcGroupMappingServiceProvider();
+    OidcGroupMappingServiceProvider.addUserAndGroups(
+        "user6@example.org", asList("team6", new String("team7"), "team6"));
+    OidcGroupMappingServiceProvider.addUserAndGroups(
+        "user7@example.org", asList(new String("team7")));
+
+    // When
+    Set<String> groups = groupMappingServiceProvider.getGroups("user6@example.org");
+
+    // Then
+    assertThat(groups).isEqualTo(asScalaSet(new HashSet<>(asList("team6", "team7"))).toSet());
+    assertThat(groupMappingServiceProvider.getGroups("user6@example.org")).isSameAs(groups);
+    // The group names are interned across the users
+    assertThat(groupMappingServiceProvider.getGroups("user7@example.org").head())
+        .isSameAs(setAsJavaSet(groups).stream().filter("team7"::equals).findFirst().get());
+  }
+
+  @Test
+  public void should_read_the_request_scoped_groups_before_the_shared_cache() {
+    // Given
+    OidcGroupMappingServiceProvider.configure(1, 59, 1);
+    OidcGroupMappingServiceProvider groupMappingServiceProvider =
+        new OidcGroupMappingServiceProvider();
+    Set<String> scopedGroups;
+    Set<String> otherUserGroups;
+
+    // When
+    try (RequestScope ignored =
+        OidcGroupMappingServiceProvider.requestScope("user8@example.org", asList("team8"))) {
+      // Evict the user from the shared cache
+      OidcGroupMappingServiceProvider.addUserAndGroups("user9@example.org", asList("team9"));
+      scopedGroups = groupMappingServiceProvider.getGroups("user8@example.org");
+      otherUserGroups = groupMappingServiceProvider.getGroups("user9@example.org");
+    }
+    Set<String> unscopedGroups = groupMappingServiceProvider.getGroups("user8@example.org");
+
+    // Then
+    assertThat(scopedGroups).isEqualTo(asScalaSet(new HashSet<>(asList("team8"))).toSet());
+    assertThat(otherUserGroups).isEqualTo(asScalaSet(new HashSet<>(asList("team9"))).toSet());
+    assertThat(unscopedGroups).isEqualTo(asScalaSet(emptySet()).toSet());
+    OidcGroupMappingServiceProvider.configure(10_000, 59, 16);
+  }
+
+  @Test
+  public void should_only_write_changed_groups_and_record_statistics() {
+    // Given
+    OidcGroupMappingServiceProvider.configure(2, 59, 4);
+    OidcGroupMappingServiceProvider groupMappingServiceProvider =
+        new OidcGroupMappingServiceProvider();
+    CacheStats before = OidcGroupMappingServiceProvider.groupCacheStats();
+
+    // When
+    OidcGroupMappingServiceProvider.addUserAndGroups("user3@example.org", asList("team1"));
+    OidcGroupMappingServiceProvider.addUserAndGroups("user3@example.org", asList("team1"));
+    OidcGroupMappingServiceProvider.addUserAndGroups("user3@example.org", asList("team3"));
+    OidcGroupMappingServiceProvider.addUserAndGroups("user4@example.org", asList("team4"));
+    OidcGroupMappingServiceProvider.addUserAndGroups("user5@example.org", asList("team5"));
+    CacheStats stats = OidcGroupMappingServiceProvider.groupCacheStats().minus(before);
+
+    // Then
+    assertThat(groupMappingServiceProvider.getGroups("user5@example.org"))
+        .isEqualTo(asScalaSet(new HashSet<>(asList("team5"))).toSet());
+    assertThat(stats.hitCount()).isEqualTo(2);
+    assertThat(stats.missCount()).isEqualTo(3);
+    assertThat(stats.evictionCount()).isGreaterThanOrEqualTo(1);
+    assertThat(OidcGroupMappingServiceProvider.groupCacheSize()).isLessThanOrEqualTo(2);
+    OidcGroupMappingServiceProvider.configure(10_000, 59, 16);
+  }
 }